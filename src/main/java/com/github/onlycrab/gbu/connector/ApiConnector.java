@@ -10,6 +10,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.*;
 import java.security.KeyStore;
 import java.security.cert.CertificateFactory;
@@ -17,16 +18,26 @@ import java.security.cert.X509Certificate;
 import java.util.Properties;
 
 /**
- * Connector to a Gitlab API.
+ * Connector to a Gitlab API by {@link HttpURLConnection}.
  *
  * @author Roman Rynkovich
  */
 @SuppressWarnings("WeakerAccess")
-public class ApiConnector {
+public class ApiConnector implements Connector {
     /**
      * Array of trusted certificates.
      */
     private final TrustManager[] trustMrgs;
+    /**
+     * SSL context for HTTPS connections, it is created once so TLS sessions and keep-alive connections
+     * are reused between requests.
+     */
+    private volatile SSLContext sslContext;
+    /**
+     * Socket factory of {@link ApiConnector#sslContext}. Keep-alive connections are cached by socket factory,
+     * so the same instance must be used for every connection.
+     */
+    private volatile SSLSocketFactory socketFactory;
 
     /**
      * API response encoding.
@@ -90,25 +101,63 @@ public class ApiConnector {
         if (url == null){
             throw new ApiConnectorException("Error at opening connection : URL is <null>.");
         }
-        if (url.toString().toLowerCase().startsWith("https")){
-            try {
-                SSLContext sc = SSLContext.getInstance("SSL");
-                sc.init(null, trustMrgs, new java.security.SecureRandom());
-                HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-            } catch (Exception e) {
-                throw new ApiConnectorException(String.format("Cant init SSL context : %s.", e.getMessage()));
-            }
-        }
-
         HttpURLConnection connection;
         try {
             connection = (HttpURLConnection) url.openConnection();
         } catch (IOException e){
             throw new ApiConnectorException(String.format("Error at opening connection : %s.", e.getMessage()));
         }
+        if (connection instanceof HttpsURLConnection){
+            ((HttpsURLConnection) connection).setSSLSocketFactory(getSocketFactory());
+        }
         return connection;
     }
 
+    /**
+     * Get socket factory for HTTPS connections, create it at first call.
+     *
+     * @return socket factory trusting {@link ApiConnector#trustMrgs}
+     * @throws ApiConnectorException if there was a context initiation exception
+     */
+    protected SSLSocketFactory getSocketFactory() throws ApiConnectorException {
+        SSLSocketFactory factory = socketFactory;
+        if (factory == null){
+            synchronized (this){
+                factory = socketFactory;
+                if (factory == null){
+                    factory = getSslContext().getSocketFactory();
+                    socketFactory = factory;
+                }
+            }
+        }
+        return factory;
+    }
+
+    /**
+     * Get SSL context for HTTPS connections, create it at first call.
+     *
+     * @return SSL context trusting {@link ApiConnector#trustMrgs}
+     * @throws ApiConnectorException if there was a context initiation exception
+     */
+    protected SSLContext getSslContext() throws ApiConnectorException {
+        SSLContext context = sslContext;
+        if (context == null){
+            synchronized (this){
+                context = sslContext;
+                if (context == null){
+                    try {
+                        context = SSLContext.getInstance("TLS");
+                        context.init(null, trustMrgs, new java.security.SecureRandom());
+                    } catch (Exception e) {
+                        throw new ApiConnectorException(String.format("Cant init SSL context : %s.", e.getMessage()));
+                    }
+                    sslContext = context;
+                }
+            }
+        }
+        return context;
+    }
+
     /**
      * Execute API call.
      *
@@ -122,6 +171,76 @@ public class ApiConnector {
      *                              if there was {@code java.io.IOException} while reading API response
      */
     public String execute(HttpURLConnection connection, RequestMethod method, int timeout, Properties properties) throws ApiConnectorException {
+        return request(connection, method, timeout, properties).getBody();
+    }
+
+    /**
+     * Open connection and execute API call.
+     *
+     * @param url target URL
+     * @param method request method
+     * @param timeout timeout in millisecond
+     * @param properties request properties
+     * @return API response as string
+     * @throws ApiConnectorException if there was {@code ApiConnectorException} while opening connection to API;
+     *                              if {@code connection} is null;
+     *                              if {@code method} is invalid;
+     *                              if there was {@link java.io.IOException} while reading API response
+     */
+    public String execute(URL url, RequestMethod method, int timeout, Properties properties) throws ApiConnectorException {
+        return request(url, method, timeout, properties).getBody();
+    }
+
+    /**
+     * Execute API call and keep response headers.
+     *
+     * @param connection connection to API
+     * @param method request method
+     * @param timeout timeout in millisecond
+     * @param properties request properties
+     * @return API response with status code and headers
+     * @throws ApiConnectorException if {@code connection} is null;
+     *                              if {@code method} is invalid;
+     *                              if there was {@code java.io.IOException} while reading API response
+     */
+    public ApiResponse<String> request(HttpURLConnection connection, RequestMethod method, int timeout, Properties properties) throws ApiConnectorException {
+        return request(connection, method, timeout, properties, ResponseReader.STRING);
+    }
+
+    /**
+     * Open connection and execute API call, keep response headers.
+     *
+     * @param url target URL
+     * @param method request method
+     * @param timeout timeout in millisecond
+     * @param properties request properties
+     * @return API response with status code and headers
+     * @throws ApiConnectorException if there was {@code ApiConnectorException} while opening connection to API;
+     *                              if {@code connection} is null;
+     *                              if {@code method} is invalid;
+     *                              if there was {@link java.io.IOException} while reading API response
+     */
+    public ApiResponse<String> request(URL url, RequestMethod method, int timeout, Properties properties) throws ApiConnectorException {
+        return request(url, method, timeout, properties, ResponseReader.STRING);
+    }
+
+    /**
+     * Execute API call and convert response body by {@code reader} while it is received.
+     * Runtime exceptions of {@code reader} are not caught.
+     *
+     * @param connection connection to API
+     * @param method request method
+     * @param timeout timeout in millisecond
+     * @param properties request properties
+     * @param reader response body reader
+     * @param <T> type of converted body
+     * @return API response with converted body, status code and headers
+     * @throws ApiConnectorException if {@code connection} is null;
+     *                              if {@code method} is invalid;
+     *                              if there was {@code java.io.IOException} while reading API response
+     */
+    public <T> ApiResponse<T> request(HttpURLConnection connection, RequestMethod method, int timeout, Properties properties,
+                                      ResponseReader<T> reader) throws ApiConnectorException {
         if (connection == null){
             throw new ApiConnectorException("Connection is <null>.");
         }
@@ -141,32 +260,74 @@ public class ApiConnector {
             }
         }
 
-        try (final BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), encoding))) {
-            String input;
-            final StringBuilder content = new StringBuilder();
-            while ((input = in.readLine()) != null) {
-                content.append(input);
-            }
-            return content.toString();
+        try (final Reader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), encoding))) {
+            T body = reader.read(in);
+            //The connection returns to keep-alive cache only if the response is read to the end
+            drain(in);
+            return new ApiResponse<>(connection.getResponseCode(), body, connection.getHeaderFields());
         } catch (IOException e){
-            throw new ApiConnectorException(String.format("Error at reading response : %s.", e.getMessage()));
+            throw new ApiConnectorException(String.format("Error at reading response : %s.", e.getMessage()), readError(connection));
         }
     }
 
     /**
-     * Open connection and execute API call.
+     * Open connection, execute API call and convert response body by {@code reader} while it is received.
+     * Runtime exceptions of {@code reader} are not caught.
      *
      * @param url target URL
      * @param method request method
      * @param timeout timeout in millisecond
      * @param properties request properties
-     * @return API response as string
+     * @param reader response body reader
+     * @param <T> type of converted body
+     * @return API response with converted body, status code and headers
      * @throws ApiConnectorException if there was {@code ApiConnectorException} while opening connection to API;
      *                              if {@code connection} is null;
      *                              if {@code method} is invalid;
      *                              if there was {@link java.io.IOException} while reading API response
      */
-    public String execute(URL url, RequestMethod method, int timeout, Properties properties) throws ApiConnectorException {
-        return execute(open(url), method, timeout, properties);
+    public <T> ApiResponse<T> request(URL url, RequestMethod method, int timeout, Properties properties,
+                                      ResponseReader<T> reader) throws ApiConnectorException {
+        return request(open(url), method, timeout, properties, reader);
+    }
+
+    /**
+     * Read rest of response body.
+     *
+     * @param reader response body stream
+     * @throws IOException if an I/O error occurs
+     */
+    protected static void drain(Reader reader) throws IOException {
+        char[] buffer = new char[1024];
+        while (reader.read(buffer) != -1) {
+            //skip
+        }
+    }
+
+    /**
+     * Read error response. The error body is read to the end, so the connection can be reused.
+     *
+     * @param connection connection to API
+     * @return error response or {@code null} if there was no response
+     */
+    private ApiResponse<String> readError(HttpURLConnection connection) {
+        int code;
+        try {
+            code = connection.getResponseCode();
+        } catch (IOException e) {
+            return null;
+        }
+        if (code <= 0){
+            return null;
+        }
+        String body = "";
+        InputStream stream = connection.getErrorStream();
+        if (stream != null){
+            try (Reader in = new InputStreamReader(stream, encoding)) {
+                body = ResponseReader.STRING.read(in);
+            } catch (IOException ignored) {
+            }
+        }
+        return new ApiResponse<>(code, body, connection.getHeaderFields());
     }
 }
@@ -0,0 +1,145 @@
+package com.github.onlycrab.gbu.connector;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Gitlab API response: status code, body and headers.
+ *
+ * @param <T> type of response body
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+@Getter
+public class ApiResponse<T> {
+    /**
+     * Header with links to other pages.
+     */
+    public static final String HEADER_LINK = "Link";
+    /**
+     * One link of {@link ApiResponse#HEADER_LINK} header: {@code <url>; rel="name"}.
+     */
+    private static final Pattern LINK = Pattern.compile("<([^>]*)>([^<]*)");
+    /**
+     * Relation parameter of a link.
+     */
+    private static final Pattern LINK_REL = Pattern.compile("rel\\s*=\\s*\"?([^\";,]*)\"?");
+
+    /**
+     * HTTP status code.
+     */
+    private final int code;
+    /**
+     * Response body.
+     */
+    private final T body;
+    /**
+     * Response headers, names are case-insensitive.
+     */
+    private final Map<String, List<String>> headers;
+
+    /**
+     * Create response.
+     *
+     * @param code HTTP status code
+     * @param body response body
+     * @param headers response headers
+     */
+    public ApiResponse(int code, T body, Map<String, List<String>> headers) {
+        this.code = code;
+        this.body = body;
+        this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                //HttpURLConnection stores the status line with a null key
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    this.headers.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Create response without headers.
+     *
+     * @param body response body
+     */
+    public ApiResponse(T body) {
+        this(200, body, Collections.emptyMap());
+    }
+
+    /**
+     * Get first value of header.
+     *
+     * @param name header name
+     * @return header value or {@code null} if no such header found
+     */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return values.get(0);
+    }
+
+    /**
+     * Get first value of header as integer.
+     *
+     * @param name header name
+     * @param defaultValue value returned if there is no such header or it is not an integer
+     * @return header value as integer
+     */
+    public int getHeaderAsInt(String name, int defaultValue) {
+        String value = getHeader(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get link with relation {@code rel} from {@link ApiResponse#HEADER_LINK} header.
+     *
+     * @param rel link relation, f.e. {@code next}
+     * @return link URL or {@code null} if there is no such link
+     */
+    public String getLink(String rel) {
+        return parseLink(getHeader(HEADER_LINK), rel);
+    }
+
+    /**
+     * Get link with relation {@code rel} from value of {@link ApiResponse#HEADER_LINK} header.
+     * Example of header: {@code <https://gitlab/api/v4/users?page=2>; rel="next", <https://gitlab/api/v4/users?page=1>; rel="first"}.
+     *
+     * @param header header value
+     * @param rel link relation, f.e. {@code next}
+     * @return link URL or {@code null} if there is no such link
+     */
+    public static String parseLink(String header, String rel) {
+        if (header == null || rel == null){
+            return null;
+        }
+        Matcher link = LINK.matcher(header);
+        while (link.find()){
+            Matcher relation = LINK_REL.matcher(link.group(2));
+            if (relation.find()){
+                for (String name : relation.group(1).trim().split("\\s+")){
+                    if (name.equalsIgnoreCase(rel)){
+                        return link.group(1).trim();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
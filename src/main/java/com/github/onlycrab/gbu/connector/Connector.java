@@ -0,0 +1,83 @@
+package com.github.onlycrab.gbu.connector;
+
+import com.github.onlycrab.gbu.exception.ApiConnectorException;
+
+import java.net.URL;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Connector to a Gitlab API.
+ *
+ * @author Roman Rynkovich
+ * @see ConnectorFactory
+ */
+public interface Connector {
+    /**
+     * Open connection and execute API call.
+     *
+     * @param url target URL
+     * @param method request method
+     * @param timeout timeout in millisecond
+     * @param properties request properties
+     * @return API response as string
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     */
+    String execute(URL url, RequestMethod method, int timeout, Properties properties) throws ApiConnectorException;
+
+    /**
+     * Open connection and execute API call, keep response headers.
+     *
+     * @param url target URL
+     * @param method request method
+     * @param timeout timeout in millisecond
+     * @param properties request properties
+     * @return API response with status code and headers
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     */
+    ApiResponse<String> request(URL url, RequestMethod method, int timeout, Properties properties) throws ApiConnectorException;
+
+    /**
+     * Open connection, execute API call and convert response body by {@code reader} while it is received.
+     * Runtime exceptions of {@code reader} are not caught.
+     *
+     * @param url target URL
+     * @param method request method
+     * @param timeout timeout in millisecond
+     * @param properties request properties
+     * @param reader response body reader
+     * @param <T> type of converted body
+     * @return API response with converted body, status code and headers
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     */
+    <T> ApiResponse<T> request(URL url, RequestMethod method, int timeout, Properties properties,
+                               ResponseReader<T> reader) throws ApiConnectorException;
+
+    /**
+     * Execute API call asynchronously, see {@link Connector#request(URL, RequestMethod, int, Properties, ResponseReader)}.
+     * By default the call is executed by {@code executor}, so the number of simultaneous calls is limited
+     * by its threads.
+     *
+     * @param url target URL
+     * @param method request method
+     * @param timeout timeout in millisecond
+     * @param properties request properties
+     * @param reader response body reader
+     * @param executor executor for blocking work: calls of blocking connectors and reading of response body
+     * @param <T> type of converted body
+     * @return future of API response, completed exceptionally by {@link ApiConnectorException} if exception occurs
+     *         during communicating with API or by runtime exception of {@code reader}
+     */
+    default <T> CompletableFuture<ApiResponse<T>> requestAsync(URL url, RequestMethod method, int timeout, Properties properties,
+                                                               ResponseReader<T> reader, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return request(url, method, timeout, properties, reader);
+            } catch (ApiConnectorException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+}
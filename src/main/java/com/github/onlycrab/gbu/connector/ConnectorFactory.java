@@ -0,0 +1,67 @@
+package com.github.onlycrab.gbu.connector;
+
+import com.github.onlycrab.gbu.exception.ApiConnectorException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Factory of connectors to a Gitlab API.
+ * Connector by {@code java.net.http.HttpClient} (HTTP/2, asynchronous requests) is available only on Java 11 or
+ * above: it is compiled to {@code META-INF/versions/11} of multi-release jar and is loaded by name. On older Java
+ * {@link ApiConnector} is used.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class ConnectorFactory {
+    private static final Logger LOGGER = LogManager.getLogger(ConnectorFactory.class);
+    /**
+     * Class name of connector by {@code java.net.http.HttpClient}.
+     */
+    public static final String HTTP_CLIENT_CONNECTOR = "com.github.onlycrab.gbu.connector.HttpClientConnector";
+
+    private ConnectorFactory() {
+    }
+
+    /**
+     * Create connector.
+     *
+     * @param httpClient if {@code true} - connector by {@code java.net.http.HttpClient} is created if it is
+     *                   available, otherwise - {@link ApiConnector}
+     * @param certificate Gitlab web certificate, if {@code null} - connector trusts any certificate
+     * @return connector
+     * @throws ApiConnectorException if exception occurs while trusting certificate
+     */
+    public static Connector create(boolean httpClient, byte[] certificate) throws ApiConnectorException {
+        if (httpClient) {
+            Class<?> type;
+            try {
+                type = Class.forName(HTTP_CLIENT_CONNECTOR);
+            } catch (ClassNotFoundException | LinkageError e) {
+                type = null;
+                LOGGER.warn("HttpClient connector is not available (Java 11 or above is required), HttpURLConnection is used.");
+            }
+            if (type != null) {
+                try {
+                    if (certificate == null) {
+                        return (Connector) type.getConstructor().newInstance();
+                    }
+                    return (Connector) type.getConstructor(byte[].class).newInstance((Object) certificate);
+                } catch (InvocationTargetException e) {
+                    if (e.getCause() instanceof ApiConnectorException) {
+                        throw (ApiConnectorException) e.getCause();
+                    }
+                    throw new ApiConnectorException(String.format("Cant create HttpClient connector : %s.", e.getCause().getMessage()));
+                } catch (ReflectiveOperationException e) {
+                    throw new ApiConnectorException(String.format("Cant create HttpClient connector : %s.", e.getMessage()));
+                }
+            }
+        }
+        if (certificate == null) {
+            return new ApiConnector();
+        }
+        return new ApiConnector(certificate);
+    }
+}
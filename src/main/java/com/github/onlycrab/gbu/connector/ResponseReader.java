@@ -0,0 +1,36 @@
+package com.github.onlycrab.gbu.connector;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reader of API response body, which converts it to an object while it is received.
+ *
+ * @param <T> type of converted body
+ * @author Roman Rynkovich
+ */
+@FunctionalInterface
+public interface ResponseReader<T> {
+    /**
+     * Reader of response body as string, line breaks are skipped.
+     */
+    ResponseReader<String> STRING = reader -> {
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        String input;
+        final StringBuilder content = new StringBuilder();
+        while ((input = in.readLine()) != null) {
+            content.append(input);
+        }
+        return content.toString();
+    };
+
+    /**
+     * Read response body.
+     *
+     * @param reader response body stream, it is closed by connector
+     * @return converted body
+     * @throws IOException if an I/O error occurs while reading response
+     */
+    T read(Reader reader) throws IOException;
+}
@@ -1,12 +1,42 @@
 package com.github.onlycrab.gbu.exception;
 
+import com.github.onlycrab.gbu.connector.ApiResponse;
+
 /**
  * This exception is thrown when an error occurred during communicating with Gitlab API.
  *
  * @author Roman Rynkovich
  */
 public class ApiConnectorException extends Exception {
+    /**
+     * Gitlab API error response, {@code null} if there was no response.
+     */
+    private final ApiResponse<String> response;
+
     public ApiConnectorException(String msg) {
+        this(msg, null);
+    }
+
+    public ApiConnectorException(String msg, ApiResponse<String> response) {
         super(msg);
+        this.response = response;
+    }
+
+    /**
+     * Get Gitlab API error response: status code, body and headers.
+     *
+     * @return error response or {@code null} if there was no response
+     */
+    public ApiResponse<String> getResponse() {
+        return response;
+    }
+
+    /**
+     * Get HTTP status code of Gitlab API error response.
+     *
+     * @return status code or {@code 0} if there was no response
+     */
+    public int getCode() {
+        return response == null ? 0 : response.getCode();
     }
 }
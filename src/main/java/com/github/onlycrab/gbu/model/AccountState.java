@@ -0,0 +1,47 @@
+package com.github.onlycrab.gbu.model;
+
+/**
+ * State of an user account in LDAP, decoded from {@code userAccountControl} flags.
+ *
+ * @author Roman Rynkovich
+ */
+public enum AccountState {
+    ACTIVE,
+    DISABLED,
+    LOCKED_OUT;
+
+    /**
+     * Flag ACCOUNTDISABLE of {@code userAccountControl}.
+     */
+    public static final int ACCOUNTDISABLE = 0x0002;
+    /**
+     * Flag LOCKOUT of {@code userAccountControl}.
+     */
+    public static final int LOCKOUT = 0x0010;
+
+    /**
+     * Decode account state.
+     *
+     * @param userAccountControl value of {@code userAccountControl} attribute
+     * @param lockout if {@code true} - LOCKOUT flag is decoded too, otherwise - only ACCOUNTDISABLE flag
+     * @return account state
+     */
+    public static AccountState of(int userAccountControl, boolean lockout) {
+        if ((userAccountControl & ACCOUNTDISABLE) != 0){
+            return DISABLED;
+        }
+        if (lockout && (userAccountControl & LOCKOUT) != 0){
+            return LOCKED_OUT;
+        }
+        return ACTIVE;
+    }
+
+    /**
+     * Check if the account cant be used to log in, so Gitlab user must be blocked.
+     *
+     * @return {@code true} if account is disabled or locked out
+     */
+    public boolean isLocked() {
+        return this != ACTIVE;
+    }
+}
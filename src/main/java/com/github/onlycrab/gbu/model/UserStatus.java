@@ -0,0 +1,61 @@
+package com.github.onlycrab.gbu.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.Objects;
+
+/**
+ * Last known status of Gitlab user and its AD account, kept between runs.
+ *
+ * @author Roman Rynkovich
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserStatus {
+    /**
+     * Gitlab user ID.
+     */
+    private long id;
+    private String username;
+    /**
+     * Gitlab user state, f.e. {@code active} or {@code blocked}.
+     */
+    private String gitState;
+    /**
+     * AD account state, {@code null} if account was not found.
+     */
+    private AccountState adState;
+    /**
+     * Time of the last observation in milliseconds.
+     */
+    private long updated;
+    /**
+     * Number of AD account state changes since {@link UserStatus#flipsSince}.
+     */
+    private int flips;
+    /**
+     * Start time of counting AD account state changes in milliseconds.
+     */
+    private long flipsSince;
+
+    /**
+     * Check if status is the same, except time of observation.
+     *
+     * @param other other status
+     * @return {@code true} if all fields except {@link UserStatus#updated} are equal
+     */
+    public boolean isSame(UserStatus other) {
+        return other != null &&
+                id == other.id &&
+                flips == other.flips &&
+                flipsSince == other.flipsSince &&
+                Objects.equals(username, other.username) &&
+                Objects.equals(gitState, other.gitState) &&
+                adState == other.adState;
+    }
+}
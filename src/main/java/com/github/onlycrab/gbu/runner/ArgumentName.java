@@ -15,13 +15,42 @@ class ArgumentName {
         public static final String GIT_CERT = "crt";
         public static final String GIT_TOKEN = "t";
         public static final String GIT_ONLY_IDENTITIES = "oi";
+        public static final String GIT_IDENTITY_DOMAINS = "oid";
+        public static final String GIT_IDENTITY_PROVIDERS = "oip";
         public static final String GIT_EXCLUDE = "ex";
+        public static final String GIT_EXCLUDE_FILE = "exf";
+        public static final String GIT_COMPACT_USERS = "cu";
         public static final String GIT_USER_TEMPLATE = "ut";
         public static final String GIT_TIMEOUT = "to";
+        public static final String GIT_PAGE_THREADS = "pt";
+        public static final String GIT_PAGINATION = "pg";
+        public static final String GIT_PER_PAGE = "pp";
+        public static final String GIT_SERVER_FILTER = "sf";
+        public static final String GIT_HTTP_CLIENT = "hc";
+        public static final String GIT_STATE_THREADS = "st";
+        public static final String GIT_RATE_LIMIT = "rl";
+        public static final String GIT_RETRIES = "rt";
         public static final String AD_PROVIDER = "adp";
         public static final String AD_USER = "adu";
         public static final String AD_PASSWORD = "adc";
         public static final String AD_SEARCH = "ads";
+        public static final String AD_CHUNK_SIZE = "adch";
+        public static final String AD_THREADS = "adt";
+        public static final String AD_PAGE_SIZE = "adps";
+        public static final String AD_LOCKOUT = "adl";
+        public static final String AD_LOOKUP = "adm";
+        public static final String AD_ROUTING = "adr";
+        public static final String AD_HEALTH_CHECK = "adhc";
+        public static final String AD_WATERMARK = "adw";
+        public static final String AD_FULL_RESYNC = "adfr";
+        public static final String AD_TRACKING = "adtr";
+        public static final String USER_STATE = "us";
+        public static final String FLAP_LIMIT = "fl";
+        public static final String GIT_FULL_SCAN = "gfs";
+        public static final String DAEMON_INTERVAL = "di";
+        public static final String DAEMON_CRON = "dc";
+        public static final String RESULT_OUTPUT = "ro";
+        public static final String RESULT_FORMAT = "rf";
         public static final String PROD_MODE = "pm";
         public static final String EXTERNAL_FILE = "ef";
         public static final String VERSION = "v";
@@ -36,13 +65,42 @@ class ArgumentName {
         public static final String GIT_CERT = "certificate";
         public static final String GIT_TOKEN = "token";
         public static final String GIT_ONLY_IDENTITIES = "only-identities";
+        public static final String GIT_IDENTITY_DOMAINS = "identity-domains";
+        public static final String GIT_IDENTITY_PROVIDERS = "identity-providers";
         public static final String GIT_EXCLUDE = "exclude";
+        public static final String GIT_EXCLUDE_FILE = "exclude-file";
+        public static final String GIT_COMPACT_USERS = "compact-users";
         public static final String GIT_USER_TEMPLATE = "user-template";
         public static final String GIT_TIMEOUT = "timeout";
+        public static final String GIT_PAGE_THREADS = "page-threads";
+        public static final String GIT_PAGINATION = "pagination";
+        public static final String GIT_PER_PAGE = "per-page";
+        public static final String GIT_SERVER_FILTER = "server-filter";
+        public static final String GIT_HTTP_CLIENT = "http-client";
+        public static final String GIT_STATE_THREADS = "state-threads";
+        public static final String GIT_RATE_LIMIT = "rate-limit";
+        public static final String GIT_RETRIES = "retries";
         public static final String AD_PROVIDER = "ad-provider";
         public static final String AD_USER = "ad-user";
         public static final String AD_PASSWORD = "ad-credentials";
         public static final String AD_SEARCH = "ad-search";
+        public static final String AD_CHUNK_SIZE = "ad-chunk-size";
+        public static final String AD_THREADS = "ad-threads";
+        public static final String AD_PAGE_SIZE = "ad-page-size";
+        public static final String AD_LOCKOUT = "ad-lockout";
+        public static final String AD_LOOKUP = "ad-lookup";
+        public static final String AD_ROUTING = "ad-routing";
+        public static final String AD_HEALTH_CHECK = "ad-health-check";
+        public static final String AD_WATERMARK = "ad-watermark";
+        public static final String AD_FULL_RESYNC = "ad-full-resync";
+        public static final String AD_TRACKING = "ad-tracking";
+        public static final String USER_STATE = "user-state";
+        public static final String FLAP_LIMIT = "flap-limit";
+        public static final String GIT_FULL_SCAN = "git-full-scan";
+        public static final String DAEMON_INTERVAL = "daemon-interval";
+        public static final String DAEMON_CRON = "daemon-cron";
+        public static final String RESULT_OUTPUT = "result-output";
+        public static final String RESULT_FORMAT = "result-format";
         public static final String PROD_MODE = "prod-mode";
         public static final String EXTERNAL_FILE = "external-file";
         public static final String VERSION = "version";
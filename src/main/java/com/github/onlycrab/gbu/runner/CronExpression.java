@@ -0,0 +1,174 @@
+package com.github.onlycrab.gbu.runner;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Cron expression of five fields: minute (0-59), hour (0-23), day of month (1-31), month (1-12) and day of week
+ * (0-7, 0 and 7 are Sunday). Each field is {@code *}, a number, a range {@code a-b}, a range with step
+ * {@code a-b/n} or {@code a/n} (asterisk with step is the whole range with step), or a comma-separated list of them.
+ * Names of months and days are not supported. As in cron, if both day of month and day of week are restricted, a day
+ * matching either of them matches.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class CronExpression {
+    /**
+     * Number of years to search the next time, expression that does not match during this time never matches
+     * (f.e. {@code 0 0 30 2 *}).
+     */
+    private static final int SEARCH_YEARS = 5;
+
+    private final String expression;
+    private final ZoneId zone;
+    private final long minutes;
+    private final long hours;
+    private final long days;
+    private final long months;
+    private final long daysOfWeek;
+    private final boolean anyDay;
+    private final boolean anyDayOfWeek;
+
+    /**
+     * Parse expression in the default time zone.
+     *
+     * @param expression cron expression
+     * @throws IllegalArgumentException if expression is wrong
+     */
+    public CronExpression(String expression) throws IllegalArgumentException {
+        this(expression, ZoneId.systemDefault());
+    }
+
+    /**
+     * Parse expression.
+     *
+     * @param expression cron expression
+     * @param zone time zone of the expression
+     * @throws IllegalArgumentException if expression is wrong
+     */
+    public CronExpression(String expression, ZoneId zone) throws IllegalArgumentException {
+        if (expression == null){
+            throw new IllegalArgumentException("Cron expression can not be empty.");
+        }
+        String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5){
+            throw new IllegalArgumentException(String.format("Wrong cron expression <%s> : 5 fields expected.", expression));
+        }
+        this.expression = expression.trim();
+        this.zone = zone;
+        minutes = parseField(fields[0], 0, 59);
+        hours = parseField(fields[1], 0, 23);
+        days = parseField(fields[2], 1, 31);
+        months = parseField(fields[3], 1, 12);
+        long dow = parseField(fields[4], 0, 7);
+        //Sunday is both 0 and 7, days are matched by ISO numbers where Sunday is 7
+        daysOfWeek = (dow & 1L) != 0 ? dow | (1L << 7) : dow;
+        anyDay = fields[2].startsWith("*");
+        anyDayOfWeek = fields[4].startsWith("*");
+    }
+
+    /**
+     * Get the next time matching the expression.
+     *
+     * @param after time in milliseconds
+     * @return the first matching minute after {@code after}, in milliseconds
+     * @throws IllegalArgumentException if the expression never matches
+     */
+    public long next(long after) throws IllegalArgumentException {
+        ZonedDateTime time = Instant.ofEpochMilli(after).atZone(zone).truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        int limit = time.getYear() + SEARCH_YEARS;
+        while (time.getYear() <= limit){
+            if (!matches(months, time.getMonthValue())){
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+            } else if (!matchesDay(time)){
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            } else if (!matches(hours, time.getHour())){
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if (!matches(minutes, time.getMinute())){
+                time = time.plusMinutes(1);
+            } else {
+                return time.toInstant().toEpochMilli();
+            }
+        }
+        throw new IllegalArgumentException(String.format("Cron expression <%s> never matches.", expression));
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    private boolean matchesDay(ZonedDateTime time) {
+        boolean day = matches(days, time.getDayOfMonth());
+        //DayOfWeek is 1 (Monday) - 7 (Sunday)
+        boolean dayOfWeek = matches(daysOfWeek, time.getDayOfWeek().getValue());
+        if (anyDay || anyDayOfWeek){
+            return day && dayOfWeek;
+        }
+        return day || dayOfWeek;
+    }
+
+    private static boolean matches(long field, int value) {
+        return (field & (1L << value)) != 0;
+    }
+
+    /**
+     * Parse field to bit mask of matching values.
+     *
+     * @param field field of the expression
+     * @param min minimum value
+     * @param max maximum value
+     * @return bit mask, bit {@code N} is set if value {@code N} matches
+     * @throws IllegalArgumentException if field is wrong
+     */
+    private static long parseField(String field, int min, int max) throws IllegalArgumentException {
+        long mask = 0;
+        for (String part : field.split(",")){
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0){
+                step = parseNumber(part.substring(slash + 1), 1, max, field);
+                part = part.substring(0, slash);
+            }
+            int from;
+            int to;
+            if (part.equals("*")){
+                from = min;
+                to = max;
+            } else {
+                int dash = part.indexOf('-');
+                if (dash >= 0){
+                    from = parseNumber(part.substring(0, dash), min, max, field);
+                    to = parseNumber(part.substring(dash + 1), min, max, field);
+                } else {
+                    from = parseNumber(part, min, max, field);
+                    //a/n means from a to the maximum
+                    to = slash >= 0 ? max : from;
+                }
+                if (from > to){
+                    throw new IllegalArgumentException(String.format("Wrong cron field <%s> : range %s-%s is reversed.", field, from, to));
+                }
+            }
+            for (int value = from; value <= to; value += step){
+                mask |= 1L << value;
+            }
+        }
+        return mask;
+    }
+
+    private static int parseNumber(String value, int min, int max, String field) throws IllegalArgumentException {
+        int number;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException e){
+            throw new IllegalArgumentException(String.format("Wrong cron field <%s> : <%s> is not a number.", field, value));
+        }
+        if (number < min || number > max){
+            throw new IllegalArgumentException(String.format("Wrong cron field <%s> : %s is out of range %s-%s.", field, number, min, max));
+        }
+        return number;
+    }
+}
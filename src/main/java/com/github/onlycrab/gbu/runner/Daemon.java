@@ -0,0 +1,158 @@
+package com.github.onlycrab.gbu.runner;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs task repeatedly in the calling thread, by fixed interval or by cron expression, until stopped.
+ * Runs never overlap: if a run takes longer than the schedule, missed runs are skipped and the next one starts by
+ * schedule after the run. Failed run is logged and does not stop the daemon. Objects created before the daemon, like
+ * connections, are kept between runs.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class Daemon {
+    private static final Logger LOGGER = LogManager.getLogger(Daemon.class);
+
+    private final Task task;
+    /**
+     * Interval between starts of runs in milliseconds, used if {@link Daemon#cron} is {@code null}.
+     */
+    private final long interval;
+    /**
+     * Schedule of runs, {@code null} if runs are started by {@link Daemon#interval}.
+     */
+    private final CronExpression cron;
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private boolean stopped;
+
+    /**
+     * Create daemon running task by fixed interval, the first run starts at once.
+     *
+     * @param task task
+     * @param interval interval between starts of runs in milliseconds
+     * @throws IllegalArgumentException if interval is not positive
+     */
+    public Daemon(Task task, long interval) throws IllegalArgumentException {
+        if (interval <= 0){
+            throw new IllegalArgumentException(String.format("Daemon interval <%s> must be positive.", interval));
+        }
+        this.task = task;
+        this.interval = interval;
+        this.cron = null;
+    }
+
+    /**
+     * Create daemon running task by cron expression.
+     *
+     * @param task task
+     * @param cron schedule of runs
+     */
+    public Daemon(Task task, CronExpression cron) {
+        this.task = task;
+        this.interval = 0;
+        this.cron = cron;
+    }
+
+    /**
+     * Run task by schedule until {@link Daemon#stop()}.
+     */
+    public void run() {
+        try {
+            long now = System.currentTimeMillis();
+            long next = cron == null ? now : cron.next(now);
+            LOGGER.info("Daemon started, {}.", cron == null ? "interval " + interval / 1000 + " s" : "schedule <" + cron + ">");
+            while (await(next)){
+                long started = System.currentTimeMillis();
+                try {
+                    task.run();
+                } catch (Exception e){
+                    LOGGER.error("Daemon run failed : {}", e.getMessage(), e);
+                }
+                next = next(started, System.currentTimeMillis());
+            }
+            LOGGER.info("Daemon stopped.");
+        } finally {
+            terminated.countDown();
+        }
+    }
+
+    /**
+     * Stop daemon. Current run is not interrupted, the next one is not started.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Wait until the current run is finished after {@link Daemon#stop()}.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     * @return {@code true} if daemon is terminated
+     */
+    public boolean awaitTermination(long timeout) {
+        try {
+            return terminated.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Get start time of the next run.
+     *
+     * @param started start time of the last run in milliseconds
+     * @param finished finish time of the last run in milliseconds
+     * @return start time of the next run in milliseconds
+     */
+    protected long next(long started, long finished) {
+        long next;
+        if (cron == null){
+            next = started + interval;
+            if (next < finished){
+                long periods = (finished - started + interval - 1) / interval;
+                next = started + periods * interval;
+                LOGGER.warn("Daemon run took {} ms, longer than interval, {} runs are skipped.", finished - started, periods - 1);
+            }
+        } else {
+            next = cron.next(finished);
+            if (cron.next(started) < finished){
+                LOGGER.warn("Daemon run took {} ms, longer than schedule <{}>, missed runs are skipped.", finished - started, cron);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Wait until time of the next run.
+     *
+     * @param next start time of the next run in milliseconds
+     * @return {@code false} if daemon is stopped
+     */
+    private synchronized boolean await(long next) {
+        long delay;
+        while (!stopped && (delay = next - System.currentTimeMillis()) > 0){
+            try {
+                wait(delay);
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                stopped = true;
+            }
+        }
+        return !stopped;
+    }
+
+    /**
+     * Task of the daemon.
+     */
+    @FunctionalInterface
+    public interface Task {
+        void run() throws Exception;
+    }
+}
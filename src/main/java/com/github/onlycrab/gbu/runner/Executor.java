@@ -4,6 +4,11 @@ import com.github.onlycrab.argParser.arguments.Argument;
 import com.github.onlycrab.argParser.arguments.ArgumentParser;
 import com.github.onlycrab.argParser.arguments.ArgumentStorage;
 import com.github.onlycrab.argParser.arguments.exceptions.ArgumentException;
+import com.github.onlycrab.gbu.worker.ChangeTracking;
+import com.github.onlycrab.gbu.worker.LdapRouting;
+import com.github.onlycrab.gbu.worker.LookupMode;
+import com.github.onlycrab.gbu.worker.Pagination;
+import com.github.onlycrab.gbu.worker.ResultFormat;
 import com.github.onlycrab.gbu.worker.Worker;
 import com.github.onlycrab.common.SimpleIniOper;
 import org.apache.logging.log4j.LogManager;
@@ -30,6 +35,11 @@ public class Executor {
      */
     private static final String ARG_DATA = "Arguments.xml";
 
+    /**
+     * Maximum time to wait for the current run of daemon on shutdown, in milliseconds.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 60000;
+
     /**
      * Storage for arguments data.
      */
@@ -137,11 +147,73 @@ public class Executor {
         return null;
     }
 
+    /**
+     * Get argument value as integer.
+     *
+     * @param name argument short name
+     * @return argument value
+     * @throws IllegalArgumentException if value is not an integer
+     */
+    private int getInt(String name) throws IllegalArgumentException {
+        String value = storage.getValue(name);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e){
+            throw new IllegalArgumentException(String.format("Value <%s> of argument <%s> is not an integer.", value, name));
+        }
+    }
+
+    /**
+     * Create daemon if it is requested by arguments.
+     *
+     * @param task task of each run
+     * @return daemon or {@code null} if users must be processed once
+     * @throws IllegalArgumentException if interval or cron expression is wrong
+     */
+    private Daemon createDaemon(Daemon.Task task) throws IllegalArgumentException {
+        if (storage.isFilled(ArgumentName.Short.DAEMON_CRON)){
+            return new Daemon(task, new CronExpression(storage.getValue(ArgumentName.Short.DAEMON_CRON)));
+        }
+        int interval = getInt(ArgumentName.Short.DAEMON_INTERVAL);
+        if (interval > 0){
+            return new Daemon(task, interval * 60 * 1000L);
+        }
+        return null;
+    }
+
+    /**
+     * Run daemon until the process is stopped. On shutdown the current run is finished first.
+     *
+     * @param daemon daemon
+     */
+    private void runDaemon(Daemon daemon) {
+        Thread hook = new Thread(() -> {
+            daemon.stop();
+            if (!daemon.awaitTermination(SHUTDOWN_TIMEOUT)){
+                LOGGER.warn("Daemon run was not finished in {} ms, process is stopped anyway.", SHUTDOWN_TIMEOUT);
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(hook);
+        daemon.run();
+    }
+
+    /**
+     * Log result of processing users.
+     *
+     * @param result JSON result, {@code null} if it was written to result output
+     */
+    private void logResult(String result) {
+        if (result != null){
+            LOGGER.info(result);
+        }
+    }
+
     /**
      * Execute console command.
      *
      * @param args console arguments
-     * @return JSON result of command execution
+     * @return JSON result of command execution, {@code null} if daemon was stopped or the result was written to
+     *         result output
      */
     public String execute(String[] args) {
         String help = init(args);
@@ -164,8 +236,52 @@ public class Executor {
                     storage.getValue(ArgumentName.Short.AD_SEARCH),
                     Boolean.valueOf(storage.getValue(ArgumentName.Short.PROD_MODE))
             );
+            if (storage.isFilled(ArgumentName.Short.GIT_IDENTITY_DOMAINS)){
+                worker.setIdentityDomains(storage.getValue(ArgumentName.Short.GIT_IDENTITY_DOMAINS));
+            }
+            if (storage.isFilled(ArgumentName.Short.GIT_IDENTITY_PROVIDERS)){
+                worker.setIdentityProviders(storage.getValue(ArgumentName.Short.GIT_IDENTITY_PROVIDERS));
+            }
+            if (storage.isFilled(ArgumentName.Short.GIT_EXCLUDE_FILE)){
+                worker.setExcludeFile(storage.getValue(ArgumentName.Short.GIT_EXCLUDE_FILE));
+            }
+            worker.setCompactUsers(Boolean.valueOf(storage.getValue(ArgumentName.Short.GIT_COMPACT_USERS)));
+            worker.setPageThreads(getInt(ArgumentName.Short.GIT_PAGE_THREADS));
+            worker.setPerPage(getInt(ArgumentName.Short.GIT_PER_PAGE));
+            worker.setPagination(Pagination.parse(storage.getValue(ArgumentName.Short.GIT_PAGINATION)));
+            worker.setServerFilter(Boolean.valueOf(storage.getValue(ArgumentName.Short.GIT_SERVER_FILTER)));
+            worker.setHttpClient(Boolean.valueOf(storage.getValue(ArgumentName.Short.GIT_HTTP_CLIENT)));
+            worker.setStateThreads(getInt(ArgumentName.Short.GIT_STATE_THREADS));
+            worker.setRateLimit(getInt(ArgumentName.Short.GIT_RATE_LIMIT));
+            worker.setRetries(getInt(ArgumentName.Short.GIT_RETRIES));
+            worker.setLdapChunkSize(getInt(ArgumentName.Short.AD_CHUNK_SIZE));
+            worker.setLdapThreads(getInt(ArgumentName.Short.AD_THREADS));
+            worker.setLdapPageSize(getInt(ArgumentName.Short.AD_PAGE_SIZE));
+            worker.setLdapLockout(Boolean.valueOf(storage.getValue(ArgumentName.Short.AD_LOCKOUT)));
+            worker.setLookupMode(LookupMode.parse(storage.getValue(ArgumentName.Short.AD_LOOKUP)));
+            worker.setLdapRouting(LdapRouting.parse(storage.getValue(ArgumentName.Short.AD_ROUTING)));
+            worker.setLdapHealthCheck(getInt(ArgumentName.Short.AD_HEALTH_CHECK));
+            if (storage.isFilled(ArgumentName.Short.AD_WATERMARK)){
+                worker.setWatermarkFile(storage.getValue(ArgumentName.Short.AD_WATERMARK));
+            }
+            worker.setFullResync(getInt(ArgumentName.Short.AD_FULL_RESYNC));
+            worker.setChangeTracking(ChangeTracking.parse(storage.getValue(ArgumentName.Short.AD_TRACKING)));
+            if (storage.isFilled(ArgumentName.Short.USER_STATE)){
+                worker.setStateFile(storage.getValue(ArgumentName.Short.USER_STATE));
+            }
+            worker.setFlapLimit(getInt(ArgumentName.Short.FLAP_LIMIT));
+            worker.setGitlabFullScan(getInt(ArgumentName.Short.GIT_FULL_SCAN));
+            if (storage.isFilled(ArgumentName.Short.RESULT_OUTPUT)){
+                worker.setResultOutput(storage.getValue(ArgumentName.Short.RESULT_OUTPUT),
+                        ResultFormat.parse(storage.getValue(ArgumentName.Short.RESULT_FORMAT)));
+            }
+            Daemon daemon = createDaemon(() -> logResult(worker.processGitUsers()));
+            if (daemon != null){
+                runDaemon(daemon);
+                return null;
+            }
             String result = worker.processGitUsers();
-            LOGGER.info(result);
+            logResult(result);
             return result;
         } catch (Exception e) {
             String errText = String.format("Main processing error : %s.", e.getMessage());
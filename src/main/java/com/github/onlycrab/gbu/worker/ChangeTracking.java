@@ -0,0 +1,36 @@
+package com.github.onlycrab.gbu.worker;
+
+/**
+ * Method of tracking AD changes in incremental mode.
+ *
+ * @author Roman Rynkovich
+ */
+public enum ChangeTracking {
+    /**
+     * Entries with {@code uSNChanged} above the processed USN of domain controller are searched. Works with any
+     * user, but returns entries with any changed attribute.
+     */
+    USN,
+    /**
+     * DirSync control returns only entries whose {@code userAccountControl} was changed since the saved cookie.
+     */
+    DIRSYNC;
+
+    /**
+     * Get change tracking by name, case-insensitive.
+     *
+     * @param name change tracking name
+     * @return change tracking
+     * @throws IllegalArgumentException if there is no change tracking with such name
+     */
+    public static ChangeTracking parse(String name) throws IllegalArgumentException {
+        if (name != null){
+            for (ChangeTracking tracking : values()){
+                if (tracking.name().equalsIgnoreCase(name.trim())){
+                    return tracking;
+                }
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown change tracking <%s>.", name));
+    }
+}
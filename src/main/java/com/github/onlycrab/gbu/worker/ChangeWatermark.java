@@ -0,0 +1,213 @@
+package com.github.onlycrab.gbu.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Position of change tracking between runs: the highest update sequence number (USN) already processed on each
+ * domain controller, cookie of the last DirSync search, time of the last full resync, times of the last Gitlab
+ * users scans and the measured number of AD user entries. USN are local to domain controller, so each one has its own.
+ * Stored in a properties file.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class ChangeWatermark {
+    private static final String KEY_FULL_SYNC = "full-sync";
+    private static final String PREFIX_USN = "usn.";
+    private static final String KEY_DIRSYNC = "dirsync-cookie";
+    private static final String KEY_GITLAB_SCAN = "gitlab-scan";
+    private static final String KEY_GITLAB_FULL_SCAN = "gitlab-full-scan";
+    private static final String KEY_DIRECTORY_SIZE = "directory-size";
+
+    /**
+     * Processed USN, key - domain controller ({@code dsServiceName}), value - USN.
+     */
+    private final Map<String, Long> usn = new HashMap<>();
+    /**
+     * Time of the last full resync in milliseconds, {@code 0} if there was no one.
+     */
+    private long fullSync;
+    /**
+     * Cookie of the last DirSync search, {@code null} if DirSync was not used yet.
+     */
+    private byte[] dirSyncCookie;
+    /**
+     * Start time of the last Gitlab users scan in milliseconds, {@code 0} if there was no one.
+     */
+    private long gitlabScan;
+    /**
+     * Start time of the last full Gitlab users scan in milliseconds, {@code 0} if there was no one.
+     */
+    private long gitlabFullScan;
+    /**
+     * Number of user entries under the AD search point, {@code -1} if it was not measured yet.
+     */
+    private int directorySize = -1;
+
+    /**
+     * Get processed USN of domain controller.
+     *
+     * @param server domain controller, value of {@code dsServiceName}
+     * @return USN or {@code null} if changes of the domain controller were not tracked yet
+     */
+    public synchronized Long getUsn(String server) {
+        return usn.get(server);
+    }
+
+    /**
+     * Set processed USN of domain controller.
+     *
+     * @param server domain controller, value of {@code dsServiceName}
+     * @param value USN
+     */
+    public synchronized void setUsn(String server, long value) {
+        if (server != null){
+            usn.put(server, value);
+        }
+    }
+
+    public synchronized long getFullSync() {
+        return fullSync;
+    }
+
+    public synchronized void setFullSync(long fullSync) {
+        this.fullSync = fullSync;
+    }
+
+    /**
+     * Get cookie of the last DirSync search.
+     *
+     * @return cookie or {@code null} if DirSync was not used yet
+     */
+    public synchronized byte[] getDirSyncCookie() {
+        return dirSyncCookie;
+    }
+
+    public synchronized void setDirSyncCookie(byte[] dirSyncCookie) {
+        this.dirSyncCookie = dirSyncCookie;
+    }
+
+    public synchronized long getGitlabScan() {
+        return gitlabScan;
+    }
+
+    public synchronized void setGitlabScan(long gitlabScan) {
+        this.gitlabScan = gitlabScan;
+    }
+
+    public synchronized long getGitlabFullScan() {
+        return gitlabFullScan;
+    }
+
+    public synchronized void setGitlabFullScan(long gitlabFullScan) {
+        this.gitlabFullScan = gitlabFullScan;
+    }
+
+    public synchronized int getDirectorySize() {
+        return directorySize;
+    }
+
+    public synchronized void setDirectorySize(int directorySize) {
+        this.directorySize = directorySize;
+    }
+
+    /**
+     * Check if full scan of Gitlab users is needed: there was no full scan yet, or it was {@code period} or more ago.
+     *
+     * @param period period of full scan in milliseconds, {@code 0} means every scan
+     * @param now current time in milliseconds
+     * @return {@code true} if full scan is needed
+     */
+    public synchronized boolean isGitlabFullScanDue(long period, long now) {
+        return gitlabScan <= 0 || gitlabFullScan <= 0 || period <= 0 || now - gitlabFullScan >= period;
+    }
+
+    /**
+     * Check if full resync is needed: there was no full resync yet, or it was {@code period} or more ago.
+     *
+     * @param period period of full resync in milliseconds, {@code 0} means every run
+     * @param now current time in milliseconds
+     * @return {@code true} if full resync is needed
+     */
+    public synchronized boolean isFullSyncDue(long period, long now) {
+        return fullSync <= 0 || period <= 0 || now - fullSync >= period;
+    }
+
+    /**
+     * Read watermark from file.
+     *
+     * @param file properties file
+     * @return watermark, empty if file does not exist
+     * @throws IOException if file cant be read or has wrong values
+     */
+    public static ChangeWatermark load(File file) throws IOException {
+        ChangeWatermark watermark = new ChangeWatermark();
+        if (!file.exists()){
+            return watermark;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())){
+            properties.load(in);
+        }
+        try {
+            for (String key : properties.stringPropertyNames()){
+                if (key.equals(KEY_FULL_SYNC)){
+                    watermark.fullSync = Long.parseLong(properties.getProperty(key).trim());
+                } else if (key.equals(KEY_GITLAB_SCAN)){
+                    watermark.gitlabScan = Long.parseLong(properties.getProperty(key).trim());
+                } else if (key.equals(KEY_GITLAB_FULL_SCAN)){
+                    watermark.gitlabFullScan = Long.parseLong(properties.getProperty(key).trim());
+                } else if (key.equals(KEY_DIRECTORY_SIZE)){
+                    watermark.directorySize = Integer.parseInt(properties.getProperty(key).trim());
+                } else if (key.equals(KEY_DIRSYNC)){
+                    watermark.dirSyncCookie = Base64.getDecoder().decode(properties.getProperty(key).trim());
+                } else if (key.startsWith(PREFIX_USN)){
+                    watermark.usn.put(key.substring(PREFIX_USN.length()), Long.parseLong(properties.getProperty(key).trim()));
+                }
+            }
+        } catch (IllegalArgumentException e){
+            throw new IOException(String.format("Wrong value in watermark file <%s> : %s.", file, e.getMessage()));
+        }
+        return watermark;
+    }
+
+    /**
+     * Write watermark to file. File is replaced at once, so it is not corrupted if the process is killed.
+     *
+     * @param file properties file
+     * @throws IOException if file cant be written
+     */
+    public synchronized void save(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_FULL_SYNC, String.valueOf(fullSync));
+        if (gitlabScan > 0){
+            properties.setProperty(KEY_GITLAB_SCAN, String.valueOf(gitlabScan));
+            properties.setProperty(KEY_GITLAB_FULL_SCAN, String.valueOf(gitlabFullScan));
+        }
+        if (directorySize >= 0){
+            properties.setProperty(KEY_DIRECTORY_SIZE, String.valueOf(directorySize));
+        }
+        if (dirSyncCookie != null){
+            properties.setProperty(KEY_DIRSYNC, Base64.getEncoder().encodeToString(dirSyncCookie));
+        }
+        for (Map.Entry<String, Long> entry : usn.entrySet()){
+            properties.setProperty(PREFIX_USN + entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        Path target = file.getAbsoluteFile().toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)){
+            properties.store(out, "Change tracking watermark");
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,218 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.exception.LdapException;
+
+import javax.naming.ldap.Control;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Active Directory DirSync control ({@code LDAP_SERVER_DIRSYNC_OID}), request and response.
+ * Search with this control returns entries changed since the state described by the cookie, and a new cookie.
+ * Control value is BER-encoded:
+ * request  - {@code SEQUENCE { flags INTEGER, maxBytes INTEGER, cookie OCTET STRING }};
+ * response - {@code SEQUENCE { moreResults INTEGER, unused INTEGER, cookie OCTET STRING }}.
+ * (https://learn.microsoft.com/en-us/openspecs/windows_protocols/ms-adts/2213a7f2-0a36-483c-b2a4-8574d53aa1e3)
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class DirSyncControl implements Control {
+    private static final long serialVersionUID = 1L;
+    /**
+     * Control OID.
+     */
+    public static final String OID = "1.2.840.113556.1.4.841";
+    /**
+     * Flag LDAP_DIRSYNC_OBJECT_SECURITY: only objects and attributes readable by the user are returned, so the
+     * user does not need "Replicating Directory Changes" right.
+     */
+    public static final int OBJECT_SECURITY = 0x00000001;
+    /**
+     * Maximum size of response, Active Directory uses its own limit if it is less.
+     */
+    public static final int MAX_BYTES = Integer.MAX_VALUE;
+
+    private static final int TAG_SEQUENCE = 0x30;
+    private static final int TAG_INTEGER = 0x02;
+    private static final int TAG_OCTET_STRING = 0x04;
+
+    private final byte[] value;
+
+    /**
+     * Create request control.
+     *
+     * @param flags DirSync flags, f.e. {@link DirSyncControl#OBJECT_SECURITY}
+     * @param cookie cookie of the previous search, {@code null} or empty for the first search, which returns all
+     *               entries
+     */
+    public DirSyncControl(int flags, byte[] cookie) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        writeInteger(content, flags);
+        writeInteger(content, MAX_BYTES);
+        write(content, TAG_OCTET_STRING, cookie == null ? new byte[0] : cookie);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, TAG_SEQUENCE, content.toByteArray());
+        value = out.toByteArray();
+    }
+
+    @Override
+    public String getID() {
+        return OID;
+    }
+
+    /**
+     * DirSync control must be critical.
+     *
+     * @return {@code true}
+     */
+    @Override
+    public boolean isCritical() {
+        return CRITICAL;
+    }
+
+    @Override
+    public byte[] getEncodedValue() {
+        return value.clone();
+    }
+
+    /**
+     * Find DirSync response among response controls.
+     *
+     * @param controls response controls of the last search
+     * @return DirSync response or {@code null} if there is no one
+     * @throws LdapException if DirSync response has wrong encoding
+     */
+    public static Response getResponse(Control[] controls) throws LdapException {
+        if (controls != null){
+            for (Control control : controls){
+                if (OID.equals(control.getID())){
+                    return parse(control.getEncodedValue());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decode DirSync response control value.
+     *
+     * @param value BER-encoded value
+     * @return DirSync response
+     * @throws LdapException if value has wrong encoding
+     */
+    public static Response parse(byte[] value) throws LdapException {
+        try {
+            Reader reader = new Reader(value);
+            Reader sequence = new Reader(reader.read(TAG_SEQUENCE));
+            boolean more = toInteger(sequence.read(TAG_INTEGER)) != 0;
+            sequence.read(TAG_INTEGER);
+            return new Response(more, sequence.read(TAG_OCTET_STRING));
+        } catch (IndexOutOfBoundsException e){
+            throw new LdapException("LDAP search failed : DirSync response is truncated.");
+        }
+    }
+
+    private static void writeInteger(ByteArrayOutputStream out, int number) {
+        //Two's complement, minimal number of bytes : leading bytes which only repeat the sign bit are skipped
+        int size = 4;
+        while (size > 1 && (number >> ((size - 1) * 8 - 1)) == (number >> 31)){
+            size--;
+        }
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++){
+            bytes[i] = (byte) (number >> ((size - 1 - i) * 8));
+        }
+        write(out, TAG_INTEGER, bytes);
+    }
+
+    private static void write(ByteArrayOutputStream out, int tag, byte[] content) {
+        out.write(tag);
+        int length = content.length;
+        if (length < 0x80){
+            out.write(length);
+        } else {
+            int size = length > 0xffffff ? 4 : length > 0xffff ? 3 : length > 0xff ? 2 : 1;
+            out.write(0x80 | size);
+            for (int i = size - 1; i >= 0; i--){
+                out.write(length >> (i * 8));
+            }
+        }
+        out.write(content, 0, content.length);
+    }
+
+    private static long toInteger(byte[] bytes) {
+        long number = bytes.length > 0 && bytes[0] < 0 ? -1 : 0;
+        for (byte b : bytes){
+            number = (number << 8) | (b & 0xff);
+        }
+        return number;
+    }
+
+    /**
+     * Reader of BER elements.
+     */
+    private static class Reader {
+        private final byte[] data;
+        private int position;
+
+        private Reader(byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * Read content of the next element.
+         *
+         * @param tag expected tag
+         * @return element content
+         * @throws LdapException if the next element has another tag or wrong length
+         */
+        private byte[] read(int tag) throws LdapException {
+            int actual = data[position++] & 0xff;
+            if (actual != tag){
+                throw new LdapException(String.format("LDAP search failed : wrong DirSync response, tag 0x%02x instead of 0x%02x.", actual, tag));
+            }
+            int length = data[position++] & 0xff;
+            if (length >= 0x80){
+                int size = length & 0x7f;
+                if (size == 0 || size > 4){
+                    throw new LdapException("LDAP search failed : wrong DirSync response, unsupported length.");
+                }
+                length = 0;
+                for (int i = 0; i < size; i++){
+                    length = (length << 8) | (data[position++] & 0xff);
+                }
+            }
+            if (length < 0 || position + length > data.length){
+                throw new LdapException("LDAP search failed : DirSync response is truncated.");
+            }
+            byte[] content = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return content;
+        }
+    }
+
+    /**
+     * DirSync response.
+     */
+    public static class Response {
+        /**
+         * If {@code true} - there are more changes, search must be repeated with the new cookie.
+         */
+        private final boolean moreResults;
+        private final byte[] cookie;
+
+        public Response(boolean moreResults, byte[] cookie) {
+            this.moreResults = moreResults;
+            this.cookie = cookie;
+        }
+
+        public boolean isMoreResults() {
+            return moreResults;
+        }
+
+        public byte[] getCookie() {
+            return cookie;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.common.StringUtil;
+import com.github.onlycrab.gbu.exception.LdapException;
+import com.github.onlycrab.gbu.model.Identity;
+import com.github.onlycrab.gbu.model.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Checks if Gitlab user identity belongs to one of accepted AD domains and, optionally, one of accepted identity
+ * providers. Domain of {@code extern_uid} is found as by {@link LdapSearcher#parseDomain(String)}, but compared in
+ * place, case-insensitive, so no strings are created for each identity. Domains are normalized once, on creation.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class DomainMatcher {
+    private static final String DC = "dc=";
+    private static final String SEPARATOR_DC = ",dc=";
+
+    /**
+     * Accepted domains, f.e. {@code dc=mycompany,dc=com}, trimmed.
+     */
+    private final String[] domains;
+    /**
+     * Accepted identity providers, f.e. {@code ldapmain}, empty if any provider is accepted.
+     */
+    private final String[] providers;
+
+    /**
+     * Create matcher.
+     *
+     * @param domains accepted domains or search points, f.e. {@code dc=mycompany,dc=com}
+     * @param providers accepted identity providers, if {@code null} or empty - any provider is accepted
+     * @throws LdapException if there is no domain;
+     *                       if an error occurred while extracting a domain from one of {@code domains}
+     */
+    public DomainMatcher(Collection<String> domains, Collection<String> providers) throws LdapException {
+        this.domains = normalize(domains, true);
+        if (this.domains.length == 0){
+            throw new LdapException("At least one AD domain must be accepted.");
+        }
+        this.providers = normalize(providers, false);
+    }
+
+    /**
+     * Check if user has identity in accepted domain.
+     *
+     * @param user Gitlab user
+     * @return {@code true} if at least one identity matches
+     * @throws LdapException if an error occurred while extracting a domain from identity
+     */
+    public boolean hasIdentity(User user) throws LdapException {
+        if (user.getIdentities() == null){
+            return false;
+        }
+        for (Identity identity : user.getIdentities()){
+            if (matches(identity)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if identity is in accepted domain and of accepted provider.
+     *
+     * @param identity Gitlab user identity
+     * @return {@code true} if identity matches; {@code false} if {@code extern_uid} is empty
+     * @throws LdapException if an error occurred while extracting a domain from {@code extern_uid}
+     */
+    public boolean matches(Identity identity) throws LdapException {
+        if (providers.length > 0 && !contains(providers, identity.getProvider())){
+            return false;
+        }
+        return matches(identity.getExternUid());
+    }
+
+    /**
+     * Check if {@code extern_uid} is in accepted domain.
+     *
+     * @param externUid distinguished name, f.e. {@code cn=user,ou=Users,dc=mycompany,dc=com}
+     * @return {@code true} if domain of {@code externUid} is accepted; {@code false} if it is empty
+     * @throws LdapException if an error occurred while extracting a domain from {@code externUid}
+     */
+    public boolean matches(String externUid) throws LdapException {
+        if (StringUtil.isEmptyOrNull(externUid)){
+            return false;
+        }
+        int start = indexOfDomain(externUid);
+        if (start < 0){
+            throw new LdapException(String.format("LDAP domain missing in <%s>", externUid));
+        }
+        int length = externUid.length() - start;
+        for (String domain : domains){
+            if (domain.length() == length && externUid.regionMatches(true, start, domain, 0, length)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find start of domain in distinguished name : the name itself if it starts with {@code dc=}, otherwise the
+     * first {@code dc=} component.
+     *
+     * @param dn distinguished name
+     * @return index of domain, {@code -1} if there is no domain
+     */
+    private static int indexOfDomain(String dn) {
+        if (dn.regionMatches(true, 0, DC, 0, DC.length())){
+            return 0;
+        }
+        int last = dn.length() - SEPARATOR_DC.length();
+        for (int i = 0; i <= last; i++){
+            if (dn.charAt(i) == ',' && dn.regionMatches(true, i, SEPARATOR_DC, 0, SEPARATOR_DC.length())){
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean contains(String[] values, String value) {
+        if (value == null){
+            return false;
+        }
+        for (String v : values){
+            if (v.equalsIgnoreCase(value)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] normalize(Collection<String> values, boolean domain) throws LdapException {
+        List<String> result = new ArrayList<>();
+        if (values != null){
+            for (String value : values){
+                if (value == null || value.trim().isEmpty()){
+                    continue;
+                }
+                String normalized = domain ? LdapSearcher.parseDomain(value.trim()) : value.trim();
+                if (result.stream().noneMatch(normalized::equalsIgnoreCase)){
+                    result.add(normalized);
+                }
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+}
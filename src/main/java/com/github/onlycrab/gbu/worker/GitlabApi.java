@@ -2,15 +2,30 @@ package com.github.onlycrab.gbu.worker;
 
 import com.github.onlycrab.common.StringUtil;
 import com.github.onlycrab.gbu.connector.ApiConnector;
+import com.github.onlycrab.gbu.connector.ApiResponse;
+import com.github.onlycrab.gbu.connector.Connector;
 import com.github.onlycrab.gbu.connector.RequestMethod;
+import com.github.onlycrab.gbu.connector.ResponseReader;
 import com.github.onlycrab.gbu.exception.ApiConnectorException;
 import com.github.onlycrab.gbu.exception.JsonConverterException;
 import com.github.onlycrab.gbu.model.ErrorResponse;
 import com.github.onlycrab.gbu.model.User;
 import lombok.Getter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Class for interaction with Gitlab API.
@@ -20,10 +35,24 @@ import java.net.URL;
 @SuppressWarnings("WeakerAccess")
 @Getter
 public class GitlabApi {
+    private static final Logger LOGGER = LogManager.getLogger(GitlabApi.class);
     /**
      * String template for getting a list of users.
      */
-    public static final String TEMPLATE_USERS = "%s/api/v4/users?per_page=50&page=%s&private_token=%s";
+    public static final String TEMPLATE_USERS = "%s/api/v4/users?page=%s&private_token=%s";
+    /**
+     * String template for getting the first page of users by keyset pagination.
+     */
+    public static final String TEMPLATE_USERS_KEYSET = "%s/api/v4/users?pagination=keyset&order_by=id&sort=asc&private_token=%s";
+    /**
+     * Status codes of Gitlab response to keyset pagination it does not support : {@code 405} if keyset pagination
+     * is not available for the request, {@code 400} if the parameters are not known.
+     */
+    private static final int[] KEYSET_REJECTED = { 405, 400 };
+    /**
+     * Maximum number of items per page supported by Gitlab.
+     */
+    public static final int MAX_PER_PAGE = 100;
     /**
      * String template for block a user.
      */
@@ -32,6 +61,18 @@ public class GitlabApi {
      * String template for unblock a user.
      */
     public static final String TEMPLATE_UNBLOCK = "%s/api/v4/users/%s/unblock?private_token=%s";
+    /**
+     * Response header with total number of pages.
+     */
+    public static final String HEADER_TOTAL_PAGES = "X-Total-Pages";
+    /**
+     * Response header with total number of items.
+     */
+    public static final String HEADER_TOTAL = "X-Total";
+    /**
+     * Response header with number of the next page, empty on the last page.
+     */
+    public static final String HEADER_NEXT_PAGE = "X-Next-Page";
     /**
      * Gitlab URL.
      */
@@ -43,17 +84,38 @@ public class GitlabApi {
     /**
      * Object for connect and execute API requests.
      */
-    private ApiConnector connector;
+    private Connector connector;
     /**
      * Object to convert JSON objects.
      */
     private JsonConverter converter;
+    /**
+     * Scheduler which keeps requests within Gitlab rate limits and retries rejected requests.
+     */
+    private RequestScheduler scheduler = new RequestScheduler();
     /**
      * Timeout for API response.
      */
     private int timeout = 30000;
+    /**
+     * Number of pages fetched concurrently. If {@code 1} - pages are fetched one after another.
+     * With asynchronous connector it is the number of simultaneous requests, not threads.
+     */
+    private int pageThreads = 1;
+    /**
+     * Pagination method for getting the list of users.
+     */
+    private Pagination pagination = Pagination.OFFSET;
+    /**
+     * Number of users requested per page. Decreased automatically if Gitlab returns less users on a non-final page.
+     */
+    private int perPage = MAX_PER_PAGE;
+    /**
+     * Filters of the users list applied by Gitlab.
+     */
+    private UserQuery query = new UserQuery();
 
-    public void setConnector(ApiConnector connector){
+    public void setConnector(Connector connector){
         if (connector != null){
             this.connector = connector;
         }
@@ -65,6 +127,12 @@ public class GitlabApi {
         }
     }
 
+    public void setScheduler(RequestScheduler scheduler){
+        if (scheduler != null){
+            this.scheduler = scheduler;
+        }
+    }
+
     /**
      * Set Gitlab root address.
      *
@@ -93,6 +161,50 @@ public class GitlabApi {
         }
     }
 
+    /**
+     * Set number of pages fetched concurrently.
+     *
+     * @param pageThreads number of threads, {@code 1} means sequential fetching
+     */
+    public void setPageThreads(int pageThreads){
+        if (pageThreads > 0){
+            this.pageThreads = pageThreads;
+        }
+    }
+
+    /**
+     * Set number of users requested per page.
+     *
+     * @param perPage number of users, from {@code 1} to {@link GitlabApi#MAX_PER_PAGE}
+     */
+    public void setPerPage(int perPage){
+        if (perPage > 0 && perPage <= MAX_PER_PAGE){
+            this.perPage = perPage;
+        }
+    }
+
+    /**
+     * Set filters of the users list applied by Gitlab.
+     *
+     * @param query filters
+     */
+    public void setQuery(UserQuery query){
+        if (query != null){
+            this.query = query;
+        }
+    }
+
+    /**
+     * Set pagination method for getting the list of users.
+     *
+     * @param pagination pagination method
+     */
+    public void setPagination(Pagination pagination){
+        if (pagination != null){
+            this.pagination = pagination;
+        }
+    }
+
     /**
      * Initialize.
      *
@@ -124,7 +236,7 @@ public class GitlabApi {
      * @param converter JSON objects converter
      */
     @SuppressWarnings("WeakerAccess")
-    public GitlabApi(String address, String token, ApiConnector connector, JsonConverter converter){
+    public GitlabApi(String address, String token, Connector connector, JsonConverter converter){
         if (address != null){
             if (address.endsWith("/")){
                 this.address = address.substring(0, address.length() - 2);
@@ -151,6 +263,20 @@ public class GitlabApi {
         }
     }
 
+    /**
+     * Reset statistics of requests to Gitlab API.
+     */
+    public void resetRequestStats() {
+        scheduler.resetStats();
+    }
+
+    /**
+     * Write statistics of requests to Gitlab API to log.
+     */
+    public void logRequestStats() {
+        LOGGER.info("Gitlab API {}.", scheduler.getStats());
+    }
+
     /**
      * Build URL from template.
      *
@@ -166,32 +292,184 @@ public class GitlabApi {
      * @see GitlabApi#TEMPLATE_UNBLOCK
      */
     protected URL getUrl(String template, String address, long number, String token) throws ApiConnectorException {
+        return getUrl(String.format(template, address, number, token));
+    }
+
+    /**
+     * Build URL from string.
+     *
+     * @param url API call address
+     * @return API call URL
+     * @throws ApiConnectorException if URL is incorrect
+     */
+    protected URL getUrl(String url) throws ApiConnectorException {
         try {
-            return new URL(String.format(template, address, number, token));
+            return new URL(url);
         } catch (MalformedURLException e) {
             throw new ApiConnectorException(String.format("Bad URL : %s.", e.getMessage()));
         }
     }
 
     /**
-     * Union two arrays.
+     * Get page of users by API. Users are read straight from the response stream, only fields of {@link User}
+     * are bound.
+     *
+     * @param url page URL
+     * @return API response with users of the page
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     */
+    protected ApiResponse<User[]> getUsers(URL url) throws ApiConnectorException, JsonConverterException {
+        ApiResponse<User[]> response;
+        try {
+            response = scheduler.call(() -> connector.request(url, RequestMethod.GET, timeout, null, converter::readUsers));
+        } catch (RuntimeException e){
+            throw new JsonConverterException(String.format("Cant parse Gitlab API response to JSON : %s.", e.getMessage()));
+        }
+        return checkUsers(response);
+    }
+
+    /**
+     * Check that page of users is read.
+     *
+     * @param response API response with users of the page
+     * @return {@code response}
+     * @throws JsonConverterException if there is no users array in {@code response}
+     */
+    private ApiResponse<User[]> checkUsers(ApiResponse<User[]> response) throws JsonConverterException {
+        if (response == null || response.getBody() == null){
+            throw new JsonConverterException("Cant parse Gitlab API response to JSON : response is empty.");
+        }
+        return response;
+    }
+
+    /**
+     * Get one page of users by API asynchronously.
+     *
+     * @param page page number
+     * @param query filters of users, {@code null} if there is no one
+     * @param executor executor for blocking work of connector
+     * @return future of API response with users of the page, completed exceptionally by
+     *         {@link ApiConnectorException} or {@link JsonConverterException}
+     */
+    protected CompletableFuture<ApiResponse<User[]>> getUsersPageAsync(long page, UserQuery query, Executor executor) {
+        URL url;
+        try {
+            url = getUrl(String.format(TEMPLATE_USERS, address, page, token) + getUsersQuery(query));
+        } catch (ApiConnectorException e){
+            CompletableFuture<ApiResponse<User[]>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return scheduler.callAsync(() -> connector.requestAsync(url, RequestMethod.GET, timeout, null, converter::readUsers, executor))
+                .thenApply(response -> {
+                    try {
+                        return checkUsers(response);
+                    } catch (JsonConverterException e){
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    /**
+     * Get one page of users by API.
+     *
+     * @param page page number
+     * @param query filters of users, {@code null} if there is no one
+     * @return API response with users of the page
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     */
+    protected ApiResponse<User[]> getUsersPage(long page, UserQuery query) throws ApiConnectorException, JsonConverterException {
+        return getUsers(getUrl(String.format(TEMPLATE_USERS, address, page, token) + getUsersQuery(query)));
+    }
+
+    /**
+     * Get additional query parameters for getting the list of users.
+     *
+     * @param query filters of users, {@code null} if there is no one
+     * @return query parameters starting with {@code &}
+     */
+    protected String getUsersQuery(UserQuery query) {
+        if (query == null){
+            return "&per_page=" + perPage;
+        }
+        return "&per_page=" + perPage + query.toQuery();
+    }
+
+    /**
+     * Check if there are more pages after {@code page}. If Gitlab returned less users than requested on a
+     * non-final page, {@link GitlabApi#perPage} is decreased to the number of returned users.
+     * If the response has no pagination headers, pages are fetched until an empty page.
+     *
+     * @param response API response with the page
+     * @param page users of the page
+     * @return {@code true} if there are more pages
+     */
+    protected boolean hasNextPage(ApiResponse<?> response, User[] page) {
+        if (page.length == 0){
+            return false;
+        }
+        boolean more;
+        String next = response.getHeader(HEADER_NEXT_PAGE);
+        if (next != null){
+            more = next.trim().length() > 0;
+        } else if (response.getHeader(ApiResponse.HEADER_LINK) != null){
+            more = response.getLink("next") != null;
+        } else {
+            return true;
+        }
+        if (more && page.length < perPage){
+            LOGGER.info("Gitlab returned {} users per page instead of {}, page size is decreased.", page.length, perPage);
+            perPage = page.length;
+        }
+        return more;
+    }
+
+    /**
+     * Get pages of users concurrently, at most {@link GitlabApi#pageThreads} requests at once.
      *
-     * @param arr1 first array
-     * @param arr2 second array
-     * @return array that contains all elements of {@code arr1} and {@code arr2}
+     * @param from first page number
+     * @param to last page number (inclusive)
+     * @param query filters of users, {@code null} if there is no one
+     * @return users of each page, in page order
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
      */
-    protected User[] union(User[] arr1, User[] arr2){
-        if (arr1 == null && arr2 == null){
-            return new User[0];
-        } else if (arr2 == null){
-            return arr1;
-        } else if (arr1 == null){
-            return arr2;
+    protected List<User[]> getPages(int from, int to, UserQuery query) throws ApiConnectorException, JsonConverterException {
+        List<User[]> pages = new ArrayList<>();
+        if (to < from){
+            return pages;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(pageThreads, to - from + 1));
+        try {
+            List<CompletableFuture<ApiResponse<User[]>>> futures = new ArrayList<>();
+            for (int page = from; page <= to; page++){
+                if (futures.size() >= pageThreads){
+                    //Wait for the oldest request, so no more than pageThreads requests are sent at once
+                    futures.get(futures.size() - pageThreads).get();
+                }
+                futures.add(getUsersPageAsync(page, query, pool));
+            }
+            for (CompletableFuture<ApiResponse<User[]>> future : futures){
+                pages.add(future.get().getBody());
+            }
+        } catch (ExecutionException e){
+            if (e.getCause() instanceof ApiConnectorException){
+                throw (ApiConnectorException) e.getCause();
+            } else if (e.getCause() instanceof JsonConverterException){
+                throw (JsonConverterException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException){
+                throw new JsonConverterException(String.format("Cant parse Gitlab API response to JSON : %s.", e.getCause().getMessage()));
+            }
+            throw new ApiConnectorException(String.format("Error at getting users page : %s.", e.getCause().getMessage()));
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new ApiConnectorException("Getting users pages was interrupted.");
+        } finally {
+            pool.shutdownNow();
         }
-        User[] newArr = new User[arr1.length + arr2.length];
-        System.arraycopy(arr1, 0, newArr, 0, arr1.length);
-        System.arraycopy(arr2, 0, newArr, arr1.length, arr2.length);
-        return newArr;
+        return pages;
     }
 
     /**
@@ -200,36 +478,216 @@ public class GitlabApi {
      * @return list of all Gitlab users
      * @throws ApiConnectorException if exception occurs during communicating with API
      * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     * @see GitlabApi#getAllGitUsers(UserPageHandler)
      */
     public User[] getAllGitUsers() throws ApiConnectorException, JsonConverterException {
-        URL url;
-        User[] users = new User[0];
-        User[] parsed;
-        String response;
+        UserCollector collector = new UserCollector();
+        getAllGitUsers(collector);
+        return collector.toArray();
+    }
 
-        int page = 0;
-        do {
-            page++;
-            url = getUrl(TEMPLATE_USERS, address, page, token);
-            response = connector.execute(url, RequestMethod.GET, timeout, null);
+    /**
+     * Get all users by API and pass them to {@code handler} page by page, as they are fetched.
+     * If {@link GitlabApi#pageThreads} is greater than {@code 1}, all pages after the first one are fetched
+     * concurrently: by {@link GitlabApi#HEADER_TOTAL_PAGES} if Gitlab returns it, otherwise by batches of
+     * {@link GitlabApi#pageThreads} pages until an empty page is found. Pages are passed in page order anyway.
+     * If {@link GitlabApi#pagination} is {@link Pagination#KEYSET}, pages are fetched one after another by
+     * {@code Link} header; if Gitlab rejects keyset pagination, offset pagination is used.
+     * Filters of {@link GitlabApi#query} are applied.
+     *
+     * @param handler receiver of users
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     */
+    public void getAllGitUsers(UserPageHandler handler) throws ApiConnectorException, JsonConverterException {
+        getAllGitUsers(query, handler);
+    }
 
+    /**
+     * Get users matching {@code query} by API and pass them to {@code handler} page by page, as they are fetched.
+     * The query is passed down to each request, so concurrent calls with different queries do not affect each other.
+     *
+     * @param query filters of users, {@code null} if there is no one
+     * @param handler receiver of users
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     * @see GitlabApi#getAllGitUsers(UserPageHandler)
+     */
+    protected void getAllGitUsers(UserQuery query, UserPageHandler handler) throws ApiConnectorException, JsonConverterException {
+        if (pagination == Pagination.KEYSET){
+            ApiResponse<User[]> first = null;
             try {
-                parsed = converter.fromJson(response);
-            } catch (RuntimeException e){
-                throw new JsonConverterException(String.format("Cant parse Gitlab API response to JSON : %s.", e.getMessage()));
+                first = getUsers(getUrl(String.format(TEMPLATE_USERS_KEYSET, address, token) + getUsersQuery(query)));
+            } catch (ApiConnectorException e){
+                //Other errors, f.e. timeouts or authentication, would fail offset pagination too
+                if (!isKeysetRejected(e)){
+                    throw e;
+                }
+                LOGGER.warn("Keyset pagination is not supported by Gitlab, offset pagination will be used : {}", e.getMessage());
+            }
+            if (first != null){
+                getUsersByLinks(first, handler);
+                return;
+            }
+        }
+
+        ApiResponse<User[]> response = getUsersPage(1, query);
+        User[] parsed = response.getBody();
+        if (parsed.length == 0){
+            return;
+        }
+        int total = response.getHeaderAsInt(HEADER_TOTAL, 0);
+        if (total > 0){
+            handler.onTotal(total);
+        }
+        handler.onPage(parsed);
+        if (!hasNextPage(response, parsed)){
+            return;
+        }
+
+        int totalPages = response.getHeaderAsInt(HEADER_TOTAL_PAGES, 0);
+        if (pageThreads > 1){
+            if (totalPages > 0){
+                //Gitlab told us how many pages there are
+                for (User[] page : getPages(2, totalPages, query)){
+                    handler.onPage(page);
+                }
+            } else {
+                //Gitlab does not count big collections, fetch batches until an empty page
+                int number = 2;
+                boolean last = false;
+                while (!last){
+                    for (User[] page : getPages(number, number + pageThreads - 1, query)){
+                        if (page.length == 0){
+                            last = true;
+                            break;
+                        }
+                        handler.onPage(page);
+                    }
+                    number += pageThreads;
+                }
             }
+            return;
+        }
+
+        int number = 1;
+        do {
+            number++;
+            response = getUsersPage(number, query);
+            parsed = response.getBody();
             if (parsed.length == 0){
                 break;
             }
+            handler.onPage(parsed);
+        } while (hasNextPage(response, parsed));
+    }
 
-            if (users.length == 0){
-                users = parsed;
-            } else {
-                users = union(users, parsed);
+    /**
+     * Check if Gitlab rejected the request because it does not support keyset pagination.
+     *
+     * @param e request exception
+     * @return {@code true} if offset pagination must be used instead
+     */
+    private static boolean isKeysetRejected(ApiConnectorException e) {
+        for (int code : KEYSET_REJECTED){
+            if (e.getCode() == code){
+                return true;
             }
-        } while (true);
+        }
+        return false;
+    }
+
+    /**
+     * Get users created after {@code time} by API, filters of {@link GitlabApi#query} are applied too.
+     * Used for incremental scan, when users created before are already known.
+     *
+     * @param time time in milliseconds
+     * @return users created after {@code time}
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     * @see GitlabApi#getGitUsersCreatedAfter(long, UserPageHandler)
+     */
+    public User[] getGitUsersCreatedAfter(long time) throws ApiConnectorException, JsonConverterException {
+        UserCollector collector = new UserCollector();
+        getGitUsersCreatedAfter(time, collector);
+        return collector.toArray();
+    }
+
+    /**
+     * Get users created after {@code time} by API and pass them to {@code handler} page by page, as they are fetched.
+     *
+     * @param time time in milliseconds
+     * @param handler receiver of users
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     * @see GitlabApi#getGitUsersCreatedAfter(long)
+     */
+    public void getGitUsersCreatedAfter(long time, UserPageHandler handler) throws ApiConnectorException, JsonConverterException {
+        UserQuery all = query;
+        UserQuery created = all == null ? new UserQuery() : all.copy();
+        created.setCreatedAfter(DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(time)));
+        getAllGitUsers(created, handler);
+    }
+
+    /**
+     * Get users by username, one request per user. Filters of {@link GitlabApi#query} are applied too.
+     * Used when only a few users must be checked, instead of getting all users.
+     *
+     * @param usernames usernames
+     * @return found users, usernames without Gitlab user are skipped
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     * @see GitlabApi#getGitUsers(String[], UserPageHandler)
+     */
+    public User[] getGitUsers(String[] usernames) throws ApiConnectorException, JsonConverterException {
+        UserCollector collector = new UserCollector();
+        getGitUsers(usernames, collector);
+        return collector.toArray();
+    }
+
+    /**
+     * Get users by username and pass them to {@code handler} as they are fetched, one request per user.
+     *
+     * @param usernames usernames
+     * @param handler receiver of users, usernames without Gitlab user are skipped
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     * @see GitlabApi#getGitUsers(String[])
+     */
+    public void getGitUsers(String[] usernames, UserPageHandler handler) throws ApiConnectorException, JsonConverterException {
+        UserQuery byName = query == null ? new UserQuery() : query.copy();
+        for (String username : usernames){
+            byName.setUsername(username);
+            URL url = getUrl(String.format(TEMPLATE_USERS, address, 1, token) + "&per_page=" + perPage + byName.toQuery());
+            handler.onPage(getUsers(url).getBody());
+        }
+    }
+
+    /**
+     * Get all users following {@code Link: rel="next"} header, starting from {@code first} page.
+     *
+     * @param first response with the first page
+     * @param handler receiver of users
+     * @throws ApiConnectorException if exception occurs during communicating with API
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     */
+    protected void getUsersByLinks(ApiResponse<User[]> first, UserPageHandler handler) throws ApiConnectorException, JsonConverterException {
+        User[] parsed;
+        ApiResponse<User[]> response = first;
+        String next;
+        do {
+            parsed = response.getBody();
+            if (parsed.length == 0){
+                break;
+            }
+            handler.onPage(parsed);
 
-        return users;
+            next = response.getLink("next");
+            if (next == null || !hasNextPage(response, parsed)){
+                break;
+            }
+            response = getUsers(getUrl(next));
+        } while (true);
     }
 
     /**
@@ -268,7 +726,46 @@ public class GitlabApi {
             url = getUrl(TEMPLATE_UNBLOCK, address, id, token);
         }
 
-        String response = connector.execute(url, RequestMethod.POST, timeout, null);
+        checkChangeUserState(id, block, scheduler.call(() -> connector.request(url, RequestMethod.POST, timeout, null)).getBody());
+    }
+
+    /**
+     * Change Gitlab user state asynchronously.
+     *
+     * @param id user ID
+     * @param block if {@code true} - user will be blocked, otherwise - user will be unblocked
+     * @param executor executor for blocking work of connector
+     * @return future completed exceptionally by {@link ApiConnectorException} if exception occurs during
+     *         communicating with API
+     */
+    protected CompletableFuture<Void> changeUserStateAsync(long id, boolean block, Executor executor) {
+        URL url;
+        try {
+            url = getUrl(block ? TEMPLATE_BLOCK : TEMPLATE_UNBLOCK, address, id, token);
+        } catch (ApiConnectorException e){
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return scheduler.callAsync(() -> connector.requestAsync(url, RequestMethod.POST, timeout, null, ResponseReader.STRING, executor))
+                .thenAccept(response -> {
+                    try {
+                        checkChangeUserState(id, block, response.getBody());
+                    } catch (ApiConnectorException e){
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    /**
+     * Check API response for a user change state request.
+     *
+     * @param id user ID
+     * @param block if {@code true} - user was blocked, otherwise - user was unblocked
+     * @param response API response
+     * @throws ApiConnectorException if user state was not changed
+     */
+    private void checkChangeUserState(long id, boolean block, String response) throws ApiConnectorException {
         if (!response.equals("true")) {
             if (response.equals("null") || response.equals("false")){
                 if (block){
@@ -1,10 +1,26 @@
 package com.github.onlycrab.gbu.worker;
 
+import com.github.onlycrab.gbu.model.Identity;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
 import com.github.onlycrab.gbu.model.ChangeUserStateAnswer;
 import com.github.onlycrab.gbu.model.ErrorResponse;
 import com.github.onlycrab.gbu.model.User;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Class to convert JSON data.
@@ -22,7 +38,26 @@ public class JsonConverter {
      * Initialize converter.
      */
     public JsonConverter(){
-        gson = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+        gson = new GsonBuilder().serializeNulls().disableHtmlEscaping()
+                .registerTypeAdapter(User.class, new UserSerializer()).create();
+    }
+
+    /**
+     * Serializer of {@link User}. Field {@code identities} is omitted if identities are not known, f.e. for users
+     * restored from the state store or compact table, so their answers do not show an empty list as real data.
+     */
+    private static class UserSerializer implements JsonSerializer<User> {
+        @Override
+        public JsonElement serialize(User user, Type type, JsonSerializationContext context) {
+            JsonObject json = new JsonObject();
+            json.addProperty("id", user.getId());
+            json.addProperty("username", user.getUsername());
+            json.addProperty("state", user.getState());
+            if (user.getIdentities() != null){
+                json.add("identities", context.serialize(user.getIdentities()));
+            }
+            return json;
+        }
     }
 
     /**
@@ -36,6 +71,93 @@ public class JsonConverter {
         return gson.fromJson(json, User[].class);
     }
 
+    /**
+     * Read users JSON data to {@link User} array while it is received.
+     * Only {@code id}, {@code username}, {@code state} and {@code identities} are bound, other fields are skipped
+     * without building any intermediate tree.
+     *
+     * @param reader data in JSON format
+     * @return JSON data as {@link User} array
+     * @throws IOException if an I/O error occurs while reading data
+     * @throws JsonSyntaxException if data is not an array of users
+     */
+    public User[] readUsers(Reader reader) throws IOException, JsonSyntaxException {
+        JsonReader json = new JsonReader(reader);
+        List<User> users = new ArrayList<>();
+        try {
+            json.beginArray();
+            while (json.hasNext()) {
+                users.add(readUser(json));
+            }
+            json.endArray();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e.getMessage(), e);
+        }
+        return users.toArray(new User[0]);
+    }
+
+    private User readUser(JsonReader json) throws IOException {
+        User user = new User();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "id":
+                    user.setId(json.nextLong());
+                    break;
+                case "username":
+                    user.setUsername(nextString(json));
+                    break;
+                case "state":
+                    user.setState(nextString(json));
+                    break;
+                case "identities":
+                    user.setIdentities(readIdentities(json));
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return user;
+    }
+
+    private Identity[] readIdentities(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return null;
+        }
+        List<Identity> identities = new ArrayList<>(1);
+        json.beginArray();
+        while (json.hasNext()) {
+            Identity identity = new Identity();
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "provider":
+                        identity.setProvider(nextString(json));
+                        break;
+                    case "extern_uid":
+                        identity.setExternUid(nextString(json));
+                        break;
+                    default:
+                        json.skipValue();
+                }
+            }
+            json.endObject();
+            identities.add(identity);
+        }
+        json.endArray();
+        return identities.toArray(new Identity[0]);
+    }
+
+    private static String nextString(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return null;
+        }
+        return json.nextString();
+    }
+
     /**
      * Convert Gitlab API error response to {@link ErrorResponse}.
      *
@@ -57,4 +179,16 @@ public class JsonConverter {
     public String toJson(ChangeUserStateAnswer[] answer) throws RuntimeException {
         return gson.toJson(answer, ChangeUserStateAnswer[].class);
     }
+
+    /**
+     * Write result of changing state of Gitlab user as JSON, in the same form as elements of
+     * {@link JsonConverter#toJson(ChangeUserStateAnswer[])}.
+     *
+     * @param answer result of changing state of Gitlab user
+     * @param writer JSON writer
+     * @throws RuntimeException exception from {@link Gson}, including I/O errors of {@code writer}
+     */
+    public void toJson(ChangeUserStateAnswer answer, JsonWriter writer) throws RuntimeException {
+        gson.toJson(answer, ChangeUserStateAnswer.class, writer);
+    }
 }
@@ -0,0 +1,457 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.exception.LdapException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.LdapContext;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Pool of LDAP contexts over one or several LDAP servers (domain controllers).
+ * Each server has up to {@link LdapContextPool#size} contexts, created on demand. Server for the next context is
+ * chosen by {@link LdapRouting}. Server which cant be connected, or whose connection is broken, is skipped for
+ * {@link LdapContextPool#retryDelay}, so searches fail over to the other servers. Contexts that were idle longer than
+ * {@link LdapContextPool#healthCheck} are checked before use.
+ * JNDI LDAP context is not thread-safe, so each context is used by one thread at a time.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class LdapContextPool {
+    private static final Logger LOGGER = LogManager.getLogger(LdapContextPool.class);
+    /**
+     * Default idle time of context after which it is checked before use, in milliseconds.
+     */
+    public static final long DEFAULT_HEALTH_CHECK = 30000;
+    /**
+     * Default time during which failed server is not used, in milliseconds.
+     */
+    public static final long DEFAULT_RETRY_DELAY = 30000;
+
+    /**
+     * Servers in order of providers.
+     */
+    private final List<Server> servers = new ArrayList<>();
+    /**
+     * Factory of new contexts.
+     */
+    private final ContextFactory factory;
+    /**
+     * Server of each context in use.
+     */
+    private final Map<LdapContext, Server> owners = new IdentityHashMap<>();
+    /**
+     * Maximum number of contexts per server.
+     */
+    private int size;
+    /**
+     * Method of choosing server.
+     */
+    private LdapRouting routing = LdapRouting.LEAST_LOADED;
+    /**
+     * Idle time of context after which it is checked before use, in milliseconds. If {@code 0} - contexts are not checked.
+     */
+    private long healthCheck = DEFAULT_HEALTH_CHECK;
+    /**
+     * Time during which failed server is not used, in milliseconds.
+     */
+    private long retryDelay = DEFAULT_RETRY_DELAY;
+    /**
+     * Index of server to start the next choice from.
+     */
+    private int next;
+
+    /**
+     * Create pool.
+     *
+     * @param providers provider strings like {@code ldap://server:port}
+     * @param size maximum number of contexts per server
+     * @param factory factory of new contexts
+     */
+    public LdapContextPool(List<String> providers, int size, ContextFactory factory) {
+        for (String provider : providers){
+            servers.add(new Server(provider));
+        }
+        this.size = Math.max(1, size);
+        this.factory = factory;
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Get number of servers.
+     *
+     * @return number of servers
+     */
+    public synchronized int getServerCount() {
+        return servers.size();
+    }
+
+    /**
+     * Set maximum number of contexts per server. Idle contexts over the new size are closed.
+     *
+     * @param size number of contexts
+     */
+    public synchronized void setSize(int size) {
+        if (size > 0){
+            this.size = size;
+            for (Server server : servers){
+                while (server.created > size && !server.idle.isEmpty()){
+                    close(server.idle.pop().context);
+                    server.created--;
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    public synchronized void setRouting(LdapRouting routing) {
+        if (routing != null){
+            this.routing = routing;
+        }
+    }
+
+    /**
+     * Set idle time of context after which it is checked before use.
+     *
+     * @param healthCheck time in milliseconds, {@code 0} means contexts are not checked
+     */
+    public synchronized void setHealthCheck(long healthCheck) {
+        if (healthCheck >= 0){
+            this.healthCheck = healthCheck;
+        }
+    }
+
+    /**
+     * Set time during which failed server is not used.
+     *
+     * @param retryDelay time in milliseconds
+     */
+    public synchronized void setRetryDelay(long retryDelay) {
+        if (retryDelay >= 0){
+            this.retryDelay = retryDelay;
+        }
+    }
+
+    /**
+     * Put already opened context to the pool.
+     *
+     * @param provider provider of the context
+     * @param context LDAP context
+     */
+    public synchronized void adopt(String provider, LdapContext context) {
+        if (context == null){
+            return;
+        }
+        Server server = null;
+        for (Server s : servers){
+            if (Objects.equals(s.provider, provider)){
+                server = s;
+            }
+        }
+        if (server == null){
+            server = new Server(provider);
+            servers.add(server);
+        }
+        server.created++;
+        server.idle.push(new Idle(context, System.currentTimeMillis()));
+        notifyAll();
+    }
+
+    /**
+     * Take context from the pool, wait if all contexts of available servers are in use.
+     * If server cant be connected, it is marked as failed and the next server is tried.
+     *
+     * @return LDAP context
+     * @throws LdapException if no server can be connected or the thread is interrupted
+     */
+    public LdapContext borrow() throws LdapException {
+        Set<Server> failed = new HashSet<>();
+        LdapException failure = null;
+        while (true){
+            Server server;
+            Idle idle;
+            long check;
+            synchronized (this){
+                server = choose(failed, failure);
+                idle = server.idle.poll();
+                if (idle == null){
+                    server.created++;
+                }
+                server.active++;
+                check = healthCheck;
+            }
+
+            if (idle != null){
+                if (check > 0 && System.currentTimeMillis() - idle.since >= check && !isAlive(idle.context)){
+                    //Connection was closed by server or network while idle, a new one will be opened
+                    LOGGER.warn("Idle LDAP connection to {} is broken, reconnecting.", server.provider);
+                    discard(server, idle.context);
+                    continue;
+                }
+                return own(server, idle.context);
+            }
+
+            try {
+                return own(server, factory.create(server.provider));
+            } catch (LdapException | RuntimeException e){
+                synchronized (this){
+                    server.created--;
+                    server.active--;
+                    server.downUntil = System.currentTimeMillis() + retryDelay;
+                    notifyAll();
+                }
+                LOGGER.warn("LDAP server {} is unavailable : {}", server.provider, e.getMessage());
+                failed.add(server);
+                failure = e instanceof LdapException
+                        ? (LdapException) e
+                        : new LdapException(String.format("LDAP connection failed : %s.", e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Return context to the pool.
+     *
+     * @param context context taken by {@link LdapContextPool#borrow()}
+     */
+    public synchronized void release(LdapContext context) {
+        Server server = owners.remove(context);
+        if (server == null){
+            return;
+        }
+        server.active--;
+        if (server.created > size){
+            close(context);
+            server.created--;
+        } else {
+            server.idle.push(new Idle(context, System.currentTimeMillis()));
+        }
+        notifyAll();
+    }
+
+    /**
+     * Close broken context, a new one will be created instead.
+     *
+     * @param context context taken by {@link LdapContextPool#borrow()}
+     */
+    public void invalidate(LdapContext context) {
+        Server server;
+        synchronized (this){
+            server = owners.remove(context);
+        }
+        if (server != null){
+            discard(server, context);
+        }
+    }
+
+    /**
+     * Close context whose connection failed and mark its server as failed: idle contexts of the server are closed,
+     * the server is not used for {@link LdapContextPool#retryDelay}.
+     *
+     * @param context context taken by {@link LdapContextPool#borrow()}
+     * @param cause connection fault
+     */
+    public void fail(LdapContext context, Exception cause) {
+        Server server;
+        List<LdapContext> broken = new ArrayList<>();
+        synchronized (this){
+            server = owners.remove(context);
+            if (server == null){
+                return;
+            }
+            server.downUntil = System.currentTimeMillis() + retryDelay;
+            while (!server.idle.isEmpty()){
+                broken.add(server.idle.pop().context);
+                server.created--;
+            }
+        }
+        LOGGER.warn("Connection to LDAP server {} failed, failing over : {}", server.provider, cause.getMessage());
+        for (LdapContext idle : broken){
+            close(idle);
+        }
+        discard(server, context);
+    }
+
+    /**
+     * Close all contexts which are not used now.
+     */
+    public void close() {
+        synchronized (this){
+            for (Server server : servers){
+                while (!server.idle.isEmpty()){
+                    close(server.idle.pop().context);
+                    server.created--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if LDAP exception is caused by a broken or unavailable connection, so the search may succeed on another
+     * server.
+     *
+     * @param e exception
+     * @return {@code true} if it is a connection fault
+     */
+    public static boolean isConnectionFault(NamingException e) {
+        return e instanceof CommunicationException
+                || e instanceof ServiceUnavailableException
+                || e.getRootCause() instanceof IOException;
+    }
+
+    /**
+     * Choose server for the next context, wait if all contexts of available servers are in use.
+     * Failed servers are skipped until {@link LdapContextPool#retryDelay} expires; if all servers failed, the one
+     * that failed first is tried again.
+     *
+     * @param failed servers that could not be connected by current borrowing
+     * @param failure last connection exception of current borrowing
+     * @return server
+     * @throws LdapException if all servers could not be connected by current borrowing or the thread is interrupted
+     */
+    private Server choose(Set<Server> failed, LdapException failure) throws LdapException {
+        while (true){
+            long now = System.currentTimeMillis();
+            List<Server> available = new ArrayList<>(servers.size());
+            Server earliest = null;
+            for (Server server : servers){
+                if (failed.contains(server)){
+                    continue;
+                }
+                if (server.downUntil <= now){
+                    available.add(server);
+                } else if (earliest == null || server.downUntil < earliest.downUntil){
+                    earliest = server;
+                }
+            }
+            if (available.isEmpty()){
+                if (earliest == null){
+                    throw failure != null ? failure : new LdapException("LDAP connection failed : no LDAP servers.");
+                }
+                available.add(earliest);
+            }
+
+            Server chosen = null;
+            for (int i = 0; i < servers.size(); i++){
+                int index = (next + i) % servers.size();
+                Server server = servers.get(index);
+                if (!available.contains(server) || (server.idle.isEmpty() && server.created >= size)){
+                    continue;
+                }
+                if (chosen == null || (routing == LdapRouting.LEAST_LOADED && server.active < chosen.active)){
+                    chosen = server;
+                }
+                if (routing == LdapRouting.ROUND_ROBIN){
+                    break;
+                }
+            }
+            if (chosen != null){
+                next = (servers.indexOf(chosen) + 1) % servers.size();
+                return chosen;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new LdapException("LDAP search was interrupted.");
+            }
+        }
+    }
+
+    private synchronized LdapContext own(Server server, LdapContext context) {
+        owners.put(context, server);
+        return context;
+    }
+
+    private void discard(Server server, LdapContext context) {
+        close(context);
+        synchronized (this){
+            server.created--;
+            server.active--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Check connection of idle context by reading root DSE without attributes.
+     *
+     * @param context LDAP context
+     * @return {@code false} if connection is broken
+     */
+    private static boolean isAlive(LdapContext context) {
+        try {
+            context.getAttributes("", new String[]{ "1.1" });
+            return true;
+        } catch (NamingException e){
+            return !isConnectionFault(e);
+        }
+    }
+
+    private static void close(LdapContext context) {
+        try {
+            context.close();
+        } catch (NamingException ignored){
+        }
+    }
+
+    /**
+     * LDAP server and its contexts.
+     */
+    private static class Server {
+        private final String provider;
+        private final Deque<Idle> idle = new ArrayDeque<>();
+        /**
+         * Number of created contexts, including the ones in use.
+         */
+        private int created;
+        /**
+         * Number of contexts in use.
+         */
+        private int active;
+        /**
+         * Time until which server is not used after failure.
+         */
+        private long downUntil;
+
+        private Server(String provider) {
+            this.provider = provider;
+        }
+    }
+
+    /**
+     * Context that is not used now.
+     */
+    private static class Idle {
+        private final LdapContext context;
+        private final long since;
+
+        private Idle(LdapContext context, long since) {
+            this.context = context;
+            this.since = since;
+        }
+    }
+
+    /**
+     * Factory of LDAP contexts.
+     */
+    @FunctionalInterface
+    public interface ContextFactory {
+        LdapContext create(String provider) throws LdapException;
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.onlycrab.gbu.worker;
+
+/**
+ * Method of choosing LDAP server (domain controller) for the next search.
+ *
+ * @author Roman Rynkovich
+ */
+public enum LdapRouting {
+    /**
+     * Servers are used in turn.
+     */
+    ROUND_ROBIN,
+    /**
+     * Server with the least number of searches in progress is used, servers with equal load are used in turn.
+     */
+    LEAST_LOADED;
+
+    /**
+     * Get routing by name, case-insensitive, {@code -} may be used instead of {@code _}.
+     *
+     * @param name routing name
+     * @return routing
+     * @throws IllegalArgumentException if there is no routing with such name
+     */
+    public static LdapRouting parse(String name) throws IllegalArgumentException {
+        if (name != null){
+            for (LdapRouting routing : values()){
+                if (routing.name().equalsIgnoreCase(name.trim().replace('-', '_'))){
+                    return routing;
+                }
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown LDAP routing <%s>.", name));
+    }
+}
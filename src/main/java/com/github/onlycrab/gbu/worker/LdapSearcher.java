@@ -1,19 +1,38 @@
 package com.github.onlycrab.gbu.worker;
 
 import com.github.onlycrab.gbu.exception.LdapException;
+import com.github.onlycrab.gbu.model.AccountState;
+import lombok.AccessLevel;
 import lombok.Getter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import javax.naming.Context;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
 import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Class for searching users in Active Directory via LDAP.
@@ -53,10 +72,105 @@ import java.util.Map;
 @SuppressWarnings("WeakerAccess")
 @Getter
 public class LdapSearcher {
+    private static final Logger LOGGER = LogManager.getLogger(LdapSearcher.class);
     /**
-     * LDAP context.
+     * Default number of users searched by one LDAP filter.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 300;
+    /**
+     * Default number of entries in one page of LDAP search results. Active Directory returns at most 1000 entries
+     * (MaxPageSize) per search or page.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 500;
+    /**
+     * User ID attribute.
+     */
+    public static final String ATTR_NAME = "sAMAccountName";
+    /**
+     * Attribute with account flags.
+     */
+    public static final String ATTR_ACCOUNT_CONTROL = "userAccountControl";
+    /**
+     * Attribute with update sequence number of the last change of entry, local to domain controller.
+     */
+    public static final String ATTR_USN_CHANGED = "uSNChanged";
+    /**
+     * Root DSE attribute with the highest update sequence number of domain controller.
+     */
+    public static final String ATTR_HIGHEST_USN = "highestCommittedUSN";
+    /**
+     * Root DSE attribute with name of domain controller.
+     */
+    public static final String ATTR_SERVICE_NAME = "dsServiceName";
+    /**
+     * Base filter of user entries.
+     */
+    private static final String FILTER_USER = "(objectCategory=person)(objectClass=user)";
+
+    /**
+     * Default timeout of connecting to LDAP server in milliseconds, so unavailable server is failed over quickly.
+     */
+    public static final int CONNECT_TIMEOUT = 5000;
+
+    /**
+     * LDAP context opened first, it is put to {@link LdapSearcher#contextPool}.
      */
     private LdapContext ldapContext;
+    /**
+     * Provider string like {@code ldap://server:port}, or several ones separated by commas or spaces.
+     */
+    private String provider;
+    /**
+     * LDAP user, {@code null} for anonymous auth.
+     */
+    private String principal;
+    /**
+     * LDAP password, {@code null} for anonymous auth.
+     */
+    @Getter(AccessLevel.NONE)
+    private String credentials;
+    /**
+     * Maximum number of users searched by one LDAP filter. If {@code 0} - all users are searched by one filter.
+     */
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    /**
+     * Number of entries in one page of LDAP search results (RFC 2696). If {@code 0} - results are not paged.
+     */
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    /**
+     * If {@code true} - accounts with LOCKOUT flag are treated as locked, otherwise only disabled accounts are.
+     */
+    private boolean lockout;
+    /**
+     * Number of LDAP searches executed concurrently, each one over its own LDAP context.
+     */
+    private int searchThreads = 1;
+    /**
+     * Method of looking up account states.
+     */
+    private LookupMode lookupMode = LookupMode.AUTO;
+    /**
+     * Number of user entries under the search point, measured by the last snapshot or count, or restored from the
+     * previous run; {@code -1} if not known.
+     */
+    private volatile int directorySize = -1;
+    /**
+     * Method of choosing LDAP server for the next search if there are several providers.
+     */
+    private LdapRouting routing = LdapRouting.LEAST_LOADED;
+    /**
+     * Idle time of LDAP connection after which it is checked before use, in milliseconds.
+     */
+    private long healthCheck = LdapContextPool.DEFAULT_HEALTH_CHECK;
+    /**
+     * Method of tracking AD changes in incremental mode.
+     */
+    private ChangeTracking changeTracking = ChangeTracking.USN;
+    /**
+     * LDAP contexts of all providers, created on demand.
+     */
+    @Getter(AccessLevel.NONE)
+    private LdapContextPool contextPool;
     /**
      * Node within which the search will be performed.
      */
@@ -95,46 +209,156 @@ public class LdapSearcher {
         }
     }
 
+    /**
+     * Set maximum number of users searched by one LDAP filter.
+     *
+     * @param chunkSize number of users, {@code 0} means all users are searched by one filter
+     */
+    public void setChunkSize(int chunkSize){
+        if (chunkSize >= 0){
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    /**
+     * Set whether accounts with LOCKOUT flag of {@code userAccountControl} are treated as locked.
+     *
+     * @param lockout if {@code true} - LOCKOUT flag is checked, otherwise - only ACCOUNTDISABLE flag
+     */
+    public void setLockout(boolean lockout){
+        this.lockout = lockout;
+    }
+
+    /**
+     * Set method of looking up account states.
+     *
+     * @param lookupMode lookup method
+     */
+    public void setLookupMode(LookupMode lookupMode){
+        if (lookupMode != null){
+            this.lookupMode = lookupMode;
+        }
+    }
+
+    /**
+     * Set number of user entries under the search point, f.e. measured by the previous run.
+     *
+     * @param directorySize number of entries, {@code -1} if not known
+     */
+    public void setDirectorySize(int directorySize){
+        if (directorySize >= -1){
+            this.directorySize = directorySize;
+        }
+    }
+
+    /**
+     * Set number of entries in one page of LDAP search results.
+     *
+     * @param pageSize number of entries, {@code 0} means results are not paged
+     */
+    public void setPageSize(int pageSize){
+        if (pageSize >= 0){
+            this.pageSize = pageSize;
+        }
+    }
+
+    /**
+     * Set number of LDAP searches executed concurrently.
+     *
+     * @param searchThreads number of searches, {@code 1} means one after another
+     */
+    public synchronized void setSearchThreads(int searchThreads){
+        if (searchThreads > 0){
+            this.searchThreads = searchThreads;
+            if (contextPool != null){
+                contextPool.setSize(searchThreads);
+            }
+        }
+    }
+
+    /**
+     * Set method of choosing LDAP server for the next search.
+     *
+     * @param routing routing method
+     */
+    public synchronized void setRouting(LdapRouting routing){
+        if (routing != null){
+            this.routing = routing;
+            if (contextPool != null){
+                contextPool.setRouting(routing);
+            }
+        }
+    }
+
+    /**
+     * Set method of tracking AD changes in incremental mode.
+     *
+     * @param changeTracking change tracking method
+     */
+    public void setChangeTracking(ChangeTracking changeTracking){
+        if (changeTracking != null){
+            this.changeTracking = changeTracking;
+        }
+    }
+
+    /**
+     * Set idle time of LDAP connection after which it is checked before use.
+     *
+     * @param healthCheck time in milliseconds, {@code 0} means connections are not checked
+     */
+    public synchronized void setHealthCheck(long healthCheck){
+        if (healthCheck >= 0){
+            this.healthCheck = healthCheck;
+            if (contextPool != null){
+                contextPool.setHealthCheck(healthCheck);
+            }
+        }
+    }
+
     /**
      * Initialize LDAP searcher by provider and search node. LDAP auth is anonymous.
      *
-     * @param provider provider string like {@code ldap://server:port}
+     * @param provider provider string like {@code ldap://server:port}, or several ones separated by commas
      * @param point search node, f.e. {@code ou=Users,ou=MC,dc=mycompany,dc=com}
      * @throws LdapException if {@code point} is null;
-     *                      if LDAP connection exception occurs;
+     *                      if no LDAP provider can be connected;
      *                      if an error occurred while extracting a domain from the {@code point}
      */
     public LdapSearcher(String provider, String point) throws LdapException {
-        ldapContext = getLdapContext(provider, null, null);
+        this.provider = provider;
+        ldapContext = connect();
         if (point == null){
             throw new LdapException("Search point can not be <null>.");
         } else {
             this.searchPoint = point;
         }
         this.domain = parseDomain(searchPoint);
-        searchControls = buildSearchControls(new String[]{"sAMAccountName"});
+        searchControls = buildSearchControls(new String[]{ATTR_NAME, ATTR_ACCOUNT_CONTROL});
     }
 
     /**
      * Initialize LDAP searcher by provider and search node. LDAP auth by credentials.
      *
-     * @param provider provider string like {@code ldap://server:port}
+     * @param provider provider string like {@code ldap://server:port}, or several ones separated by commas
      * @param principal LDAP user
      * @param credentials LDAP password
      * @param point search node, f.e. {@code ou=Users,ou=MC,dc=mycompany,dc=com}
      * @throws LdapException if {@code point} is null;
-     *                      if LDAP connection exception occurs;
+     *                      if no LDAP provider can be connected;
      *                      if an error occurred while extracting a domain from the {@code point}
      */
     public LdapSearcher(String provider, String principal, String credentials, String point) throws LdapException {
-        ldapContext = getLdapContext(provider, principal, credentials);
+        this.provider = provider;
+        this.principal = principal;
+        this.credentials = credentials;
+        ldapContext = connect();
         if (point == null){
             throw new LdapException("Search point can not be <null>.");
         } else {
             this.searchPoint = point;
         }
         this.domain = parseDomain(searchPoint);
-        searchControls = buildSearchControls(new String[]{"sAMAccountName"});
+        searchControls = buildSearchControls(new String[]{ATTR_NAME, ATTR_ACCOUNT_CONTROL});
     }
 
     /**
@@ -160,6 +384,40 @@ public class LdapSearcher {
         }
     }
 
+    /**
+     * Split provider string to providers.
+     *
+     * @param provider provider strings separated by commas or spaces
+     * @return list of providers, empty if {@code provider} is {@code null}
+     */
+    public static List<String> parseProviders(String provider){
+        List<String> providers = new ArrayList<>();
+        if (provider != null){
+            for (String p : provider.split("[,\\s]+")){
+                if (!p.isEmpty()){
+                    providers.add(p);
+                }
+            }
+        }
+        return providers;
+    }
+
+    /**
+     * Open the first LDAP context, providers are tried in turn.
+     *
+     * @return LDAP context, it stays in {@link LdapSearcher#contextPool}
+     * @throws LdapException if no provider can be connected
+     */
+    private LdapContext connect() throws LdapException {
+        if (parseProviders(provider).isEmpty()){
+            throw new LdapException("LDAP provider can not be empty.");
+        }
+        LdapContextPool pool = getContextPool();
+        LdapContext context = pool.borrow();
+        pool.release(context);
+        return context;
+    }
+
     /**
      * Build LDAP context.
      *
@@ -180,6 +438,7 @@ public class LdapSearcher {
             }
             env.put(Context.PROVIDER_URL, provider);
             env.put(Context.REFERRAL, "follow");
+            env.put("com.sun.jndi.ldap.connect.timeout", String.valueOf(CONNECT_TIMEOUT));
             return new InitialLdapContext(env, null);
         } catch (NamingException e) {
             throw new LdapException(String.format("LDAP connection failed : %s.", e.getMessage()));
@@ -212,6 +471,24 @@ public class LdapSearcher {
         return sb.toString();
     }
 
+    /**
+     * Split users to chunks, each one is searched by its own LDAP filter.
+     *
+     * @param users array of users for searching
+     * @param chunkSize maximum number of users in chunk, if {@code 0} - all users are in one chunk
+     * @return list of chunks
+     */
+    protected static List<String[]> split(String[] users, int chunkSize){
+        if (chunkSize <= 0 || users.length <= chunkSize){
+            return Collections.singletonList(users);
+        }
+        List<String[]> chunks = new ArrayList<>((users.length + chunkSize - 1) / chunkSize);
+        for (int from = 0; from < users.length; from += chunkSize){
+            chunks.add(Arrays.copyOfRange(users, from, Math.min(users.length, from + chunkSize)));
+        }
+        return chunks;
+    }
+
     /**
      * Search users by LDAP.
      * Result map key-value pairs:
@@ -229,18 +506,248 @@ public class LdapSearcher {
         for (String user : users){
             result.put(user, false);
         }
-        String filterAll = buildFilterAll(filter, users);
+        searchEntries(filter, users, point, attrs -> true, result);
+        return result;
+    }
+
+    /**
+     * Search entries of users by LDAP.
+     * Users are searched by chunks of {@link LdapSearcher#chunkSize}, so the LDAP filter stays small;
+     * chunks are searched concurrently if {@link LdapSearcher#searchThreads} is greater than {@code 1}.
+     *
+     * @param filter base filter expression to use for the search
+     * @param users array of users for searching
+     * @param point search node
+     * @param decoder decoder of found entries
+     * @param found map for found entries, key - user ID, value - decoded entry
+     * @param <T> type of decoded entry
+     * @throws LdapException if error occurs while working with LDAP search
+     */
+    private <T> void searchEntries(String filter, String[] users, String point, EntryDecoder<T> decoder,
+                                   Map<String, T> found) throws LdapException {
+        List<String[]> chunks = split(users, chunkSize);
+        if (searchThreads <= 1 || chunks.size() <= 1){
+            for (String[] chunk : chunks){
+                search(buildFilterAll(filter, chunk), point, decoder, found);
+            }
+        } else {
+            searchConcurrently(filter, chunks, point, decoder, found);
+        }
+    }
+
+    /**
+     * Search chunks of users concurrently, each search uses its own LDAP context.
+     *
+     * @param filter base filter expression to use for the search
+     * @param chunks chunks of users for searching
+     * @param point search node
+     * @param decoder decoder of found entries
+     * @param found map for found entries, key - user ID, value - decoded entry
+     * @param <T> type of decoded entry
+     * @throws LdapException if error occurs while working with LDAP search
+     */
+    private <T> void searchConcurrently(String filter, List<String[]> chunks, String point, EntryDecoder<T> decoder,
+                                        Map<String, T> found) throws LdapException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(searchThreads, chunks.size()));
         try {
-            NamingEnumeration<SearchResult> answer = ldapContext.search(point, filterAll, searchControls);
-            while (answer.hasMore()){
-                Attributes attrs = answer.nextElement().getAttributes();
-                String name = attrs.get("sAMAccountName").get().toString();
-                result.put(name, true);
+            List<Future<Map<String, T>>> futures = new ArrayList<>(chunks.size());
+            for (String[] chunk : chunks){
+                String filterAll = buildFilterAll(filter, chunk);
+                futures.add(executor.submit(() -> {
+                    Map<String, T> entries = new HashMap<>();
+                    search(filterAll, point, decoder, entries);
+                    return entries;
+                }));
             }
-        } catch (Exception e) {
+            for (Future<Map<String, T>> future : futures){
+                found.putAll(future.get());
+            }
+        } catch (ExecutionException e){
+            if (e.getCause() instanceof LdapException){
+                throw (LdapException) e.getCause();
+            }
+            throw new LdapException(String.format("LDAP search failed : %s.", e.getCause().getMessage()));
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new LdapException("LDAP search was interrupted.");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Execute one LDAP search over context of {@link LdapSearcher#contextPool}. If connection to the server fails,
+     * the search is repeated from the beginning on another server, paging cookies are valid only on the server
+     * which issued them.
+     *
+     * @param filterAll LDAP filter expression
+     * @param point search node
+     * @param decoder decoder of found entries
+     * @param found map for found entries, key - user ID, value - decoded entry
+     * @param <T> type of decoded entry
+     * @throws LdapException if error occurs while working with LDAP search
+     */
+    private <T> void search(String filterAll, String point, EntryDecoder<T> decoder, Map<String, T> found)
+            throws LdapException {
+        execute(context -> {
+            search(context, filterAll, point, decoder, found);
+            return null;
+        });
+    }
+
+    /**
+     * Execute task over context of {@link LdapSearcher#contextPool}. If connection to the server fails, the task is
+     * repeated on another server.
+     *
+     * @param task task
+     * @param <R> type of task result
+     * @return task result
+     * @throws LdapException if task fails
+     */
+    private <R> R execute(ContextTask<R> task) throws LdapException {
+        LdapContextPool pool = getContextPool();
+        //Each server once, plus a new connection if the only server closed an idle one
+        int attempts = pool.getServerCount() + 1;
+        for (int attempt = 1; ; attempt++){
+            LdapContext context = pool.borrow();
+            R result;
+            try {
+                result = task.run(context);
+            } catch (NamingException e){
+                if (LdapContextPool.isConnectionFault(e)){
+                    pool.fail(context, e);
+                    if (attempt < attempts){
+                        continue;
+                    }
+                } else {
+                    pool.release(context);
+                }
+                throw new LdapException(String.format("LDAP search failed : %s.", e.getMessage()));
+            } catch (LdapException | RuntimeException e){
+                pool.release(context);
+                throw e;
+            }
+            pool.release(context);
+            return result;
+        }
+    }
+
+    /**
+     * Execute one LDAP search. If {@link LdapSearcher#pageSize} is set, results are requested page by page, so the
+     * server size limit is not exceeded.
+     *
+     * @param context LDAP context
+     * @param filterAll LDAP filter expression
+     * @param point search node
+     * @param decoder decoder of found entries
+     * @param found map for found entries, key - user ID, value - decoded entry
+     * @param <T> type of decoded entry
+     * @throws NamingException if LDAP search fails
+     * @throws LdapException if found entry cant be decoded or paging control cant be built
+     */
+    private <T> void search(LdapContext context, String filterAll, String point, EntryDecoder<T> decoder,
+                            Map<String, T> found) throws NamingException, LdapException {
+        try {
+            byte[] cookie = null;
+            do {
+                //Paging control is not critical : server without paging support returns all results at once
+                context.setRequestControls(pageSize > 0
+                        ? new Control[]{ new PagedResultsControl(pageSize, cookie, Control.NONCRITICAL) }
+                        : null);
+                NamingEnumeration<SearchResult> answer = context.search(point, filterAll, searchControls);
+                while (answer.hasMore()){
+                    Attributes attrs = answer.nextElement().getAttributes();
+                    found.put(getName(attrs), decoder.decode(attrs));
+                }
+                cookie = pageSize > 0 ? getCookie(context.getResponseControls()) : null;
+            } while (cookie != null && cookie.length > 0);
+        } catch (IOException e) {
             throw new LdapException(String.format("LDAP search failed : %s.", e.getMessage()));
+        } finally {
+            //Context is returned to the pool, paging cookie must not be sent by the next search
+            clearRequestControls(context);
         }
-        return result;
+    }
+
+    /**
+     * Remove request controls of context. Error is ignored, so it does not replace the error of the search : context
+     * whose connection is broken is not reused by the pool anyway.
+     *
+     * @param context LDAP context
+     */
+    private static void clearRequestControls(LdapContext context) {
+        try {
+            context.setRequestControls(null);
+        } catch (NamingException e){
+            LOGGER.debug("Cant clear LDAP request controls : {}.", e.getMessage());
+        }
+    }
+
+    /**
+     * Get user ID of found entry.
+     *
+     * @param attrs entry attributes
+     * @return value of {@code sAMAccountName}
+     * @throws LdapException if entry has no {@code sAMAccountName}
+     */
+    private static String getName(Attributes attrs) throws LdapException {
+        try {
+            Attribute name = attrs.get(ATTR_NAME);
+            if (name == null || name.get() == null){
+                throw new LdapException(String.format("LDAP search failed : entry has no %s.", ATTR_NAME));
+            }
+            return name.get().toString();
+        } catch (NamingException e) {
+            throw new LdapException(String.format("LDAP search failed : %s.", e.getMessage()));
+        }
+    }
+
+    /**
+     * Get account state of found entry.
+     *
+     * @param attrs entry attributes
+     * @return account state, {@link AccountState#ACTIVE} if entry has no {@code userAccountControl}
+     * @throws LdapException if {@code userAccountControl} is not an integer
+     */
+    private AccountState getAccountState(Attributes attrs) throws LdapException {
+        try {
+            Attribute control = attrs.get(ATTR_ACCOUNT_CONTROL);
+            if (control == null || control.get() == null){
+                return AccountState.ACTIVE;
+            }
+            return AccountState.of(Integer.parseInt(control.get().toString().trim()), lockout);
+        } catch (NamingException | NumberFormatException e) {
+            throw new LdapException(String.format("LDAP search failed : wrong %s : %s.", ATTR_ACCOUNT_CONTROL, e.getMessage()));
+        }
+    }
+
+    /**
+     * Get cookie of the next page of LDAP search results.
+     *
+     * @param controls response controls of the last search
+     * @return cookie or {@code null} if it was the last page
+     */
+    private static byte[] getCookie(Control[] controls) {
+        if (controls != null){
+            for (Control control : controls){
+                if (control instanceof PagedResultsResponseControl){
+                    return ((PagedResultsResponseControl) control).getCookie();
+                }
+            }
+        }
+        return null;
+    }
+
+    private synchronized LdapContextPool getContextPool() {
+        if (contextPool == null){
+            List<String> providers = parseProviders(provider);
+            contextPool = new LdapContextPool(providers, searchThreads, p -> getLdapContext(p, principal, credentials));
+            contextPool.setRouting(routing);
+            contextPool.setHealthCheck(healthCheck);
+            //Context set without connecting, f.e. by tests
+            contextPool.adopt(providers.isEmpty() ? provider : providers.get(0), ldapContext);
+        }
+        return contextPool;
     }
 
     private SearchControls buildSearchControls(String[] attrs) {
@@ -277,7 +784,7 @@ public class LdapSearcher {
      */
     public Map<String, Boolean> isUserExist(String[] users, String point) throws LdapException {
         return searchUsers(
-                "(objectCategory=person)(objectClass=user)",
+                FILTER_USER,
                 users,
                 point
         );
@@ -310,9 +817,317 @@ public class LdapSearcher {
      */
     public Map<String, Boolean> isUserLocked(String[] users, String point) throws LdapException {
         return searchUsers(
-                "(objectCategory=person)(objectClass=user)(userAccountControl:1.2.840.113556.1.4.803:=2)",
+                FILTER_USER + "(userAccountControl:1.2.840.113556.1.4.803:=2)",
                 users,
                 point
         );
     }
+
+    /**
+     * Get state of user accounts by one search: existence and state are read from the same entries.
+     * Result map key-value pairs:
+     *      key: LDAP user ID
+     *      value: account state, decoded from {@code userAccountControl}.
+     * Users that don't exist are not in the result. In {@link LookupMode#SNAPSHOT} mode the result contains all user
+     * entries under the search point.
+     *
+     * @param users users for searching
+     * @return map whose keys are IDs of existing users, values are states of their accounts
+     * @throws LdapException if error occurs while working with LDAP search
+     */
+    public Map<String, AccountState> getAccountStates(String[] users) throws LdapException {
+        return getAccountStates(users, searchPoint);
+    }
+
+    /**
+     * Get state of user accounts by one search: existence and state are read from the same entries.
+     * Result map key-value pairs:
+     *      key: LDAP user ID
+     *      value: account state, decoded from {@code userAccountControl}.
+     * Users that don't exist are not in the result. In {@link LookupMode#SNAPSHOT} mode the result contains all user
+     * entries under the search point.
+     *
+     * @param users users for searching
+     * @param point search node, f.e. {@code ou=Users,ou=MC,dc=mycompany,dc=com}
+     * @return map whose keys are IDs of existing users, values are states of their accounts
+     * @throws LdapException if error occurs while working with LDAP search
+     */
+    public Map<String, AccountState> getAccountStates(String[] users, String point) throws LdapException {
+        LookupMode mode = chooseLookupMode(users.length);
+        LOGGER.info("AD lookup of {} users : {}, directory size : {}.", users.length, mode,
+                directorySize < 0 ? "unknown" : directorySize);
+        Map<String, AccountState> result = new HashMap<>();
+        if (mode == LookupMode.SNAPSHOT){
+            //All user entries, the caller joins them with its users
+            search(buildFilterAll(FILTER_USER, new String[0]), point, this::getAccountState, result);
+            directorySize = result.size();
+        } else {
+            searchEntries(FILTER_USER, users, point, this::getAccountState, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get state of user accounts changed after {@code watermark}, by {@link LdapSearcher#changeTracking} method.
+     * Result map key-value pairs:
+     *      key: LDAP user ID
+     *      value: account state, decoded from {@code userAccountControl}.
+     *
+     * @param watermark position of change tracking, it is moved to the current position
+     * @return map whose keys are IDs of changed users, values are states of their accounts;
+     *         {@code null} if changes were not tracked yet, so full lookup is needed
+     * @throws LdapException if error occurs while working with LDAP search
+     */
+    public Map<String, AccountState> getChangedAccountStates(ChangeWatermark watermark) throws LdapException {
+        if (changeTracking == ChangeTracking.DIRSYNC){
+            return getDirSyncAccountStates(watermark);
+        }
+        return getUsnAccountStates(watermark);
+    }
+
+    /**
+     * Get state of user accounts changed after {@code watermark}, by one search on one domain controller.
+     * Entries with {@code uSNChanged} above the processed USN of the domain controller are read, then the watermark
+     * is moved to {@code highestCommittedUSN} of the domain controller, read before the search, so changes made
+     * during the search are read by the next one.
+     * Result map key-value pairs:
+     *      key: LDAP user ID
+     *      value: account state, decoded from {@code userAccountControl}.
+     *
+     * @param watermark processed USN of domain controllers
+     * @return map whose keys are IDs of changed users, values are states of their accounts;
+     *         {@code null} if changes of the domain controller were not tracked yet, so full lookup is needed
+     * @throws LdapException if error occurs while working with LDAP search
+     */
+    private Map<String, AccountState> getUsnAccountStates(ChangeWatermark watermark) throws LdapException {
+        return execute(context -> {
+            Attributes root = readRootDse(context);
+            String server = getString(root, ATTR_SERVICE_NAME);
+            Long since = watermark.getUsn(server);
+            if (since == null){
+                LOGGER.info("AD changes of {} were not tracked yet.", server);
+                return null;
+            }
+            long highest = getUsn(root);
+            Map<String, AccountState> result = new HashMap<>();
+            if (highest > since){
+                String filter = FILTER_USER + "(" + ATTR_USN_CHANGED + ">=" + (since + 1) + ")";
+                search(context, "(&" + filter + ")", searchPoint, this::getAccountState, result);
+            }
+            LOGGER.info("AD changes of {} from USN {} to {} : {} users.", server, since, highest, result.size());
+            watermark.setUsn(server, highest);
+            return result;
+        });
+    }
+
+    /**
+     * Get state of user accounts whose {@code userAccountControl} was changed after DirSync cookie of
+     * {@code watermark}. DirSync returns only changed attributes, so user IDs are read by DN of changed entries.
+     * Entries out of the search point are skipped. The cookie is moved only if all changes were read.
+     *
+     * @param watermark position of change tracking
+     * @return map whose keys are IDs of changed users, values are states of their accounts;
+     *         {@code null} if there is no DirSync cookie, so full lookup is needed
+     * @throws LdapException if error occurs while working with LDAP search
+     */
+    private Map<String, AccountState> getDirSyncAccountStates(ChangeWatermark watermark) throws LdapException {
+        byte[] cookie = watermark.getDirSyncCookie();
+        if (cookie == null){
+            LOGGER.info("AD changes were not tracked by DirSync yet.");
+            return null;
+        }
+        return execute(context -> {
+            List<String> changed = new ArrayList<>();
+            byte[] next = dirSync(context, cookie, changed);
+            Map<String, AccountState> result = new HashMap<>();
+            for (String dn : changed){
+                try {
+                    Attributes attrs = context.getAttributes(new LdapName(dn), new String[]{ ATTR_NAME, ATTR_ACCOUNT_CONTROL });
+                    result.put(getName(attrs), getAccountState(attrs));
+                } catch (NameNotFoundException e){
+                    //Entry was deleted or moved after the change
+                    LOGGER.debug("Changed AD entry <{}> is not found.", dn);
+                }
+            }
+            LOGGER.info("AD changes by DirSync : {} users.", result.size());
+            watermark.setDirSyncCookie(next);
+            return result;
+        });
+    }
+
+    /**
+     * Read all DirSync changes of user entries, page by page while the server has more results.
+     * Only changes of {@code userAccountControl} are requested.
+     *
+     * @param context LDAP context
+     * @param cookie cookie of the previous search, empty for the first search, which returns all entries
+     * @param changed list for DN of changed entries under the search point, {@code null} if they are not needed
+     * @return cookie of the current state
+     * @throws NamingException if LDAP search fails
+     * @throws LdapException if server does not return DirSync response
+     */
+    private byte[] dirSync(LdapContext context, byte[] cookie, List<String> changed) throws NamingException, LdapException {
+        SearchControls controls = buildSearchControls(new String[]{ ATTR_ACCOUNT_CONTROL });
+        String suffix = "," + searchPoint.toLowerCase();
+        DirSyncControl.Response response;
+        try {
+            do {
+                context.setRequestControls(new Control[]{ new DirSyncControl(DirSyncControl.OBJECT_SECURITY, cookie) });
+                //DirSync searches only from the root of naming context
+                NamingEnumeration<SearchResult> answer = context.search(domain, "(&" + FILTER_USER + ")", controls);
+                while (answer.hasMore()){
+                    String dn = answer.nextElement().getNameInNamespace();
+                    if (changed != null && (dn.toLowerCase().endsWith(suffix) || dn.equalsIgnoreCase(searchPoint))){
+                        changed.add(dn);
+                    }
+                }
+                response = DirSyncControl.getResponse(context.getResponseControls());
+                if (response == null){
+                    throw new LdapException("LDAP search failed : server does not support DirSync control.");
+                }
+                cookie = response.getCookie();
+            } while (response.isMoreResults());
+        } finally {
+            clearRequestControls(context);
+        }
+        return cookie;
+    }
+
+    /**
+     * Save the current position of change tracking to {@code watermark}. Must be called before full lookup, so
+     * changes made during the lookup are read by the next {@link LdapSearcher#getChangedAccountStates(ChangeWatermark)}.
+     * USN tracking reads the position of one domain controller; DirSync reads all changes since the saved cookie, or
+     * all entries if there is no cookie, and skips them.
+     *
+     * @param watermark position of change tracking
+     * @throws LdapException if error occurs while working with LDAP search
+     */
+    public void markChanges(ChangeWatermark watermark) throws LdapException {
+        if (changeTracking == ChangeTracking.DIRSYNC){
+            byte[] cookie = watermark.getDirSyncCookie();
+            watermark.setDirSyncCookie(execute(context -> dirSync(context, cookie == null ? new byte[0] : cookie, null)));
+            return;
+        }
+        execute(context -> {
+            Attributes root = readRootDse(context);
+            watermark.setUsn(getString(root, ATTR_SERVICE_NAME), getUsn(root));
+            return null;
+        });
+    }
+
+    private static Attributes readRootDse(LdapContext context) throws NamingException {
+        return context.getAttributes("", new String[]{ ATTR_SERVICE_NAME, ATTR_HIGHEST_USN });
+    }
+
+    private static String getString(Attributes attrs, String name) throws NamingException, LdapException {
+        Attribute attr = attrs.get(name);
+        if (attr == null || attr.get() == null){
+            throw new LdapException(String.format("LDAP search failed : root DSE has no %s.", name));
+        }
+        return attr.get().toString();
+    }
+
+    private static long getUsn(Attributes root) throws NamingException, LdapException {
+        try {
+            return Long.parseLong(getString(root, ATTR_HIGHEST_USN).trim());
+        } catch (NumberFormatException e) {
+            throw new LdapException(String.format("LDAP search failed : wrong %s : %s.", ATTR_HIGHEST_USN, e.getMessage()));
+        }
+    }
+
+    /**
+     * Choose method of looking up account states of {@code users} users.
+     * In {@link LookupMode#AUTO} mode, snapshot is chosen if reading all pages of the directory takes no more round
+     * trips than searching all chunks of users. While directory size is not known, targeted lookup is chosen, so
+     * a small Gitlab is not checked by the scan of a large directory; see {@link LdapSearcher#isDirectorySizeNeeded(int)}.
+     *
+     * @param users number of users
+     * @return {@link LookupMode#TARGETED} or {@link LookupMode#SNAPSHOT}
+     */
+    protected LookupMode chooseLookupMode(int users){
+        if (lookupMode != LookupMode.AUTO){
+            return lookupMode;
+        }
+        int size = directorySize;
+        if (!isSnapshotPossible(users) || size < 0){
+            return LookupMode.TARGETED;
+        }
+        int chunks = (users + chunkSize - 1) / chunkSize;
+        int searches = (chunks + searchThreads - 1) / searchThreads;
+        int pages = Math.max(1, (size + pageSize - 1) / pageSize);
+        return pages <= searches ? LookupMode.SNAPSHOT : LookupMode.TARGETED;
+    }
+
+    /**
+     * Check if directory size must be known to choose method of looking up account states of {@code users} users.
+     *
+     * @param users number of users
+     * @return {@code true} if {@link LookupMode#AUTO} mode could choose snapshot, but directory size is not known
+     */
+    public boolean isDirectorySizeNeeded(int users){
+        return lookupMode == LookupMode.AUTO && directorySize < 0 && isSnapshotPossible(users);
+    }
+
+    private boolean isSnapshotPossible(int users){
+        //Without paging the snapshot would be cut by the server size limit
+        return pageSize > 0 && chunkSize > 0 && users > chunkSize;
+    }
+
+    /**
+     * Count user entries under the search point and keep the number as directory size. Entries are read page by page
+     * without attributes, so it is much cheaper than the snapshot.
+     *
+     * @return number of user entries
+     * @throws LdapException if error occurs while working with LDAP search
+     */
+    public int measureDirectorySize() throws LdapException {
+        String filterAll = buildFilterAll(FILTER_USER, new String[0]);
+        //No attributes, only names of entries are returned
+        SearchControls controls = buildSearchControls(new String[0]);
+        int size = execute(context -> {
+            try {
+                int count = 0;
+                byte[] cookie = null;
+                do {
+                    context.setRequestControls(pageSize > 0
+                            ? new Control[]{ new PagedResultsControl(pageSize, cookie, Control.NONCRITICAL) }
+                            : null);
+                    NamingEnumeration<SearchResult> answer = context.search(searchPoint, filterAll, controls);
+                    while (answer.hasMore()){
+                        answer.next();
+                        count++;
+                    }
+                    cookie = pageSize > 0 ? getCookie(context.getResponseControls()) : null;
+                } while (cookie != null && cookie.length > 0);
+                return count;
+            } catch (IOException e) {
+                throw new LdapException(String.format("LDAP search failed : %s.", e.getMessage()));
+            } finally {
+                clearRequestControls(context);
+            }
+        });
+        directorySize = size;
+        LOGGER.info("AD directory size : {}.", size);
+        return size;
+    }
+
+    /**
+     * Decoder of found LDAP entry.
+     *
+     * @param <T> type of decoded entry
+     */
+    @FunctionalInterface
+    private interface EntryDecoder<T> {
+        T decode(Attributes attrs) throws LdapException;
+    }
+
+    /**
+     * Task executed over one LDAP context.
+     *
+     * @param <R> type of task result
+     */
+    @FunctionalInterface
+    private interface ContextTask<R> {
+        R run(LdapContext context) throws NamingException, LdapException;
+    }
 }
@@ -0,0 +1,40 @@
+package com.github.onlycrab.gbu.worker;
+
+/**
+ * Method of looking up AD accounts of Gitlab users.
+ *
+ * @author Roman Rynkovich
+ */
+public enum LookupMode {
+    /**
+     * Users are searched by name, in chunks of LDAP filters. Fast if few directory entries are Gitlab users.
+     */
+    TARGETED,
+    /**
+     * All user entries under the search point are read once, page by page, and joined with Gitlab users in memory.
+     * Fast if most directory entries are Gitlab users.
+     */
+    SNAPSHOT,
+    /**
+     * Method is chosen on every lookup by the number of users and the measured directory size.
+     */
+    AUTO;
+
+    /**
+     * Get lookup mode by name, case-insensitive.
+     *
+     * @param name lookup mode name
+     * @return lookup mode
+     * @throws IllegalArgumentException if there is no lookup mode with such name
+     */
+    public static LookupMode parse(String name) throws IllegalArgumentException {
+        if (name != null){
+            for (LookupMode mode : values()){
+                if (mode.name().equalsIgnoreCase(name.trim())){
+                    return mode;
+                }
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown lookup mode <%s>.", name));
+    }
+}
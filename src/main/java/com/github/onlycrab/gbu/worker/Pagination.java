@@ -0,0 +1,36 @@
+package com.github.onlycrab.gbu.worker;
+
+/**
+ * Gitlab API pagination method used for getting the list of users.
+ *
+ * @author Roman Rynkovich
+ */
+public enum Pagination {
+    /**
+     * Pages are requested by number ({@code page=N}). Supported by all Gitlab versions.
+     */
+    OFFSET,
+    /**
+     * Pages are requested by cursor from {@code Link: rel="next"} response header. Does not slow down on big
+     * collections, but is not supported by old Gitlab versions.
+     */
+    KEYSET;
+
+    /**
+     * Get pagination by name, case-insensitive.
+     *
+     * @param name pagination name
+     * @return pagination
+     * @throws IllegalArgumentException if there is no pagination with such name
+     */
+    public static Pagination parse(String name) throws IllegalArgumentException {
+        if (name != null){
+            for (Pagination pagination : values()){
+                if (pagination.name().equalsIgnoreCase(name.trim())){
+                    return pagination;
+                }
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown pagination <%s>.", name));
+    }
+}
@@ -0,0 +1,463 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.connector.ApiResponse;
+import com.github.onlycrab.gbu.exception.ApiConnectorException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduler of Gitlab API requests which keeps them within Gitlab rate limits.
+ * Requests are paced by a token bucket of {@link RequestScheduler#rate} requests per second. If Gitlab reports
+ * that no requests remain ({@code RateLimit-Remaining: 0}), all requests wait until {@code RateLimit-Reset}.
+ * Requests rejected with {@code 429} or {@code 5xx} are retried after {@code Retry-After} or after exponential
+ * backoff with jitter; {@code 429} also pauses all other requests.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class RequestScheduler {
+    private static final Logger LOGGER = LogManager.getLogger(RequestScheduler.class);
+    /**
+     * Response header with number of requests remaining in the current rate limit window.
+     */
+    public static final String HEADER_REMAINING = "RateLimit-Remaining";
+    /**
+     * Response header with time when the rate limit window is reset, as Unix time in seconds.
+     */
+    public static final String HEADER_RESET = "RateLimit-Reset";
+    /**
+     * Response header with number of seconds (or HTTP date) after which the request may be retried.
+     */
+    public static final String HEADER_RETRY_AFTER = "Retry-After";
+    /**
+     * Status code of a request rejected by rate limit.
+     */
+    public static final int TOO_MANY_REQUESTS = 429;
+    /**
+     * Maximum delay before retry or after rate limit window is exhausted, in milliseconds.
+     */
+    public static final long MAX_DELAY = 60000;
+
+    /**
+     * Maximum number of requests per second. If {@code 0} - requests are not paced.
+     */
+    private int rate;
+    /**
+     * Maximum number of retries of one request.
+     */
+    private int retries = 3;
+    /**
+     * First backoff delay in milliseconds, it is doubled with every retry.
+     */
+    private long backoff = 500;
+
+    /**
+     * Available tokens, negative if requests are waiting for tokens.
+     */
+    private double tokens;
+    /**
+     * Time of the last tokens refill, in {@link System#nanoTime()} units.
+     */
+    private long refilled = System.nanoTime();
+    /**
+     * All requests wait until this time, in {@link System#nanoTime()} units.
+     */
+    private long pausedUntil = System.nanoTime();
+
+    /**
+     * Number of sent requests, including retries.
+     */
+    private final AtomicLong requests = new AtomicLong();
+    /**
+     * Number of retries.
+     */
+    private final AtomicLong retried = new AtomicLong();
+    /**
+     * Total time requests waited for the scheduler, in nanoseconds.
+     */
+    private final AtomicLong throttled = new AtomicLong();
+
+    /**
+     * Timer for asynchronous retries.
+     */
+    private volatile ScheduledExecutorService timer;
+
+    /**
+     * Set maximum number of requests per second.
+     *
+     * @param rate number of requests, {@code 0} means no pacing
+     */
+    public synchronized void setRate(int rate) {
+        if (rate >= 0){
+            this.rate = rate;
+            this.tokens = rate;
+        }
+    }
+
+    /**
+     * Set maximum number of retries of one request.
+     *
+     * @param retries number of retries, {@code 0} means no retries
+     */
+    public void setRetries(int retries) {
+        if (retries >= 0){
+            this.retries = retries;
+        }
+    }
+
+    /**
+     * Set first backoff delay.
+     *
+     * @param backoff delay in milliseconds
+     */
+    public void setBackoff(long backoff) {
+        if (backoff >= 0){
+            this.backoff = backoff;
+        }
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public long getBackoff() {
+        return backoff;
+    }
+
+    /**
+     * Get number of sent requests, including retries.
+     *
+     * @return number of requests
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Get number of retries.
+     *
+     * @return number of retries
+     */
+    public long getRetried() {
+        return retried.get();
+    }
+
+    /**
+     * Get total time requests waited for the scheduler.
+     *
+     * @return time in milliseconds
+     */
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttled.get());
+    }
+
+    /**
+     * Reset statistics of requests.
+     */
+    public void resetStats() {
+        requests.set(0);
+        retried.set(0);
+        throttled.set(0);
+    }
+
+    /**
+     * Get statistics of requests.
+     *
+     * @return statistics like {@code requests : 10, retries : 1, throttled : 200 ms}
+     */
+    public String getStats() {
+        return String.format("requests : %s, retries : %s, throttled : %s ms", requests.get(), retried.get(), getThrottledMillis());
+    }
+
+    /**
+     * Wait until a request may be sent.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long wait = reserve();
+        if (wait > 0){
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Reserve sending of a request without waiting.
+     *
+     * @return time after which the request may be sent, in nanoseconds; {@code 0} if it may be sent now
+     */
+    public long reserve() {
+        long wait;
+        synchronized (this){
+            long now = System.nanoTime();
+            long start = Math.max(now, pausedUntil);
+            if (rate > 0){
+                //Refill tokens, bucket capacity is one second of requests
+                tokens = Math.min(rate, tokens + Math.max(0, start - refilled) * rate / 1e9);
+                refilled = Math.max(refilled, start);
+                tokens--;
+                if (tokens < 0){
+                    //Reserve the token, it will be available after this delay
+                    start += (long) (-tokens / rate * 1e9);
+                }
+            }
+            wait = start - now;
+        }
+        requests.incrementAndGet();
+        if (wait <= 0){
+            return 0;
+        }
+        throttled.addAndGet(wait);
+        return wait;
+    }
+
+    /**
+     * Pause all requests.
+     *
+     * @param millis pause duration in milliseconds
+     */
+    protected synchronized void pause(long millis) {
+        pausedUntil = Math.max(pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Check rate limit headers of response, pause requests if no requests remain.
+     *
+     * @param response Gitlab API response
+     */
+    public void onResponse(ApiResponse<?> response) {
+        if (response == null){
+            return;
+        }
+        if (response.getHeaderAsInt(HEADER_REMAINING, 1) <= 0){
+            long delay = getResetDelay(response);
+            if (delay > 0){
+                LOGGER.info("Gitlab API rate limit is exhausted, requests are paused for {} ms.", delay);
+                pause(delay);
+            }
+        }
+    }
+
+    /**
+     * Get delay before retry of a failed request.
+     *
+     * @param e request exception
+     * @param attempt number of the failed attempt, starting from {@code 0}
+     * @return delay in milliseconds or {@code -1} if the request must not be retried
+     */
+    public long getRetryDelay(ApiConnectorException e, int attempt) {
+        int code = e.getCode();
+        if (attempt >= retries || (code != TOO_MANY_REQUESTS && code < 500)){
+            return -1;
+        }
+        ApiResponse<String> response = e.getResponse();
+        long delay = getRetryAfter(response.getHeader(HEADER_RETRY_AFTER));
+        if (delay < 0 && code == TOO_MANY_REQUESTS){
+            delay = getResetDelay(response);
+        }
+        if (delay < 0){
+            //Exponential backoff with jitter: from half to full delay
+            long max = Math.min(MAX_DELAY, backoff << Math.min(attempt, 20));
+            delay = max / 2 + ThreadLocalRandom.current().nextLong(max / 2 + 1);
+        }
+        if (code == TOO_MANY_REQUESTS){
+            //Other requests would be rejected too
+            pause(delay);
+        }
+        return delay;
+    }
+
+    /**
+     * Send request, wait for the scheduler before each attempt and retry it if needed.
+     *
+     * @param request request
+     * @param <T> type of response body
+     * @return API response
+     * @throws ApiConnectorException if exception occurs during communicating with API and retries are exhausted
+     */
+    public <T> ApiResponse<T> call(Request<T> request) throws ApiConnectorException {
+        for (int attempt = 0; ; attempt++){
+            try {
+                acquire();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new ApiConnectorException("Gitlab API request was interrupted.");
+            }
+            try {
+                ApiResponse<T> response = request.send();
+                onResponse(response);
+                return response;
+            } catch (ApiConnectorException e){
+                long delay = getRetryDelay(e, attempt);
+                if (delay < 0){
+                    throw e;
+                }
+                retried.incrementAndGet();
+                LOGGER.warn("Gitlab API request will be retried in {} ms : {}", delay, e.getMessage());
+                try {
+                    throttled.addAndGet(TimeUnit.MILLISECONDS.toNanos(delay));
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie){
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Send asynchronous request, wait for the scheduler before each attempt and retry it if needed.
+     * The calling thread waits for the scheduler before the first attempt. Retries are not blocked: they are
+     * scheduled on the retry timer after the backoff and then after the wait reserved in the scheduler.
+     *
+     * @param request asynchronous request
+     * @param <T> type of response body
+     * @return future of API response, completed exceptionally if retries are exhausted
+     */
+    public <T> CompletableFuture<ApiResponse<T>> callAsync(AsyncRequest<T> request) {
+        CompletableFuture<ApiResponse<T>> result = new CompletableFuture<>();
+        try {
+            acquire();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(new ApiConnectorException("Gitlab API request was interrupted."));
+            return result;
+        }
+        send(request, 0, result);
+        return result;
+    }
+
+    /**
+     * Retry asynchronous request. The timer thread is shared by all retries, so it does not wait for the scheduler:
+     * the request is scheduled once more if it may not be sent now.
+     */
+    private <T> void retry(AsyncRequest<T> request, int attempt, CompletableFuture<ApiResponse<T>> result) {
+        long wait = reserve();
+        if (wait > 0){
+            getTimer().schedule(() -> send(request, attempt, result), wait, TimeUnit.NANOSECONDS);
+        } else {
+            send(request, attempt, result);
+        }
+    }
+
+    private <T> void send(AsyncRequest<T> request, int attempt, CompletableFuture<ApiResponse<T>> result) {
+        CompletableFuture<ApiResponse<T>> sent;
+        try {
+            sent = request.send();
+        } catch (RuntimeException e){
+            result.completeExceptionally(e);
+            return;
+        }
+        sent.whenComplete((response, error) -> {
+            if (error == null){
+                onResponse(response);
+                result.complete(response);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            long delay = cause instanceof ApiConnectorException ? getRetryDelay((ApiConnectorException) cause, attempt) : -1;
+            if (delay < 0){
+                result.completeExceptionally(cause);
+                return;
+            }
+            retried.incrementAndGet();
+            throttled.addAndGet(TimeUnit.MILLISECONDS.toNanos(delay));
+            LOGGER.warn("Gitlab API request will be retried in {} ms : {}", delay, cause.getMessage());
+            getTimer().schedule(() -> retry(request, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private ScheduledExecutorService getTimer() {
+        ScheduledExecutorService result = timer;
+        if (result == null){
+            synchronized (this){
+                result = timer;
+                if (result == null){
+                    result = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "gitlab-api-retry");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    timer = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get delay from {@code Retry-After} header value.
+     *
+     * @param value number of seconds or HTTP date
+     * @return delay in milliseconds or {@code -1} if value is empty or invalid
+     */
+    protected static long getRetryAfter(String value) {
+        if (value == null || value.trim().isEmpty()){
+            return -1;
+        }
+        try {
+            return Math.min(MAX_DELAY, Math.max(0, Long.parseLong(value.trim()) * 1000));
+        } catch (NumberFormatException e){
+            try {
+                long millis = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return Math.min(MAX_DELAY, Math.max(0, millis - System.currentTimeMillis()));
+            } catch (DateTimeParseException ignored){
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Get delay until rate limit window is reset.
+     *
+     * @param response Gitlab API response
+     * @return delay in milliseconds or {@code -1} if there is no {@code RateLimit-Reset} header
+     */
+    protected static long getResetDelay(ApiResponse<?> response) {
+        String value = response.getHeader(HEADER_RESET);
+        if (value == null){
+            return -1;
+        }
+        try {
+            long millis = Long.parseLong(value.trim()) * 1000 - System.currentTimeMillis();
+            return Math.min(MAX_DELAY, Math.max(0, millis));
+        } catch (NumberFormatException e){
+            return -1;
+        }
+    }
+
+    /**
+     * Gitlab API request.
+     *
+     * @param <T> type of response body
+     */
+    @FunctionalInterface
+    public interface Request<T> {
+        ApiResponse<T> send() throws ApiConnectorException;
+    }
+
+    /**
+     * Asynchronous Gitlab API request.
+     *
+     * @param <T> type of response body
+     */
+    @FunctionalInterface
+    public interface AsyncRequest<T> {
+        CompletableFuture<ApiResponse<T>> send();
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.onlycrab.gbu.worker;
+
+/**
+ * Format of the processing result written by {@link ResultWriter}.
+ *
+ * @author Roman Rynkovich
+ */
+public enum ResultFormat {
+    /**
+     * JSON array of answers, the same as the result returned by {@link Worker#processGitUsers()}.
+     */
+    JSON,
+    /**
+     * Newline delimited JSON : one answer per line, each line is a complete JSON object.
+     */
+    NDJSON;
+
+    /**
+     * Get format by name, case-insensitive.
+     *
+     * @param name format name
+     * @return format
+     * @throws IllegalArgumentException if there is no format with such name
+     */
+    public static ResultFormat parse(String name) throws IllegalArgumentException {
+        if (name != null){
+            for (ResultFormat format : values()){
+                if (format.name().equalsIgnoreCase(name.trim())){
+                    return format;
+                }
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown result format <%s>.", name));
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.model.ChangeUserStateAnswer;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes answers of processing one by one, as soon as they are decided, instead of building the whole result in
+ * memory. Each answer is flushed, so the output can be read while users are still processed.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class ResultWriter implements Closeable {
+    /**
+     * Output name meaning standard output instead of a file.
+     */
+    public static final String STDOUT = "stdout";
+
+    private final JsonConverter converter = new JsonConverter();
+    private final Writer writer;
+    private final ResultFormat format;
+    /**
+     * A sign of whether {@link ResultWriter#writer} is closed with this object, standard output is not closed.
+     */
+    private final boolean owned;
+    /**
+     * Writer of JSON array, {@code null} if format is {@link ResultFormat#NDJSON} or array is closed.
+     */
+    private JsonWriter array;
+    private int count;
+
+    /**
+     * Create writer.
+     *
+     * @param writer output
+     * @param format format of the result
+     * @param owned if {@code true} - {@code writer} is closed by {@link ResultWriter#close()}
+     * @throws IOException if an I/O error occurs while starting JSON array
+     */
+    public ResultWriter(Writer writer, ResultFormat format, boolean owned) throws IOException {
+        this.writer = writer;
+        this.format = format;
+        this.owned = owned;
+        if (format == ResultFormat.JSON){
+            array = new JsonWriter(writer);
+            array.beginArray();
+        }
+    }
+
+    /**
+     * Open writer to standard output or to file. File of {@link ResultFormat#JSON} is rewritten, answers in
+     * {@link ResultFormat#NDJSON} are appended to the file, so results of several runs are kept.
+     *
+     * @param output {@link ResultWriter#STDOUT} or path of file
+     * @param format format of the result
+     * @return new writer
+     * @throws IOException if file cant be opened
+     */
+    public static ResultWriter open(String output, ResultFormat format) throws IOException {
+        if (STDOUT.equalsIgnoreCase(output)){
+            return new ResultWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), format, false);
+        }
+        OutputStream stream;
+        try {
+            stream = new FileOutputStream(new File(output), format == ResultFormat.NDJSON);
+        } catch (IOException e){
+            throw new IOException(String.format("Cant open result file <%s> : %s.", output, e.getMessage()));
+        }
+        return new ResultWriter(new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8)), format, true);
+    }
+
+    /**
+     * Write answer and flush output.
+     *
+     * @param answer answer of processing user
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(ChangeUserStateAnswer answer) throws IOException {
+        try {
+            if (format == ResultFormat.JSON){
+                if (array == null){
+                    throw new IOException("JSON array of answers is already closed.");
+                }
+                converter.toJson(answer, array);
+            } else {
+                converter.toJson(answer, new JsonWriter(writer));
+                writer.write('\n');
+            }
+        } catch (JsonIOException e){
+            throw new IOException(e.getMessage(), e);
+        }
+        writer.flush();
+        count++;
+    }
+
+    /**
+     * Get number of written answers.
+     *
+     * @return number of answers
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Close JSON array, flush output and close it, if it is not standard output.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (array != null){
+                array.endArray();
+                array = null;
+                writer.write('\n');
+            }
+            writer.flush();
+        } finally {
+            if (owned){
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.model.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Handler that collects all pages of Gitlab users to one array.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class UserCollector implements UserPageHandler {
+    /**
+     * Collected users.
+     */
+    private final ArrayList<User> users = new ArrayList<>();
+
+    @Override
+    public void onTotal(int total) {
+        users.ensureCapacity(total);
+    }
+
+    @Override
+    public void onPage(User[] page) {
+        if (page != null) {
+            users.ensureCapacity(users.size() + page.length);
+            Collections.addAll(users, page);
+        }
+    }
+
+    /**
+     * Get collected users.
+     *
+     * @return collected users in order of receiving
+     */
+    public User[] toArray() {
+        User[] result = new User[users.size()];
+        return users.toArray(result);
+    }
+
+    /**
+     * Get collected users.
+     *
+     * @return collected users in order of receiving
+     */
+    public List<User> getUsers() {
+        return users;
+    }
+}
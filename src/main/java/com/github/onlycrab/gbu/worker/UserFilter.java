@@ -0,0 +1,189 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.common.StringUtil;
+import com.github.onlycrab.gbu.model.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Filter of Gitlab users by username: exclusions and template. Built once and then applied to each user.
+ * Exclusion is a username, a prefix ending with {@code *} (f.e. {@code bot-*}), or a glob with {@code *} (any
+ * characters) and {@code ?} (one character). Usernames are checked by hash set, prefixes - by the nearest prefix in
+ * sorted set, globs and template - by precompiled patterns.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class UserFilter {
+    /**
+     * Excluded usernames.
+     */
+    private final Set<String> names = new HashSet<>();
+    /**
+     * Excluded prefixes, none of them is a prefix of another one.
+     */
+    private final TreeSet<String> prefixes = new TreeSet<>();
+    /**
+     * Excluded globs joined to one pattern, {@code null} if there are no globs.
+     */
+    private final Pattern globs;
+    /**
+     * Template of processed usernames, {@code null} if all usernames are processed.
+     */
+    private final Pattern template;
+
+    /**
+     * Build filter.
+     *
+     * @param exclude exclusions : usernames, prefixes or globs; empty entries are skipped
+     * @param template regex template for processing usernames, if empty - all usernames match
+     * @throws IllegalArgumentException if template format is invalid
+     */
+    public UserFilter(Collection<String> exclude, String template) throws IllegalArgumentException {
+        StringBuilder globs = new StringBuilder();
+        List<String> allPrefixes = new ArrayList<>();
+        if (exclude != null){
+            for (String entry : exclude){
+                if (entry == null || entry.trim().isEmpty()){
+                    continue;
+                }
+                entry = entry.trim();
+                int wildcard = indexOfWildcard(entry);
+                if (wildcard < 0){
+                    names.add(entry);
+                } else if (wildcard == entry.length() - 1 && entry.charAt(wildcard) == '*'){
+                    allPrefixes.add(entry.substring(0, wildcard));
+                } else {
+                    globs.append(globs.length() == 0 ? "" : "|").append(toRegex(entry));
+                }
+            }
+        }
+        //Prefixes that start with a shorter prefix are redundant, so the nearest lower prefix is the only candidate
+        allPrefixes.sort(null);
+        for (String prefix : allPrefixes){
+            if (prefixes.isEmpty() || !prefix.startsWith(prefixes.last())){
+                prefixes.add(prefix);
+            }
+        }
+        this.globs = globs.length() == 0 ? null : Pattern.compile(globs.toString());
+        if (StringUtil.isEmptyOrNull(template)){
+            this.template = null;
+        } else {
+            try {
+                this.template = Pattern.compile(template);
+            } catch (PatternSyntaxException e){
+                throw new IllegalArgumentException(String.format("Wrong template format : %s.", e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Read exclusions from file : one exclusion per line, empty lines and lines starting with {@code #} are skipped.
+     *
+     * @param file exclusions file in UTF-8
+     * @return exclusions
+     * @throws IOException if file cant be read
+     */
+    public static List<String> readExclude(File file) throws IOException {
+        List<String> exclude = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)){
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")){
+                    exclude.add(line);
+                }
+            }
+        } catch (IOException e){
+            throw new IOException(String.format("Cant read exclude file <%s> : %s.", file, e.getMessage()));
+        }
+        return exclude;
+    }
+
+    /**
+     * Check if user must be processed.
+     *
+     * @param username Gitlab username
+     * @return {@code true} if username is not excluded and matches template
+     */
+    public boolean accept(String username) {
+        return username != null && !isExcluded(username) && (template == null || template.matcher(username).matches());
+    }
+
+    /**
+     * Check if username is excluded.
+     *
+     * @param username Gitlab username
+     * @return {@code true} if username is excluded
+     */
+    public boolean isExcluded(String username) {
+        if (names.contains(username)){
+            return true;
+        }
+        if (!prefixes.isEmpty()){
+            String prefix = prefixes.floor(username);
+            if (prefix != null && username.startsWith(prefix)){
+                return true;
+            }
+        }
+        return globs != null && globs.matcher(username).matches();
+    }
+
+    /**
+     * Remove users that must not be processed.
+     *
+     * @param users Gitlab users
+     * @return users to process, {@code users} itself if all of them are processed
+     */
+    public User[] apply(User[] users) {
+        if (users == null){
+            return new User[0];
+        }
+        List<User> list = new ArrayList<>(users.length);
+        for (User user : users){
+            if (accept(user.getUsername())){
+                list.add(user);
+            }
+        }
+        return list.size() == users.length ? users : list.toArray(new User[0]);
+    }
+
+    private static int indexOfWildcard(String entry) {
+        for (int i = 0; i < entry.length(); i++){
+            char c = entry.charAt(i);
+            if (c == '*' || c == '?'){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String toRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++){
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?'){
+                if (i > start){
+                    sb.append(Pattern.quote(glob.substring(start, i)));
+                }
+                sb.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < glob.length()){
+            sb.append(Pattern.quote(glob.substring(start)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.model.User;
+
+/**
+ * Receiver of Gitlab users, page by page, as they are fetched from API.
+ *
+ * @author Roman Rynkovich
+ * @see GitlabApi#getAllGitUsers(UserPageHandler)
+ */
+public interface UserPageHandler {
+    /**
+     * Called before the first page if Gitlab returned total number of users.
+     *
+     * @param total total number of users
+     */
+    default void onTotal(int total) { }
+
+    /**
+     * Called for each non-empty page, in page order.
+     *
+     * @param users users of the page
+     */
+    void onPage(User[] users);
+}
@@ -0,0 +1,126 @@
+package com.github.onlycrab.gbu.worker;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Filters of the Gitlab users list that are applied by Gitlab itself.
+ * Gitlab ignores unknown filters, so older versions return more users than requested; results must be filtered
+ * locally anyway.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+@Getter
+@Setter
+public class UserQuery {
+    /**
+     * Only users with state {@code active} ({@code active=true}).
+     */
+    private boolean active;
+    /**
+     * Only users with state {@code blocked} ({@code blocked=true}).
+     */
+    private boolean blocked;
+    /**
+     * Only users with identity of this provider and {@link UserQuery#externUid}, f.e. {@code ldapmain}.
+     */
+    private String provider;
+    /**
+     * Only users with identity of {@link UserQuery#provider} and this extern UID.
+     */
+    private String externUid;
+    /**
+     * Only user with this username.
+     */
+    private String username;
+    /**
+     * Exclude internal users like {@code ghost} or {@code support-bot} ({@code exclude_internal=true}).
+     */
+    private boolean excludeInternal;
+    /**
+     * Exclude project bot users ({@code without_project_bots=true}).
+     */
+    private boolean withoutProjectBots;
+    /**
+     * Only regular users, without any bots ({@code humans=true}).
+     */
+    private boolean humans;
+    /**
+     * Only users created after this time, ISO 8601 ({@code created_after}), f.e. {@code 2024-01-31T10:00:00Z}.
+     */
+    private String createdAfter;
+
+    /**
+     * Copy filters.
+     *
+     * @return new query with the same filters
+     */
+    public UserQuery copy() {
+        UserQuery copy = new UserQuery();
+        copy.active = active;
+        copy.blocked = blocked;
+        copy.provider = provider;
+        copy.externUid = externUid;
+        copy.username = username;
+        copy.excludeInternal = excludeInternal;
+        copy.withoutProjectBots = withoutProjectBots;
+        copy.humans = humans;
+        copy.createdAfter = createdAfter;
+        return copy;
+    }
+
+    /**
+     * Check if no filter is set.
+     *
+     * @return {@code true} if no filter is set
+     */
+    public boolean isEmpty() {
+        return toQuery().isEmpty();
+    }
+
+    /**
+     * Get query parameters for Gitlab users API.
+     *
+     * @return query parameters, each one starting with {@code &}, or empty string if no filter is set
+     */
+    public String toQuery() {
+        StringBuilder sb = new StringBuilder();
+        if (active) {
+            sb.append("&active=true");
+        }
+        if (blocked) {
+            sb.append("&blocked=true");
+        }
+        if (provider != null && externUid != null) {
+            sb.append("&provider=").append(encode(provider)).append("&extern_uid=").append(encode(externUid));
+        }
+        if (username != null) {
+            sb.append("&username=").append(encode(username));
+        }
+        if (excludeInternal) {
+            sb.append("&exclude_internal=true");
+        }
+        if (withoutProjectBots) {
+            sb.append("&without_project_bots=true");
+        }
+        if (humans) {
+            sb.append("&humans=true");
+        }
+        if (createdAfter != null) {
+            sb.append("&created_after=").append(encode(createdAfter));
+        }
+        return sb.toString();
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.exception.LdapException;
+import com.github.onlycrab.gbu.model.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handler that selects Gitlab users to process in one pass, page by page as they are fetched: user must pass
+ * {@link UserFilter} and, if {@link DomainMatcher} is set, must have identity in accepted AD domain. Only selected
+ * users and their usernames, which are the keys of AD lookup, are kept, so pages of skipped users are not held in
+ * memory and no intermediate arrays are created. In compact mode selected users are kept in {@link UserTable}.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class UserSelector implements UserPageHandler {
+    /**
+     * Filter of exclusions and template, {@code null} if all users pass.
+     */
+    private final UserFilter filter;
+    /**
+     * Matcher of identities, {@code null} if users without identity are processed too.
+     */
+    private final DomainMatcher matcher;
+    /**
+     * Selected users, {@code null} in compact mode.
+     */
+    private final ArrayList<User> users;
+    private final ArrayList<String> usernames;
+    /**
+     * Selected users in compact mode, {@code null} otherwise.
+     */
+    private final UserTable table;
+    /**
+     * Number of received users, including skipped ones.
+     */
+    private int received;
+    /**
+     * The first error of identity check, users are not selected after it.
+     */
+    private LdapException failure;
+
+    /**
+     * Create selector keeping selected users as they are.
+     *
+     * @param filter filter of exclusions and template, {@code null} if all users pass
+     * @param matcher matcher of identities; if {@code null} - users without identity in accepted domain are
+     *                selected too
+     */
+    public UserSelector(UserFilter filter, DomainMatcher matcher) {
+        this(filter, matcher, false);
+    }
+
+    /**
+     * Create selector.
+     *
+     * @param filter filter of exclusions and template, {@code null} if all users pass
+     * @param matcher matcher of identities; if {@code null} - users without identity in accepted domain are
+     *                selected too
+     * @param compact if {@code true} - only ID, username and state of selected users are kept, see {@link UserTable}
+     */
+    public UserSelector(UserFilter filter, DomainMatcher matcher, boolean compact) {
+        this.filter = filter;
+        this.matcher = matcher;
+        if (compact){
+            users = null;
+            usernames = null;
+            table = new UserTable();
+        } else {
+            users = new ArrayList<>();
+            usernames = new ArrayList<>();
+            table = null;
+        }
+    }
+
+    @Override
+    public void onTotal(int total) {
+        if (table != null){
+            table.ensureCapacity(total);
+        } else {
+            users.ensureCapacity(total);
+            usernames.ensureCapacity(total);
+        }
+    }
+
+    @Override
+    public void onPage(User[] page) {
+        if (page == null){
+            return;
+        }
+        for (User user : page){
+            received++;
+            if (failure != null){
+                continue;
+            }
+            try {
+                if (select(user)){
+                    add(user);
+                }
+            } catch (LdapException e){
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Add user that was already selected, f.e. by the previous run.
+     *
+     * @param user Gitlab user
+     */
+    public void add(User user) {
+        if (table != null){
+            table.add(user);
+        } else {
+            users.add(user);
+            usernames.add(user.getUsername());
+        }
+    }
+
+    /**
+     * Add user that was already selected, f.e. by the previous run. User object is not created in compact mode.
+     * Identities of such user are not known and are {@code null}.
+     *
+     * @param id Gitlab user ID
+     * @param username Gitlab username
+     * @param state Gitlab user state
+     */
+    public void add(long id, String username, String state) {
+        if (table != null){
+            table.add(id, username, state);
+        } else {
+            add(new User(id, username, state, null));
+        }
+    }
+
+    /**
+     * Check that all received users were checked.
+     *
+     * @throws LdapException if an error occurred while extracting a domain from identity, users received after the
+     *                       error are not selected
+     */
+    public void check() throws LdapException {
+        if (failure != null){
+            throw failure;
+        }
+    }
+
+    /**
+     * Get number of selected users.
+     *
+     * @return number of users
+     */
+    public int size() {
+        return table != null ? table.size() : users.size();
+    }
+
+    /**
+     * Get selected user.
+     *
+     * @param index index of user, from {@code 0} to {@link UserSelector#size()}
+     * @return user; in compact mode - new user object without identities
+     */
+    public User getUser(int index) {
+        return table != null ? table.getUser(index) : users.get(index);
+    }
+
+    public long getId(int index) {
+        return table != null ? table.getId(index) : users.get(index).getId();
+    }
+
+    public String getUsername(int index) {
+        return table != null ? table.getUsername(index) : users.get(index).getUsername();
+    }
+
+    public String getState(int index) {
+        return table != null ? table.getState(index) : users.get(index).getState();
+    }
+
+    /**
+     * Get selected users.
+     *
+     * @return selected users in order of receiving; in compact mode - new user objects without identities
+     * @throws LdapException if an error occurred while extracting a domain from identity
+     */
+    public List<User> getUsers() throws LdapException {
+        check();
+        int size = size();
+        if (table == null){
+            return users;
+        }
+        List<User> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++){
+            list.add(table.getUser(i));
+        }
+        return list;
+    }
+
+    /**
+     * Get usernames of selected users.
+     *
+     * @return usernames in order of {@link UserSelector#getUsers()}
+     */
+    public String[] getUsernames() {
+        return table != null ? table.getUsernames() : usernames.toArray(new String[0]);
+    }
+
+    /**
+     * Get number of received users, including skipped ones.
+     *
+     * @return number of users
+     */
+    public int getReceived() {
+        return received;
+    }
+
+    private boolean select(User user) throws LdapException {
+        if (filter != null && !filter.accept(user.getUsername())){
+            return false;
+        }
+        return matcher == null || matcher.hasIdentity(user);
+    }
+}
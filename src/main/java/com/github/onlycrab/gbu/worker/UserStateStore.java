@@ -0,0 +1,346 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.model.AccountState;
+import com.github.onlycrab.gbu.model.UserStatus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local store of the last known status of Gitlab users and their AD accounts, see {@link UserStatus}.
+ * Statuses are kept in memory and in a binary append-only log: each changed status is appended as a record, the last
+ * record of user wins. Log is rewritten with only the current statuses by {@link UserStateStore#compact()}.
+ * Incomplete record at the end of the log (process was killed while writing) is dropped.
+ * Log format: header {@code int magic, int version}, then records
+ * {@code long id, UTF username, UTF gitState, byte adState, long updated, int flips, long flipsSince}, where
+ * {@code adState} is {@code 0} if AD account was not found, otherwise {@link AccountState} ordinal plus one.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class UserStateStore implements Closeable {
+    private static final Logger LOGGER = LogManager.getLogger(UserStateStore.class);
+    private static final int MAGIC = 0x47425553;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    /**
+     * Minimum number of records in the log before it is worth compacting.
+     */
+    private static final int COMPACT_MIN = 1024;
+
+    private final File file;
+    /**
+     * Statuses, key - Gitlab user ID.
+     */
+    private final Map<Long, UserStatus> byId = new HashMap<>();
+    /**
+     * Statuses, key - Gitlab username.
+     */
+    private final Map<String, UserStatus> byName = new HashMap<>();
+    /**
+     * Number of records in the log, including overwritten ones.
+     */
+    private int records;
+    /**
+     * Stream appending records to the log, opened on the first write.
+     */
+    private DataOutputStream out;
+
+    private UserStateStore(File file) {
+        this.file = file.getAbsoluteFile();
+    }
+
+    /**
+     * Open store and read its log.
+     *
+     * @param file log file, created on the first write if it does not exist
+     * @return store
+     * @throws IOException if file cant be read or it is not a store log
+     */
+    public static UserStateStore open(File file) throws IOException {
+        UserStateStore store = new UserStateStore(file);
+        if (file.exists()){
+            store.read();
+        }
+        return store;
+    }
+
+    /**
+     * Get status of user.
+     *
+     * @param id Gitlab user ID
+     * @return status or {@code null} if user is unknown
+     */
+    public synchronized UserStatus get(long id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Find status of user by name.
+     *
+     * @param username Gitlab username
+     * @return status or {@code null} if user is unknown
+     */
+    public synchronized UserStatus find(String username) {
+        return byName.get(username);
+    }
+
+    /**
+     * Get number of users.
+     *
+     * @return number of users
+     */
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    /**
+     * Get number of records in the log, including overwritten ones.
+     *
+     * @return number of records
+     */
+    public synchronized int getRecords() {
+        return records;
+    }
+
+    /**
+     * Save status of user. Status is appended to the log only if it differs from the stored one not only by time of
+     * observation.
+     *
+     * @param status user status
+     * @return {@code true} if status was changed
+     * @throws IOException if status cant be written
+     */
+    public synchronized boolean put(UserStatus status) throws IOException {
+        UserStatus previous = byId.get(status.getId());
+        if (status.isSame(previous)){
+            return false;
+        }
+        if (out == null){
+            out = openAppend();
+        }
+        write(out, status);
+        records++;
+        index(status);
+        return true;
+    }
+
+    /**
+     * Remove users that are not in the set, f.e. removed from Gitlab. Log is not changed until
+     * {@link UserStateStore#compact()}.
+     *
+     * @param ids Gitlab user IDs to keep
+     */
+    public synchronized void retain(Set<Long> ids) {
+        Iterator<UserStatus> it = byId.values().iterator();
+        while (it.hasNext()){
+            UserStatus status = it.next();
+            if (!ids.contains(status.getId())){
+                it.remove();
+                byName.remove(status.getUsername(), status);
+            }
+        }
+    }
+
+    /**
+     * Check if the log has much more records than users, so it should be compacted.
+     *
+     * @return {@code true} if compaction is worth
+     */
+    public synchronized boolean isCompactionDue() {
+        return records > Math.max(COMPACT_MIN, byId.size() * 2);
+    }
+
+    /**
+     * Rewrite the log with only the current statuses. Log is replaced at once, so it is not corrupted if the process
+     * is killed.
+     *
+     * @throws IOException if the log cant be written
+     */
+    public synchronized void compact() throws IOException {
+        closeAppend();
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream temporary = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))){
+            writeHeader(temporary);
+            for (UserStatus status : byId.values()){
+                write(temporary, status);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        records = byId.size();
+    }
+
+    /**
+     * Get all statuses.
+     *
+     * @return copy of statuses
+     */
+    public synchronized Collection<UserStatus> getAll() {
+        return new ArrayList<>(byId.values());
+    }
+
+    /**
+     * Write appended records to the log.
+     *
+     * @throws IOException if records cant be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closeAppend();
+    }
+
+    private void index(UserStatus status) {
+        UserStatus previous = byId.put(status.getId(), status);
+        if (previous != null){
+            byName.remove(previous.getUsername(), previous);
+        }
+        if (status.getUsername() != null){
+            byName.put(status.getUsername(), status);
+        }
+    }
+
+    /**
+     * Read the log. Incomplete record at the end is dropped and the log is cut to the last complete record; if the header
+     * is incomplete, the log is cut to zero and the header is written again on the first write.
+     *
+     * @throws IOException if the log cant be read or has wrong header
+     */
+    private void read() throws IOException {
+        long valid = 0;
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))){
+            DataInputStream in = new DataInputStream(counter);
+            try {
+                if (in.readInt() != MAGIC){
+                    throw new IOException(String.format("File <%s> is not a user state store.", file));
+                }
+                int version = in.readInt();
+                if (version != VERSION){
+                    throw new IOException(String.format("Unsupported version %s of user state store <%s>.", version, file));
+                }
+                valid = counter.count;
+                while (true){
+                    UserStatus status = read(in);
+                    valid = counter.count;
+                    records++;
+                    index(status);
+                }
+            } catch (EOFException e){
+                if (counter.count == valid){
+                    return;
+                }
+            }
+        }
+        LOGGER.warn("User state store <{}> has incomplete {} at the end, it is dropped.", file, valid == 0 ? "header" : "record");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)){
+            channel.truncate(valid);
+        }
+    }
+
+    private DataOutputStream openAppend() throws IOException {
+        boolean created = !file.exists() || file.length() < HEADER_SIZE;
+        OutputStream stream = new FileOutputStream(file, !created);
+        DataOutputStream append = new DataOutputStream(new BufferedOutputStream(stream));
+        if (created){
+            writeHeader(append);
+        }
+        return append;
+    }
+
+    private void closeAppend() throws IOException {
+        if (out != null){
+            try {
+                out.close();
+            } finally {
+                out = null;
+            }
+        }
+    }
+
+    private static void writeHeader(DataOutputStream stream) throws IOException {
+        stream.writeInt(MAGIC);
+        stream.writeInt(VERSION);
+    }
+
+    private static void write(DataOutputStream stream, UserStatus status) throws IOException {
+        stream.writeLong(status.getId());
+        stream.writeUTF(status.getUsername() == null ? "" : status.getUsername());
+        stream.writeUTF(status.getGitState() == null ? "" : status.getGitState());
+        stream.writeByte(status.getAdState() == null ? 0 : status.getAdState().ordinal() + 1);
+        stream.writeLong(status.getUpdated());
+        stream.writeInt(status.getFlips());
+        stream.writeLong(status.getFlipsSince());
+    }
+
+    private UserStatus read(DataInputStream in) throws IOException {
+        UserStatus status = new UserStatus();
+        status.setId(in.readLong());
+        status.setUsername(emptyToNull(in.readUTF()));
+        status.setGitState(emptyToNull(in.readUTF()));
+        int state = in.readUnsignedByte();
+        if (state > AccountState.values().length){
+            throw new IOException(String.format("Wrong AD state %s of user %s in user state store <%s>.", state, status.getId(), file));
+        }
+        status.setAdState(state == 0 ? null : AccountState.values()[state - 1]);
+        status.setUpdated(in.readLong());
+        status.setFlips(in.readInt());
+        status.setFlipsSince(in.readLong());
+        return status;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Stream that counts bytes read, so the end of the last complete record is known.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0){
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0){
+                count += n;
+            }
+            return n;
+        }
+    }
+}
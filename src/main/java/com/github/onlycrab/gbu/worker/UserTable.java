@@ -0,0 +1,144 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.model.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact table of Gitlab users, column by column : ID, username and state code. Holds only what is needed to
+ * compare users with AD, without {@link User} objects and their identities, so large instances fit in a small heap.
+ * States are kept as codes of a small dictionary, so equal state strings are stored once.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class UserTable {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private long[] ids;
+    private String[] usernames;
+    private byte[] states;
+    /**
+     * Dictionary of states, the code of state is its index.
+     */
+    private final List<String> stateNames = new ArrayList<>();
+    private int size;
+
+    /**
+     * Create empty table.
+     */
+    public UserTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create empty table.
+     *
+     * @param capacity expected number of users
+     */
+    public UserTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        ids = new long[capacity];
+        usernames = new String[capacity];
+        states = new byte[capacity];
+    }
+
+    /**
+     * Add user.
+     *
+     * @param id Gitlab user ID
+     * @param username Gitlab username
+     * @param state Gitlab user state, f.e. {@code active}
+     * @throws IllegalStateException if there are too many different states
+     */
+    public void add(long id, String username, String state) throws IllegalStateException {
+        ensureCapacity(size + 1);
+        ids[size] = id;
+        usernames[size] = username;
+        states[size] = stateCode(state);
+        size++;
+    }
+
+    /**
+     * Add user, identities are not kept.
+     *
+     * @param user Gitlab user
+     * @throws IllegalStateException if there are too many different states
+     */
+    public void add(User user) throws IllegalStateException {
+        add(user.getId(), user.getUsername(), user.getState());
+    }
+
+    /**
+     * Increase capacity of the table, so at least {@code capacity} users are added without copying columns.
+     *
+     * @param capacity expected number of users
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= ids.length){
+            return;
+        }
+        int length = Math.max(capacity, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, length);
+        usernames = Arrays.copyOf(usernames, length);
+        states = Arrays.copyOf(states, length);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getId(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    public String getUsername(int index) {
+        checkIndex(index);
+        return usernames[index];
+    }
+
+    public String getState(int index) {
+        checkIndex(index);
+        return stateNames.get(states[index]);
+    }
+
+    /**
+     * Build user object, f.e. for the result of processing.
+     *
+     * @param index index of user
+     * @return new user, identities are not kept and are {@code null}
+     */
+    public User getUser(int index) {
+        return new User(getId(index), getUsername(index), getState(index), null);
+    }
+
+    /**
+     * Get usernames of all users.
+     *
+     * @return usernames in order of adding
+     */
+    public String[] getUsernames() {
+        return Arrays.copyOf(usernames, size);
+    }
+
+    private byte stateCode(String state) throws IllegalStateException {
+        int code = stateNames.indexOf(state);
+        if (code < 0){
+            if (stateNames.size() > Byte.MAX_VALUE){
+                throw new IllegalStateException(String.format("Too many Gitlab user states, <%s> cant be added.", state));
+            }
+            stateNames.add(state);
+            code = stateNames.size() - 1;
+        }
+        return (byte) code;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size){
+            throw new IndexOutOfBoundsException(String.format("Index %s is out of table size %s.", index, size));
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.github.onlycrab.gbu.worker;
 
 import com.github.onlycrab.common.ISUtil;
 import com.github.onlycrab.common.StringUtil;
+import com.github.onlycrab.gbu.connector.ConnectorFactory;
 import com.github.onlycrab.gbu.exception.ApiConnectorException;
 import com.github.onlycrab.gbu.exception.JsonConverterException;
 import com.github.onlycrab.gbu.exception.LdapException;
@@ -14,8 +15,13 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
 /**
  * The central class that does all the work. All arguments received from the console must be passed here. This is
@@ -32,6 +38,18 @@ public class Worker {
      */
     private static final String USER_ACTIVE = "active";
     private static final String USER_BLOCKED = "blocked";
+    /**
+     * Default period of full resync in incremental mode: one day.
+     */
+    public static final long DEFAULT_FULL_RESYNC = 24 * 60 * 60 * 1000L;
+    /**
+     * Period during which AD account state changes are counted to detect flapping accounts: one day.
+     */
+    public static final long FLAP_WINDOW = 24 * 60 * 60 * 1000L;
+    /**
+     * Overlap of incremental Gitlab users scans, so users are not missed because of clock difference: one hour.
+     */
+    public static final long SCAN_OVERLAP = 60 * 60 * 1000L;
     /**
      * Object for interaction with Gitlab API.
      */
@@ -44,20 +62,110 @@ public class Worker {
      * Gitlab username exclusions. These names will not be processed.
      */
     private String[] usernameExclude;
+    /**
+     * Gitlab username exclusions read from file.
+     */
+    private List<String> fileExclude;
     /**
      * Only users whose names match the pattern will be processed.
      */
     private String template;
+    /**
+     * Filter built from exclusions and template on the first use, {@code null} if it must be built again.
+     */
+    private UserFilter userFilter;
     /**
      * A sign of whether it is necessary to process Gitlab users by their ID, even if they do not have an AD binding.
      */
     private boolean withIdentities;
+    /**
+     * AD domains of identities accepted in addition to the domain of search point, f.e. of other forests.
+     */
+    private List<String> identityDomains;
+    /**
+     * Accepted identity providers, {@code null} if identities of any provider are accepted.
+     */
+    private List<String> identityProviders;
+    /**
+     * Matcher built from domains and providers on the first use, {@code null} if it must be built again.
+     */
+    private DomainMatcher domainMatcher;
+    /**
+     * A sign of whether selected users are kept in {@link UserTable}, without identities.
+     */
+    private boolean compactUsers;
+    /**
+     * Output of answers written one by one : {@link ResultWriter#STDOUT} or file, {@code null} if answers are
+     * returned by {@link Worker#processGitUsers()} as one string.
+     */
+    private String resultOutput;
+    private ResultFormat resultFormat = ResultFormat.JSON;
+    /**
+     * Writer of answers opened by the current run, {@code null} if answers are returned as one string.
+     */
+    private ResultWriter resultWriter;
+    /**
+     * Answers of the current run returned as one string, {@code null} if they are written by
+     * {@link Worker#resultWriter}.
+     */
+    private List<ChangeUserStateAnswer> answers;
+    /**
+     * Sign that state of at least one Gitlab user was not changed by the current run.
+     */
+    private boolean failed;
+    /**
+     * The first error of writing an answer by the current run, answers are not written after it.
+     */
+    private JsonConverterException writeError;
+    /**
+     * Number of user statuses changed in {@link Worker#stateStore} by the current reconciliation.
+     */
+    private int statusesChanged;
     /**
      * Sign of production mode. If {@code true} - Gitlab users will be locked or unlocked depending on their status in
      * AD. If {@code false} - the state of Gitlab users will not be changed, only a record will be created in the log
      * that the user state in Gitlab and AD is different.
      */
     private boolean prodMode;
+    /**
+     * A sign of whether filters that do not change the result should be applied by Gitlab, so that users which
+     * will be skipped anyway are not downloaded.
+     */
+    private boolean serverFilter = true;
+    /**
+     * Number of Gitlab users whose state is changed concurrently. If {@code 1} - one after another.
+     */
+    private int stateThreads = 1;
+    /**
+     * Gitlab web certificate, {@code null} if any certificate is trusted.
+     */
+    private byte[] certificate;
+    /**
+     * File of AD change tracking watermark, {@code null} if each run checks all users.
+     */
+    private File watermarkFile;
+    /**
+     * Period of full resync in incremental mode, in milliseconds.
+     */
+    private long fullResync = DEFAULT_FULL_RESYNC;
+    /**
+     * File of the last known status of users, {@code null} if statuses are not stored.
+     */
+    private File stateFile;
+    /**
+     * Maximum number of AD account state changes during {@link Worker#FLAP_WINDOW}, state of Gitlab user whose AD
+     * account changes more often is not changed. If {@code 0} - there is no limit.
+     */
+    private int flapLimit;
+    /**
+     * Period of full scan of Gitlab users in incremental mode, in milliseconds. If {@code 0} - all Gitlab users are
+     * requested on each full resync.
+     */
+    private long gitlabFullScan;
+    /**
+     * Store of the last known status of users opened by the current run, {@code null} if statuses are not stored.
+     */
+    private UserStateStore stateStore;
 
     protected void setGitlabApi(GitlabApi gitlabApi){
         this.gitlabApi = gitlabApi;
@@ -65,23 +173,291 @@ public class Worker {
 
     protected void setLdapSearcher(LdapSearcher ldapSearcher){
         this.ldapSearcher = ldapSearcher;
+        domainMatcher = null;
     }
 
     protected void setUsernameExclude(String[] usernameExclude) {
         this.usernameExclude = usernameExclude;
+        userFilter = null;
     }
 
     @SuppressWarnings("SameParameterValue")
-    protected void setTemplate(String template) { this.template = template; }
+    protected void setTemplate(String template) {
+        this.template = template;
+        userFilter = null;
+    }
+
+    /**
+     * Read Gitlab username exclusions from file, in addition to the ones passed to constructor.
+     * File has one exclusion per line : username, prefix ending with {@code *} or glob with {@code *} and {@code ?};
+     * empty lines and lines starting with {@code #} are skipped.
+     *
+     * @param path exclusions file, if empty - exclusions are not read
+     * @throws IOException if file cant be read
+     */
+    public void setExcludeFile(String path) throws IOException {
+        fileExclude = StringUtil.isEmptyOrNull(path) ? null : UserFilter.readExclude(new File(path));
+        userFilter = null;
+    }
 
     protected void setWithIdentities(boolean withIdentities) {
         this.withIdentities = withIdentities;
     }
 
+    /**
+     * Set AD domains of identities accepted in addition to the domain of search point.
+     *
+     * @param domains domains separated by {@code ;}, f.e. {@code dc=other,dc=com;dc=third,dc=com}
+     */
+    public void setIdentityDomains(String domains) {
+        identityDomains = StringUtil.isEmptyOrNull(domains) ? null : Arrays.asList(domains.split(";"));
+        domainMatcher = null;
+    }
+
+    /**
+     * Keep selected Gitlab users in compact table : only ID, username and state, so large instances fit in a small
+     * heap. Users in the result have no identities.
+     *
+     * @param compactUsers if {@code true} - users are kept in {@link UserTable}
+     */
+    public void setCompactUsers(boolean compactUsers) {
+        this.compactUsers = compactUsers;
+    }
+
+    /**
+     * Write answers one by one, as soon as they are decided, instead of returning them as one string.
+     *
+     * @param output {@link ResultWriter#STDOUT} or path of file; if empty - answers are returned as one string
+     * @param format format of answers
+     */
+    public void setResultOutput(String output, ResultFormat format) {
+        resultOutput = StringUtil.isEmptyOrNull(output) ? null : output;
+        if (format != null){
+            resultFormat = format;
+        }
+    }
+
+    /**
+     * Set accepted identity providers.
+     *
+     * @param providers providers separated by comma, f.e. {@code ldapmain,ldapsecondary}; if empty - identities of
+     *                  any provider are accepted
+     */
+    public void setIdentityProviders(String providers) {
+        identityProviders = StringUtil.isEmptyOrNull(providers) ? null : Arrays.asList(providers.split(","));
+        domainMatcher = null;
+    }
+
     protected void setProdMode(boolean prodMode) {
         this.prodMode = prodMode;
     }
 
+    /**
+     * Set whether filters that do not change the result should be applied by Gitlab.
+     *
+     * @param serverFilter if {@code true} - filters are sent to Gitlab and applied locally too
+     */
+    public void setServerFilter(boolean serverFilter) {
+        this.serverFilter = serverFilter;
+    }
+
+    /**
+     * Set connector to Gitlab API.
+     *
+     * @param httpClient if {@code true} - {@code java.net.http.HttpClient} is used if it is available (Java 11 or
+     *                   above), otherwise - {@code java.net.HttpURLConnection}
+     * @throws ApiConnectorException if exception occurs while trusting certificate
+     */
+    public void setHttpClient(boolean httpClient) throws ApiConnectorException {
+        gitlabApi.setConnector(ConnectorFactory.create(httpClient, certificate));
+    }
+
+    /**
+     * Enable incremental mode: only users whose AD account was changed since the previous run are checked.
+     * Position of change tracking is stored in {@code path} between runs.
+     *
+     * @param path watermark file, if empty - all users are checked on each run
+     */
+    public void setWatermarkFile(String path) {
+        watermarkFile = StringUtil.isEmptyOrNull(path) ? null : new File(path);
+    }
+
+    /**
+     * Set method of tracking AD changes in incremental mode.
+     *
+     * @param changeTracking change tracking method
+     */
+    public void setChangeTracking(ChangeTracking changeTracking) {
+        ldapSearcher.setChangeTracking(changeTracking);
+    }
+
+    /**
+     * Set period of full resync in incremental mode: all users are checked if the last full resync was this period
+     * ago, so changes of Gitlab users and missed AD changes are processed too.
+     *
+     * @param hours period in hours, {@code 0} means all users are checked on each run
+     */
+    public void setFullResync(int hours) {
+        if (hours >= 0){
+            fullResync = hours * 60 * 60 * 1000L;
+        }
+    }
+
+    /**
+     * Enable store of the last known status of users between runs. In incremental mode users found in the store are
+     * not requested from Gitlab.
+     *
+     * @param path store file, if empty - statuses are not stored
+     */
+    public void setStateFile(String path) {
+        stateFile = StringUtil.isEmptyOrNull(path) ? null : new File(path);
+    }
+
+    /**
+     * Set maximum number of AD account state changes during a day, state of Gitlab user whose AD account changes
+     * more often is not changed. Works only with store of user statuses.
+     *
+     * @param flapLimit number of changes, {@code 0} means there is no limit
+     */
+    public void setFlapLimit(int flapLimit) {
+        if (flapLimit >= 0){
+            this.flapLimit = flapLimit;
+        }
+    }
+
+    /**
+     * Set period of full scan of Gitlab users in incremental mode. Between full scans, full resync requests from
+     * Gitlab only users created since the previous scan, other users are taken from the store of user statuses.
+     * Works only with store of user statuses.
+     *
+     * @param hours period in hours, {@code 0} means all Gitlab users are requested on each full resync
+     */
+    public void setGitlabFullScan(int hours) {
+        if (hours >= 0){
+            gitlabFullScan = hours * 60 * 60 * 1000L;
+        }
+    }
+
+    /**
+     * Set number of Gitlab users whose state is changed concurrently.
+     *
+     * @param stateThreads number of simultaneous requests, {@code 1} means one after another
+     */
+    public void setStateThreads(int stateThreads) {
+        if (stateThreads > 0){
+            this.stateThreads = stateThreads;
+        }
+    }
+
+    /**
+     * Set maximum number of requests to Gitlab API per second.
+     *
+     * @param rateLimit number of requests, {@code 0} means no limit
+     */
+    public void setRateLimit(int rateLimit) {
+        gitlabApi.getScheduler().setRate(rateLimit);
+    }
+
+    /**
+     * Set maximum number of retries of Gitlab API request rejected with {@code 429} or {@code 5xx} status.
+     *
+     * @param retries number of retries, {@code 0} means no retries
+     */
+    public void setRetries(int retries) {
+        gitlabApi.getScheduler().setRetries(retries);
+    }
+
+    /**
+     * Set maximum number of users searched in AD by one LDAP filter.
+     *
+     * @param chunkSize number of users, {@code 0} means all users are searched by one filter
+     */
+    public void setLdapChunkSize(int chunkSize) {
+        ldapSearcher.setChunkSize(chunkSize);
+    }
+
+    /**
+     * Set whether AD accounts with LOCKOUT flag are treated as locked.
+     *
+     * @param lockout if {@code true} - users with locked out AD account are blocked too, otherwise - only users
+     *                with disabled AD account
+     */
+    public void setLdapLockout(boolean lockout) {
+        ldapSearcher.setLockout(lockout);
+    }
+
+    /**
+     * Set method of looking up AD accounts of Gitlab users.
+     *
+     * @param lookupMode lookup method
+     */
+    public void setLookupMode(LookupMode lookupMode) {
+        ldapSearcher.setLookupMode(lookupMode);
+    }
+
+    /**
+     * Set number of entries in one page of AD search results.
+     *
+     * @param pageSize number of entries, {@code 0} means results are not paged
+     */
+    public void setLdapPageSize(int pageSize) {
+        ldapSearcher.setPageSize(pageSize);
+    }
+
+    /**
+     * Set number of AD searches executed concurrently.
+     *
+     * @param threads number of searches, {@code 1} means one after another
+     */
+    public void setLdapThreads(int threads) {
+        ldapSearcher.setSearchThreads(threads);
+    }
+
+    /**
+     * Set method of choosing AD domain controller for the next search.
+     *
+     * @param routing routing method
+     */
+    public void setLdapRouting(LdapRouting routing) {
+        ldapSearcher.setRouting(routing);
+    }
+
+    /**
+     * Set idle time of AD connection after which it is checked before use.
+     *
+     * @param seconds time in seconds, {@code 0} means connections are not checked
+     */
+    public void setLdapHealthCheck(int seconds) {
+        ldapSearcher.setHealthCheck(seconds * 1000L);
+    }
+
+    /**
+     * Set number of Gitlab user list pages fetched concurrently.
+     *
+     * @param pageThreads number of threads, {@code 1} means sequential fetching
+     */
+    public void setPageThreads(int pageThreads) {
+        gitlabApi.setPageThreads(pageThreads);
+    }
+
+    /**
+     * Set number of Gitlab users requested per page.
+     *
+     * @param perPage number of users
+     */
+    public void setPerPage(int perPage) {
+        gitlabApi.setPerPage(perPage);
+    }
+
+    /**
+     * Set pagination method for getting the list of Gitlab users.
+     *
+     * @param pagination pagination method
+     */
+    public void setPagination(Pagination pagination) {
+        gitlabApi.setPagination(pagination);
+    }
+
     /**
      * Create new instance.
      *
@@ -92,7 +468,7 @@ public class Worker {
      * @param template regex template for processing usernames
      * @param withIdentities whether to process Gitlab users without binding (identity)
      * @param timeout timeout for API response (milliseconds)
-     * @param provider AD provider string like {@code ldap://server:port}
+     * @param provider AD provider string like {@code ldap://server:port}, or several ones separated by commas
      * @param principal LDAP user
      * @param credentials LDAP password
      * @param searchPoint search node, f.e. {@code ou=Users,ou=MC,dc=mycompany,dc=com}
@@ -118,6 +494,7 @@ public class Worker {
             }
         }
 
+        certificate = cert;
         if (cert != null){
             gitlabApi = new GitlabApi(git, token, cert);
         } else {
@@ -146,113 +523,679 @@ public class Worker {
     /**
      * The method performs a mapping of Gitlab users and AD users, depending on the AD state, blocks or unblocks
      * Gitlab users.
+     * If {@link Worker#watermarkFile} is set, only users whose AD account was changed since the previous run are
+     * checked; all users are checked on the first run and then every {@link Worker#fullResync}.
+     * If {@link Worker#stateFile} is set, statuses of users are stored between runs.
+     * If {@link Worker#resultOutput} is set, answers are written there as soon as they are decided.
      *
-     * @return processing result in JSON format
+     * @return processing result in JSON format, {@code null} if answers are written to {@link Worker#resultOutput}
      * @throws ApiConnectorException if exception occurs while communicating with Gitlab API
      * @throws LdapException if exception occurs while working with LDAP
-     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User};
+     *                                if the result cannot be written
      */
     public String processGitUsers() throws ApiConnectorException, LdapException, JsonConverterException, IllegalArgumentException {
-        User[] users;
-        //Get all Gitlab users
-        users = gitlabApi.getAllGitUsers();
-        //Remove exclude users from processing
-        users = removeExclude(users, usernameExclude);
-        //Remove users whose names do not match the pattern
-        users = applyTemplate(users, template);
-        if (withIdentities){
-            //Remove users who not have AD binding
-            users = removeWithoutIdentities(users);
-        }
-
-        if (users.length == 0){
+        gitlabApi.resetRequestStats();
+        //Skip on Gitlab side users who will be removed anyway
+        gitlabApi.setQuery(buildUserQuery());
+        stateStore = openStateStore();
+        try {
+            resultWriter = openResultWriter();
+            //Answers are kept only if they are returned as one string
+            answers = resultWriter == null ? new ArrayList<>() : null;
+            failed = false;
+            writeError = null;
+            if (watermarkFile == null){
+                processAllUsers(null);
+            } else {
+                processIncremental();
+            }
+            return toJson();
+        } finally {
+            answers = null;
+            //Runs that end early or fail made requests too
+            gitlabApi.logRequestStats();
+            closeResultWriter();
+            closeStateStore();
+        }
+    }
+
+    /**
+     * Check users whose AD account was changed since the previous run, or all users if full resync is due.
+     *
+     * @throws ApiConnectorException if exception occurs while communicating with Gitlab API
+     * @throws LdapException if exception occurs while working with LDAP
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     */
+    private void processIncremental() throws ApiConnectorException, LdapException, JsonConverterException {
+
+        long start = System.currentTimeMillis();
+        ChangeWatermark watermark = loadWatermark();
+        boolean checked = false;
+        if (!watermark.isFullSyncDue(fullResync, start)){
+            Map<String, AccountState> changed = ldapSearcher.getChangedAccountStates(watermark);
+            if (changed != null){
+                processChangedUsers(changed);
+                checked = true;
+            }
+        }
+        if (!checked){
+            LOGGER.info("Full resync of all users.");
+            //Position is read before the lookup, so changes made during the lookup are read by the next run
+            ldapSearcher.markChanges(watermark);
+            processAllUsers(watermark);
+            watermark.setFullSync(start);
+        }
+        //Users whose state was not changed must be checked again by the next run
+        if (failed){
+            LOGGER.warn("Not all Gitlab users were changed, AD change tracking watermark is not saved.");
+        } else {
+            saveWatermark(watermark);
+        }
+    }
+
+    /**
+     * Read AD change tracking watermark from {@link Worker#watermarkFile}.
+     *
+     * @return watermark, empty if file cant be read, so all users are checked
+     */
+    private ChangeWatermark loadWatermark() {
+        try {
+            return ChangeWatermark.load(watermarkFile);
+        } catch (IOException e){
+            LOGGER.warn("Cant read AD change tracking watermark <{}>, all users will be checked : {}", watermarkFile, e.getMessage());
+            return new ChangeWatermark();
+        }
+    }
+
+    private void saveWatermark(ChangeWatermark watermark) {
+        try {
+            watermark.save(watermarkFile);
+        } catch (IOException e){
+            LOGGER.error("Cant save AD change tracking watermark <{}> : {}", watermarkFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Open writer of answers to {@link Worker#resultOutput}.
+     *
+     * @return writer, {@code null} if answers are returned as one string
+     * @throws JsonConverterException if output cant be opened
+     */
+    private ResultWriter openResultWriter() throws JsonConverterException {
+        if (resultOutput == null){
+            return null;
+        }
+        try {
+            return ResultWriter.open(resultOutput, resultFormat);
+        } catch (IOException e){
+            throw new JsonConverterException(String.format("Cant open result output : %s", e.getMessage()));
+        }
+    }
+
+    private void closeResultWriter() {
+        if (resultWriter == null){
+            return;
+        }
+        try {
+            resultWriter.close();
+        } catch (IOException e){
+            LOGGER.error("Cant write result to <{}> : {}", resultOutput, e.getMessage());
+        } finally {
+            resultWriter = null;
+        }
+    }
+
+    /**
+     * Report answer whose result is known : save the new status of user and write the answer to
+     * {@link Worker#resultWriter} at once. Called from completion callbacks of block and unblock requests too, so
+     * answers are written while other requests are running.
+     *
+     * @param answer answer whose result is known
+     * @param status new status of user, {@code null} if statuses are not stored
+     */
+    private synchronized void report(ChangeUserStateAnswer answer, UserStatus status) {
+        if (answer.getResult() == UserChangeStateResult.FAIL){
+            failed = true;
+        }
+        if (status != null){
+            if (answer.getResult() == UserChangeStateResult.SUCCESS){
+                status.setGitState(answer.getToState() == UserChangeState.BLOCK ? USER_BLOCKED : USER_ACTIVE);
+            }
+            storeStatus(status);
+        }
+        if (resultWriter == null || writeError != null){
+            return;
+        }
+        try {
+            resultWriter.write(answer);
+        } catch (IOException e){
+            writeError = new JsonConverterException(String.format("Cant write result to <%s> : %s", resultOutput, e.getMessage()));
+        }
+    }
+
+    /**
+     * Open store of user statuses {@link Worker#stateFile}.
+     *
+     * @return store, {@code null} if statuses are not stored or the store cant be read
+     */
+    private UserStateStore openStateStore() {
+        if (stateFile == null){
+            return null;
+        }
+        try {
+            return UserStateStore.open(stateFile);
+        } catch (IOException e){
+            LOGGER.error("Cant read user state store <{}>, statuses are not stored : {}", stateFile, e.getMessage());
+            return null;
+        }
+    }
+
+    private void closeStateStore() {
+        if (stateStore == null){
+            return;
+        }
+        try {
+            if (stateStore.isCompactionDue()){
+                stateStore.compact();
+            }
+            stateStore.close();
+        } catch (IOException e){
+            LOGGER.error("Cant save user state store <{}> : {}", stateFile, e.getMessage());
+        } finally {
+            stateStore = null;
+        }
+    }
+
+    /**
+     * Check all Gitlab users.
+     *
+     * @param watermark change tracking watermark, {@code null} if each run checks all users
+     * @throws ApiConnectorException if exception occurs while communicating with Gitlab API
+     * @throws LdapException if exception occurs while working with LDAP
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     */
+    private void processAllUsers(ChangeWatermark watermark) throws ApiConnectorException, LdapException, JsonConverterException {
+        //Get all Gitlab users to check, filtered while they are fetched
+        UserSelector users = selectAllGitUsers(watermark);
+        users.check();
+        int size = users.size();
+        if (size == 0){
             LOGGER.info("No one user find to check AD state.");
-            return "[]";
-        }
-        Map<String, Boolean> userLocked;
-        String[] usersArr;
-        //Search users in AD : key - username (id), value - is user exists
-        Map<String, Boolean> userMap = ldapSearcher.isUserExist(getUsername(users));
-        //Remove users that don't exist in AD
-        userMap = removeNonexistentUsers(userMap);
-        if (userMap.size() == 0){
+            return;
+        }
+        if (watermark != null){
+            prepareDirectorySize(watermark, size);
+        }
+        //Search users in AD : key - username (id), value - account state; users that don't exist in AD are missing
+        Map<String, AccountState> accountStates = ldapSearcher.getAccountStates(users.getUsernames());
+        if (watermark != null){
+            watermark.setDirectorySize(ldapSearcher.getDirectorySize());
+        }
+        if (stateStore != null){
+            storeSnapshot(users, accountStates);
+        }
+        if (accountStates.size() == 0){
             StringBuilder sb = new StringBuilder("No AD user found. Search list : ");
-            for (User user : users){
-                sb.append(user.getUsername()).append("; ");
+            for (int i = 0; i < size; i++){
+                sb.append(users.getUsername(i)).append("; ");
             }
             sb.append(".");
             LOGGER.info(sb.toString());
-            return "[]";
+            return;
+        }
+        reconcile(users, accountStates);
+    }
+
+    /**
+     * Make AD directory size known to {@link LdapSearcher}, so it can choose method of looking up account states :
+     * the size measured by the previous run is restored from the watermark, otherwise it is counted once and stored
+     * with the watermark.
+     *
+     * @param watermark change tracking watermark
+     * @param users number of users to look up
+     */
+    private void prepareDirectorySize(ChangeWatermark watermark, int users) {
+        if (ldapSearcher.getDirectorySize() < 0 && watermark.getDirectorySize() >= 0){
+            ldapSearcher.setDirectorySize(watermark.getDirectorySize());
         }
-        //Get array of username fields from map of users
-        usersArr = getUsernameFromMap(userMap);
-        userMap.clear();
+        if (ldapSearcher.isDirectorySizeNeeded(users)){
+            try {
+                ldapSearcher.measureDirectorySize();
+            } catch (LdapException e){
+                LOGGER.warn("Cant count AD users, targeted lookup is used : {}", e.getMessage());
+            }
+        }
+    }
 
-        //Search users in AD : key - username (id), value - is user locked
-        userLocked = ldapSearcher.isUserLocked(usersArr);
+    /**
+     * Select Gitlab users to check. If {@link Worker#gitlabFullScan} is set and full scan is not due, only users
+     * created since the previous scan are requested from Gitlab, other users are taken from
+     * {@link Worker#stateStore}. Users deleted from Gitlab are removed from the store by the next full scan.
+     *
+     * @param watermark change tracking watermark, {@code null} if each run checks all users
+     * @return selected users
+     * @throws ApiConnectorException if exception occurs while communicating with Gitlab API
+     * @throws LdapException if an error occurred while extracting a domain from one of accepted domains
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     */
+    private UserSelector selectAllGitUsers(ChangeWatermark watermark) throws ApiConnectorException, LdapException, JsonConverterException {
+        long start = System.currentTimeMillis();
+        UserSelector selector = newUserSelector();
+        if (watermark == null || stateStore == null || gitlabFullScan <= 0 || watermark.isGitlabFullScanDue(gitlabFullScan, start)){
+            gitlabApi.getAllGitUsers(selector);
+            if (watermark != null){
+                watermark.setGitlabScan(start);
+                watermark.setGitlabFullScan(start);
+            }
+            return selector;
+        }
+
+        //Created users are fetched with overlap, so some of them may be stored already
+        Set<Long> created = new HashSet<>();
+        gitlabApi.getGitUsersCreatedAfter(watermark.getGitlabScan() - SCAN_OVERLAP, page -> {
+            for (User user : page){
+                created.add(user.getId());
+            }
+            selector.onPage(page);
+        });
+        int stored = 0;
+        UserFilter filter = getUserFilter();
+        for (UserStatus status : stateStore.getAll()){
+            //Stored users already passed filters, but exclusions may be changed since then
+            if (status.getGitState() != null && !created.contains(status.getId()) && filter.accept(status.getUsername())){
+                selector.add(status.getId(), status.getUsername(), status.getGitState());
+                stored++;
+            }
+        }
+        LOGGER.info("{} Gitlab users taken from user state store, {} created since the previous scan requested from Gitlab.",
+                stored, created.size());
+        watermark.setGitlabScan(start);
+        return selector;
+    }
+
+    /**
+     * Save statuses of users that are not found in AD to {@link Worker#stateStore} and remove users that are not
+     * processed anymore, f.e. removed from Gitlab or excluded. Statuses of users found in AD are saved by
+     * {@link Worker#reconcile(UserSelector, Map)}.
+     *
+     * @param users all Gitlab users to process
+     * @param accountStates AD accounts : key - username (id), value - account state
+     */
+    private void storeSnapshot(UserSelector users, Map<String, AccountState> accountStates) {
+        Set<Long> ids = new HashSet<>();
+        long now = System.currentTimeMillis();
+        try {
+            for (int i = 0, size = users.size(); i < size; i++){
+                ids.add(users.getId(i));
+                if (!accountStates.containsKey(users.getUsername(i))){
+                    stateStore.put(observe(users.getId(i), users.getUsername(i), users.getState(i), null, now));
+                }
+            }
+            stateStore.retain(ids);
+            stateStore.compact();
+        } catch (IOException e){
+            LOGGER.error("Cant write user state store <{}>, statuses are not stored : {}", stateFile, e.getMessage());
+            disableStateStore();
+        }
+    }
+
+    /**
+     * Check only Gitlab users whose AD account was changed. Users found in {@link Worker#stateStore} are taken from
+     * there without identities, other ones are requested from Gitlab by username.
+     *
+     * @param changed changed AD accounts : key - username (id), value - account state
+     * @throws ApiConnectorException if exception occurs while communicating with Gitlab API
+     * @throws LdapException if an error occurred while extracting a domain from identity
+     * @throws JsonConverterException if the API response cannot be converted to an array {@link User}
+     */
+    private void processChangedUsers(Map<String, AccountState> changed)
+            throws ApiConnectorException, LdapException, JsonConverterException {
+        if (changed.isEmpty()){
+            LOGGER.info("No AD user changed.");
+            return;
+        }
+        UserSelector selector = newUserSelector();
+        UserFilter filter = getUserFilter();
+        List<String> unknown = new ArrayList<>();
+        for (String username : changed.keySet()){
+            UserStatus status = stateStore == null ? null : stateStore.find(username);
+            if (status != null && status.getGitState() != null){
+                //Stored users already passed filters, but exclusions may be changed since then
+                if (filter.accept(status.getUsername())){
+                    selector.add(status.getId(), status.getUsername(), status.getGitState());
+                }
+            } else {
+                unknown.add(username);
+            }
+        }
+        if (stateStore != null){
+            LOGGER.info("{} changed AD users found in user state store, {} are requested from Gitlab.",
+                    changed.size() - unknown.size(), unknown.size());
+        }
+        if (!unknown.isEmpty()){
+            gitlabApi.getGitUsers(unknown.toArray(new String[0]), selector);
+        }
+        selector.check();
+        if (selector.size() == 0){
+            LOGGER.info("No one Gitlab user find for {} changed AD users.", changed.size());
+            return;
+        }
+        reconcile(selector, changed);
+    }
+
+    /**
+     * Create selector of users that must be processed : not excluded, matching template and, if
+     * {@link Worker#withIdentities} is set, having AD binding.
+     *
+     * @return new selector
+     * @throws IllegalArgumentException if template format is invalid
+     * @throws LdapException if an error occurred while extracting a domain from one of accepted domains
+     */
+    private UserSelector newUserSelector() throws IllegalArgumentException, LdapException {
+        return new UserSelector(getUserFilter(), withIdentities ? getDomainMatcher() : null, compactUsers);
+    }
+
+    /**
+     * Get matcher of identities, build it if it is not built yet.
+     *
+     * @return matcher of the search point domain and {@link Worker#identityDomains}
+     * @throws LdapException if an error occurred while extracting a domain from one of domains
+     */
+    private DomainMatcher getDomainMatcher() throws LdapException {
+        if (domainMatcher == null){
+            List<String> domains = new ArrayList<>();
+            domains.add(ldapSearcher.getDomain());
+            if (identityDomains != null){
+                domains.addAll(identityDomains);
+            }
+            domainMatcher = new DomainMatcher(domains, identityProviders);
+        }
+        return domainMatcher;
+    }
+
+    /**
+     * Get filter of exclusions and template, build it if it is not built yet.
+     *
+     * @return filter of users
+     * @throws IllegalArgumentException if template format is invalid
+     */
+    private UserFilter getUserFilter() throws IllegalArgumentException {
+        if (userFilter == null){
+            List<String> exclude = new ArrayList<>();
+            if (usernameExclude != null){
+                exclude.addAll(Arrays.asList(usernameExclude));
+            }
+            if (fileExclude != null){
+                exclude.addAll(fileExclude);
+            }
+            userFilter = new UserFilter(exclude, template);
+        }
+        return userFilter;
+    }
 
-        ChangeUserStateAnswer answer;
-        List<ChangeUserStateAnswer> ansList = new ArrayList<>();
+    /**
+     * Block or unblock Gitlab users depending on the state of their AD account. Each answer is reported as soon as
+     * its result is known, see {@link Worker#report(ChangeUserStateAnswer, UserStatus)}; only answers waiting for
+     * block or unblock request are kept until the request is completed.
+     *
+     * @param users selected Gitlab users
+     * @param accountStates AD accounts : key - username (id), value - account state; users that don't exist in AD
+     *                      are missing
+     * @throws JsonConverterException if answer cant be written to {@link Worker#resultOutput}
+     */
+    private void reconcile(UserSelector users, Map<String, AccountState> accountStates) throws JsonConverterException {
+        List<ChangeUserStateAnswer> pending = new ArrayList<>();
+        Map<Long, UserStatus> pendingStatuses = new HashMap<>();
+        int statuses = 0;
+        statusesChanged = 0;
+        long now = System.currentTimeMillis();
         //Check each user
-        for (User user : users){
-            if (!userLocked.containsKey(user.getUsername())){
+        for (int i = 0, size = users.size(); i < size; i++){
+            AccountState state = accountStates.get(users.getUsername(i));
+            if (state == null){
                 continue;
             }
+            String gitState = users.getState(i);
+            UserStatus status = null;
+            if (stateStore != null){
+                status = observe(users.getId(i), users.getUsername(i), gitState, state, now);
+                statuses++;
+                if (flapLimit > 0 && status.getFlips() > flapLimit){
+                    LOGGER.warn("AD account of user {}-{} changed state {} times since {}, Gitlab user state is not changed.",
+                            status.getId(), status.getUsername(), status.getFlips(), new Date(status.getFlipsSince()));
+                    storeStatus(status);
+                    continue;
+                }
+            }
             //Each user have own answer
-            answer = new ChangeUserStateAnswer();
-            answer.setUser(user);
-            //Send block or unblock request to Gitlab API
-            if (USER_ACTIVE.equals(user.getState()) && userLocked.get(user.getUsername())) {
+            ChangeUserStateAnswer answer = new ChangeUserStateAnswer();
+            if (USER_ACTIVE.equals(gitState) && state.isLocked()) {
                 answer.setToState(UserChangeState.BLOCK);
-                if (prodMode){
-                    try {
-                        gitlabApi.blockUser(user.getId());
-                        answer.setResult(UserChangeStateResult.SUCCESS);
-                    } catch (ApiConnectorException e){
-                        answer.setResult(UserChangeStateResult.FAIL);
-                        LOGGER.error("Error at Gitlab API block user {}-{} request : {}",
-                                user.getId(),
-                                user.getUsername(),
-                                e.getMessage()
-                        );
-                    }
-                } else {
-                    answer.setResult(UserChangeStateResult.NONE);
-                }
-            } else if (USER_BLOCKED.equals(user.getState()) && !userLocked.get(user.getUsername())) {
+            } else if (USER_BLOCKED.equals(gitState) && !state.isLocked()) {
                 answer.setToState(UserChangeState.UNBLOCK);
-                if (prodMode){
-                    try {
-                        gitlabApi.unblockUser(user.getId());
-                        answer.setResult(UserChangeStateResult.SUCCESS);
-                    } catch (ApiConnectorException e){
-                        answer.setResult(UserChangeStateResult.FAIL);
-                        LOGGER.error("Error at Gitlab API unblock user {}-{} request : {}",
-                                user.getId(),
-                                user.getUsername(),
-                                e.getMessage()
-                        );
-                    }
-                } else {
-                    answer.setResult(UserChangeStateResult.NONE);
-                }
             } else {
+                if (status != null){
+                    storeStatus(status);
+                }
                 continue;
             }
+            answer.setUser(users.getUser(i));
+            if (answers != null){
+                //The result string keeps answers in order of users
+                answers.add(answer);
+            }
+            if (!prodMode){
+                answer.setResult(UserChangeStateResult.NONE);
+                report(answer, status);
+            } else {
+                pending.add(answer);
+                if (status != null){
+                    pendingStatuses.put(status.getId(), status);
+                }
+            }
+        }
+        //Send block or unblock requests to Gitlab API, each answer is reported when its request is completed
+        if (!pending.isEmpty()){
+            changeUserStates(pending, answer -> report(answer, pendingStatuses.get(answer.getUser().getId())));
+        }
+        if (stateStore != null){
+            LOGGER.info("{} of {} user statuses changed.", statusesChanged, statuses);
+        }
+        if (writeError != null){
+            throw writeError;
+        }
+    }
+
+    /**
+     * Build the new status of user and count changes of AD account state, see {@link Worker#FLAP_WINDOW}.
+     *
+     * @param id Gitlab user ID
+     * @param username Gitlab username
+     * @param gitState Gitlab user state
+     * @param state AD account state, {@code null} if account was not found
+     * @param now current time in milliseconds
+     * @return new status, not saved yet
+     */
+    private UserStatus observe(long id, String username, String gitState, AccountState state, long now) {
+        UserStatus previous = stateStore.get(id);
+        int flips = 0;
+        long flipsSince = 0;
+        if (previous != null && previous.getFlips() > 0 && now - previous.getFlipsSince() < FLAP_WINDOW){
+            flips = previous.getFlips();
+            flipsSince = previous.getFlipsSince();
+        }
+        if (previous != null && previous.getAdState() != null && state != null && previous.getAdState().isLocked() != state.isLocked()){
+            if (flips == 0){
+                flipsSince = now;
+            }
+            flips++;
+        }
+        return new UserStatus(id, username, gitState, state, now, flips, flipsSince);
+    }
+
+    /**
+     * Save status of user to {@link Worker#stateStore}. If the store cant be written, it is not used until the end
+     * of the run.
+     *
+     * @param status new status
+     */
+    private synchronized void storeStatus(UserStatus status) {
+        if (stateStore == null){
+            return;
+        }
+        try {
+            if (stateStore.put(status)){
+                statusesChanged++;
+            }
+        } catch (IOException e){
+            LOGGER.error("Cant write user state store <{}>, statuses are not stored : {}", stateFile, e.getMessage());
+            disableStateStore();
+        }
+    }
 
-            ansList.add(answer);
+    /**
+     * Stop using {@link Worker#stateStore} until the end of the run.
+     */
+    private void disableStateStore() {
+        try {
+            stateStore.close();
+        } catch (IOException ignored){
         }
+        stateStore = null;
+    }
 
+    /**
+     * Convert answers of the current run to JSON.
+     *
+     * @return answers in JSON format, {@code null} if answers are already written by {@link Worker#resultWriter}
+     * @throws JsonConverterException if answers cannot be converted to JSON
+     */
+    private String toJson() throws JsonConverterException {
+        if (resultWriter != null){
+            LOGGER.info("{} answers written to <{}>.", resultWriter.getCount(), resultOutput);
+            return null;
+        }
         //Collect all responses and convert to JSON
         try {
-            ChangeUserStateAnswer[] arr = new ChangeUserStateAnswer[ansList.size()];
-            ansList.toArray(arr);
+            ChangeUserStateAnswer[] arr = new ChangeUserStateAnswer[answers.size()];
+            answers.toArray(arr);
             return new JsonConverter().toJson(arr);
         } catch (Exception e){
             throw new JsonConverterException(String.format("Error at converting result to JSON : %s", e.getMessage()));
         }
     }
 
+    /**
+     * Send block or unblock requests to Gitlab API and set result of each answer. If {@link Worker#stateThreads}
+     * is greater than {@code 1}, requests are sent concurrently, at most {@link Worker#stateThreads} at once.
+     *
+     * @param answers answers with users and their target states
+     * @param onResult receiver of each answer as soon as its result is set, called from the thread that completed
+     *                 the request
+     */
+    protected void changeUserStates(List<ChangeUserStateAnswer> answers, Consumer<ChangeUserStateAnswer> onResult) {
+        if (stateThreads <= 1 || answers.size() <= 1){
+            for (ChangeUserStateAnswer answer : answers){
+                try {
+                    if (answer.getToState() == UserChangeState.BLOCK){
+                        gitlabApi.blockUser(answer.getUser().getId());
+                    } else {
+                        gitlabApi.unblockUser(answer.getUser().getId());
+                    }
+                    setChangeResult(answer, null, onResult);
+                } catch (ApiConnectorException e){
+                    setChangeResult(answer, e, onResult);
+                }
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(stateThreads, answers.size()));
+        Semaphore permits = new Semaphore(stateThreads);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try {
+            for (ChangeUserStateAnswer answer : answers){
+                permits.acquire();
+                futures.add(gitlabApi.changeUserStateAsync(answer.getUser().getId(), answer.getToState() == UserChangeState.BLOCK, pool)
+                        .handle((result, error) -> {
+                            permits.release();
+                            setChangeResult(answer, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error, onResult);
+                            return null;
+                        }));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e){
+            //Errors are handled for each answer
+        } finally {
+            pool.shutdownNow();
+        }
+        //Requests in flight may still complete, the first result of each answer wins
+        for (ChangeUserStateAnswer answer : answers){
+            setChangeResult(answer, new InterruptedException("Changing state of users was interrupted."), onResult);
+        }
+    }
+
+    /**
+     * Set result of changing state of Gitlab user, if it is not set yet. Result is set once : a request completed
+     * after the run was interrupted does not change the reported result.
+     *
+     * @param answer answer with user and target state
+     * @param error exception of the request, {@code null} if the request succeeded
+     * @param onResult receiver of the answer if its result was set
+     * @return {@code true} if result was set, {@code false} if answer already had result
+     */
+    private boolean setChangeResult(ChangeUserStateAnswer answer, Throwable error, Consumer<ChangeUserStateAnswer> onResult) {
+        UserChangeStateResult previous;
+        synchronized (answer){
+            previous = answer.getResult();
+            if (previous == null){
+                answer.setResult(error == null ? UserChangeStateResult.SUCCESS : UserChangeStateResult.FAIL);
+            }
+        }
+        if (previous != null){
+            if (!(error instanceof InterruptedException)){
+                LOGGER.warn("Gitlab API {} user {}-{} request completed after its result was reported as {}.",
+                        answer.getToState() == UserChangeState.BLOCK ? "block" : "unblock",
+                        answer.getUser().getId(),
+                        answer.getUser().getUsername(),
+                        previous
+                );
+            }
+            return false;
+        }
+        if (error != null){
+            LOGGER.error("Error at Gitlab API {} user {}-{} request : {}",
+                    answer.getToState() == UserChangeState.BLOCK ? "block" : "unblock",
+                    answer.getUser().getId(),
+                    answer.getUser().getUsername(),
+                    error.getMessage()
+            );
+        }
+        onResult.accept(answer);
+        return true;
+    }
+
+    /**
+     * Build filters of the Gitlab users list which can be applied by Gitlab without changing the result.
+     * Bots and internal users never have LDAP identity, so they are skipped on Gitlab side only if users without
+     * identities are not processed. Other filters are applied locally: Gitlab can filter users by only one state
+     * at once and by provider only together with exact extern UID.
+     *
+     * @return filters for Gitlab users list
+     */
+    protected UserQuery buildUserQuery() {
+        UserQuery query = new UserQuery();
+        if (serverFilter && withIdentities){
+            query.setExcludeInternal(true);
+            query.setWithoutProjectBots(true);
+            query.setHumans(true);
+        }
+        return query;
+    }
+
     /**
      * Parse exclude user list to array.
      *
@@ -266,7 +1209,7 @@ public class Worker {
             List<String> list = new ArrayList<>();
             for (String s : exclude.split(",")){
                 if (s.trim().length() > 0){
-                    list.add(s);
+                    list.add(s.trim());
                 }
             }
             if (list.size() == 0){
@@ -282,38 +1225,17 @@ public class Worker {
      * Remove exclude users from all users array.
      *
      * @param users all users array
-     * @param exclude users that be excluded from processing
+     * @param exclude users that be excluded from processing : usernames, prefixes or globs
      * @return users array without excluded users
+     * @see UserFilter
      */
     protected User[] removeExclude(User[] users, String[] exclude){
         if (users == null){
             return new User[0];
-        } else if (users.length == 0){
-            return users;
-        }
-        if (exclude == null){
-            return users;
-        } else if (exclude.length == 0){
+        } else if (users.length == 0 || exclude == null || exclude.length == 0){
             return users;
         }
-
-        List<User> list = new ArrayList<>();
-        boolean skip;
-        for (User user : users){
-            skip = false;
-            for (String excl : exclude){
-                if (user.getUsername().equals(excl)){
-                    skip = true;
-                    break;
-                }
-            }
-            if (!skip) {
-                list.add(user);
-            }
-        }
-        User[] result = new User[list.size()];
-        list.toArray(result);
-        return result;
+        return new UserFilter(Arrays.asList(exclude), null).apply(users);
     }
 
     /**
@@ -327,29 +1249,10 @@ public class Worker {
     protected User[] applyTemplate(User[] users, String template) throws IllegalArgumentException {
         if (users == null){
             return new User[0];
-        } else if (users.length == 0){
+        } else if (users.length == 0 || StringUtil.isEmptyOrNull(template)){
             return users;
         }
-        if (StringUtil.isEmptyOrNull(template)){
-            return users;
-        }
-
-        Pattern pattern;
-        try {
-            pattern = Pattern.compile(template);
-        } catch (PatternSyntaxException e){
-            throw new IllegalArgumentException(String.format("Wrong template format : %s.", e.getMessage()));
-        }
-
-        List<User> list = new ArrayList<>();
-        for (User user : users){
-            if (pattern.matcher(user.getUsername()).matches()){
-                list.add(user);
-            }
-        }
-        User[] result = new User[list.size()];
-        list.toArray(result);
-        return result;
+        return new UserFilter(null, template).apply(users);
     }
 
     /**
@@ -365,23 +1268,9 @@ public class Worker {
         } else if (users.length == 0){
             return users;
         }
-        List<User> arr = new ArrayList<>();
-        for (User user : users){
-            if (user.getIdentities().length > 0){
-                for (Identity identity : user.getIdentities()){
-                    if (StringUtil.isEmptyOrNull(identity.getExternUid())){
-                        continue;
-                    }
-                    if (LdapSearcher.parseDomain(identity.getExternUid()).toLowerCase().equals(ldapSearcher.getDomain().toLowerCase())){
-                        arr.add(user);
-                        break;
-                    }
-                }
-            }
-        }
-        User[] result = new User[arr.size()];
-        arr.toArray(result);
-        return result;
+        UserSelector selector = new UserSelector(null, getDomainMatcher());
+        selector.onPage(users);
+        return selector.getUsers().toArray(new User[0]);
     }
 
     /**
@@ -400,32 +1289,4 @@ public class Worker {
         }
         return username;
     }
-
-    /**
-     * Remove users that don't exist in AD.
-     *
-     * @param map map of users, where key - user ID (username), value - boolean sign of the user's existence in AD
-     * @return map of users without users that don't exist
-     */
-    protected Map<String, Boolean> removeNonexistentUsers(Map<String, Boolean> map){
-        Map<String, Boolean> result = new HashMap<>();
-        for(Map.Entry<String, Boolean> entry : map.entrySet()){
-            if (entry.getValue()){
-                result.put(entry.getKey(), entry.getValue());
-            }
-        }
-        return result;
-    }
-
-    /**
-     * Get array of username fields from map of users.
-     *
-     * @param map map of users, where key - user ID, value - boolean sign of the user's existence in AD
-     * @return array of username
-     */
-    protected String[] getUsernameFromMap(Map<String, Boolean> map){
-        String[] username = new String[map.keySet().size()];
-        map.keySet().toArray(username);
-        return username;
-    }
 }
@@ -0,0 +1,162 @@
+package com.github.onlycrab.gbu.connector;
+
+import com.github.onlycrab.gbu.exception.ApiConnectorException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Connector to a Gitlab API by {@link HttpClient}: HTTP/2 if Gitlab supports it, many simultaneous requests
+ * over a few connections, asynchronous requests do not hold a thread while waiting for response.
+ * Available on Java 11 or above, use {@link ConnectorFactory} to create it.
+ *
+ * @author Roman Rynkovich
+ */
+@SuppressWarnings("WeakerAccess")
+public class HttpClientConnector extends ApiConnector {
+    /**
+     * HTTP client, it keeps connections between requests.
+     */
+    private final HttpClient client;
+
+    /**
+     * Create connector instance witch trust any certificate.
+     *
+     * @throws ApiConnectorException if there was a context initiation exception
+     */
+    public HttpClientConnector() throws ApiConnectorException {
+        super();
+        client = createClient();
+    }
+
+    /**
+     * Create connector instance witch trust {@code certificate}.
+     *
+     * @param certificate Gitlab web certificate
+     * @throws ApiConnectorException if exception occurs while trusting certificate
+     */
+    public HttpClientConnector(byte[] certificate) throws ApiConnectorException {
+        super(certificate);
+        client = createClient();
+    }
+
+    private HttpClient createClient() throws ApiConnectorException {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .sslContext(getSslContext())
+                .build();
+    }
+
+    @Override
+    public <T> ApiResponse<T> request(URL url, RequestMethod method, int timeout, Properties properties,
+                                      ResponseReader<T> reader) throws ApiConnectorException {
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(build(url, method, timeout, properties), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            throw new ApiConnectorException(String.format("Error at reading response : %s.", e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectorException("Error at reading response : request was interrupted.");
+        }
+        return read(url, response, reader);
+    }
+
+    @Override
+    public <T> CompletableFuture<ApiResponse<T>> requestAsync(URL url, RequestMethod method, int timeout, Properties properties,
+                                                              ResponseReader<T> reader, Executor executor) {
+        HttpRequest request;
+        try {
+            request = build(url, method, timeout, properties);
+        } catch (ApiConnectorException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()).handleAsync((response, error) -> {
+            try {
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    throw new ApiConnectorException(String.format("Error at reading response : %s.", cause.getMessage()));
+                }
+                return read(url, response, reader);
+            } catch (ApiConnectorException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Build request.
+     *
+     * @param url target URL
+     * @param method request method
+     * @param timeout timeout in millisecond
+     * @param properties request properties
+     * @return request
+     * @throws ApiConnectorException if {@code url} is null or incorrect;
+     *                              if {@code method} is invalid;
+     *                              if request property is not allowed
+     */
+    protected HttpRequest build(URL url, RequestMethod method, int timeout, Properties properties) throws ApiConnectorException {
+        if (url == null) {
+            throw new ApiConnectorException("Error at opening connection : URL is <null>.");
+        }
+        if (method == null) {
+            throw new ApiConnectorException("Error at set request method : method is <null>.");
+        }
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(url.toURI())
+                    .method(method.getCode(), HttpRequest.BodyPublishers.noBody());
+            if (timeout > 0) {
+                builder.timeout(Duration.ofMillis(timeout * 1000L));
+            }
+            if (properties != null) {
+                for (Object key : properties.keySet()) {
+                    builder.header(key.toString(), properties.get(key).toString());
+                }
+            }
+            return builder.build();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new ApiConnectorException(String.format("Error at opening connection : %s.", e.getMessage()));
+        }
+    }
+
+    /**
+     * Read response body by {@code reader}. Body is read to the end, so the connection can be reused.
+     *
+     * @param url target URL
+     * @param response response with body stream
+     * @param reader response body reader
+     * @param <T> type of converted body
+     * @return API response with converted body, status code and headers
+     * @throws ApiConnectorException if Gitlab returned an error status;
+     *                              if there was {@code java.io.IOException} while reading API response
+     */
+    protected <T> ApiResponse<T> read(URL url, HttpResponse<InputStream> response, ResponseReader<T> reader) throws ApiConnectorException {
+        try (final Reader in = new BufferedReader(new InputStreamReader(response.body(), getEncoding()))) {
+            if (response.statusCode() >= 400) {
+                //The same message as HttpURLConnection gives
+                throw new ApiConnectorException(String.format("Error at reading response : Server returned HTTP response code: %s for URL: %s.",
+                        response.statusCode(), url), new ApiResponse<>(response.statusCode(), ResponseReader.STRING.read(in), response.headers().map()));
+            }
+            T body = reader.read(in);
+            drain(in);
+            return new ApiResponse<>(response.statusCode(), body, response.headers().map());
+        } catch (IOException e) {
+            throw new ApiConnectorException(String.format("Error at reading response : %s.", e.getMessage()));
+        }
+    }
+}
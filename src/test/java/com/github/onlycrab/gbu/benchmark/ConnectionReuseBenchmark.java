@@ -0,0 +1,94 @@
+package com.github.onlycrab.gbu.benchmark;
+
+import com.github.onlycrab.gbu.connector.ApiConnector;
+import com.github.onlycrab.gbu.connector.ApiResponse;
+import com.github.onlycrab.gbu.connector.RequestMethod;
+import com.github.onlycrab.gbu.connector.ResponseReader;
+import com.github.onlycrab.gbu.exception.ApiConnectorException;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+
+/**
+ * Compares per-request latency of {@link ApiConnector} against HTTPS {@link GitlabStubServer} with the way
+ * connections were handled before: new {@code SSLContext} set as JVM default for every request and response
+ * read only up to the end of JSON.
+ * Run: {@code java -cp <test classpath> com.github.onlycrab.gbu.benchmark.ConnectionReuseBenchmark [requests]}.
+ */
+public class ConnectionReuseBenchmark {
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        GitlabStubServer server = GitlabStubServer.https(1000, 100, 0);
+        server.start();
+        try {
+            URL url = new URL(server.getAddress() + "/api/v4/users?page=1&per_page=20&private_token=token");
+            ApiConnector pooled = new ApiConnector();
+            ApiConnector legacy = new LegacyConnector();
+            //warm up
+            run(legacy, url, requests / 5);
+            run(pooled, url, requests / 5);
+
+            System.out.printf("%-10s %-10s %-14s%n", "connector", "requests", "per request, us");
+            System.out.printf("%-10s %-10s %-14s%n", "legacy", requests, run(legacy, url, requests));
+            System.out.printf("%-10s %-10s %-14s%n", "pooled", requests, run(pooled, url, requests));
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static long run(ApiConnector connector, URL url, int requests) throws ApiConnectorException {
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            connector.request(url, RequestMethod.GET, 30, null, reader -> new BufferedReader(reader).read());
+        }
+        return (System.nanoTime() - start) / 1000 / requests;
+    }
+
+    /**
+     * Connector which creates SSL context for every connection and does not read responses to the end.
+     */
+    private static class LegacyConnector extends ApiConnector {
+        @Override
+        public HttpURLConnection open(URL url) throws ApiConnectorException {
+            try {
+                SSLContext sc = SSLContext.getInstance("SSL");
+                sc.init(null, new TrustManager[]{ new TrustAll() }, new java.security.SecureRandom());
+                HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
+                return (HttpURLConnection) url.openConnection();
+            } catch (Exception e) {
+                throw new ApiConnectorException(e.getMessage());
+            }
+        }
+
+        @Override
+        public <T> ApiResponse<T> request(URL url, RequestMethod method, int timeout, Properties properties,
+                                          ResponseReader<T> reader) throws ApiConnectorException {
+            HttpURLConnection connection = open(url);
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), getEncoding()))) {
+                return new ApiResponse<>(reader.read(in));
+            } catch (Exception e) {
+                throw new ApiConnectorException(e.getMessage());
+            }
+        }
+    }
+
+    private static class TrustAll implements X509TrustManager {
+        public X509Certificate[] getAcceptedIssuers() {
+            return null;
+        }
+
+        public void checkClientTrusted(X509Certificate[] certs, String authType) {
+        }
+
+        public void checkServerTrusted(X509Certificate[] certs, String authType) {
+        }
+    }
+}
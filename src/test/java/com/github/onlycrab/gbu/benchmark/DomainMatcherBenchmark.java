@@ -0,0 +1,93 @@
+package com.github.onlycrab.gbu.benchmark;
+
+import com.github.onlycrab.gbu.exception.LdapException;
+import com.github.onlycrab.gbu.model.Identity;
+import com.github.onlycrab.gbu.model.User;
+import com.github.onlycrab.gbu.worker.DomainMatcher;
+import com.github.onlycrab.gbu.worker.LdapSearcher;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Compares time and allocated memory of checking identities of Gitlab users: parsing and lowercasing the domain of
+ * each identity (as it was done before {@link DomainMatcher}) and {@link DomainMatcher}.
+ * Run: {@code java -cp <test classpath> com.github.onlycrab.gbu.benchmark.DomainMatcherBenchmark [users] [identities]}.
+ */
+public class DomainMatcherBenchmark {
+    private static final int ROUNDS = 5;
+    private static final String DOMAIN = "dc=example,dc=com";
+
+    public static void main(String[] args) throws LdapException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int identities = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        User[] users = new User[count];
+        for (int i = 0; i < count; i++) {
+            Identity[] identity = new Identity[identities];
+            //The matching identity, if any, is the last one
+            for (int j = 0; j < identities; j++) {
+                String domain = j == identities - 1 && i % 4 != 0 ? "DC=Example,DC=com" : "dc=other" + j + ",dc=com";
+                identity[j] = new Identity("ldapmain", "CN=User " + i + ",OU=Staff,OU=Users," + domain);
+            }
+            users[i] = new User(i + 1, "user" + i, "active", identity);
+        }
+        DomainMatcher single = new DomainMatcher(Collections.singletonList(DOMAIN), null);
+        DomainMatcher multi = new DomainMatcher(Arrays.asList("dc=first,dc=com", "dc=second,dc=com", DOMAIN), Collections.singletonList("ldapmain"));
+
+        System.out.printf("Users: %s, identities per user: %s%n", count, identities);
+        System.out.printf("%-22s %-8s %-10s %-12s%n", "method", "matched", "time, ms", "allocated, KB");
+        run("parse domain", users, user -> parse(user, DOMAIN));
+        run("matcher", users, single::hasIdentity);
+        run("matcher, 3 domains", users, multi::hasIdentity);
+    }
+
+    private static void run(String method, User[] users, Check check) throws LdapException {
+        int matched = count(users, check);
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            count(users, check);
+            best = Math.min(best, (System.nanoTime() - start) / 1000000);
+            allocated = Math.min(allocated, allocatedBytes() - bytes);
+        }
+        System.out.printf("%-22s %-8s %-10s %-12s%n", method, matched, best, allocated < 0 ? "n/a" : allocated / 1024);
+    }
+
+    private static int count(User[] users, Check check) throws LdapException {
+        int matched = 0;
+        for (User user : users) {
+            if (check.matches(user)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Bytes allocated by the current thread, {@code -1} if JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static boolean parse(User user, String domain) throws LdapException {
+        for (Identity identity : user.getIdentities()) {
+            if (LdapSearcher.parseDomain(identity.getExternUid()).toLowerCase().equals(domain.toLowerCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    private interface Check {
+        boolean matches(User user) throws LdapException;
+    }
+}
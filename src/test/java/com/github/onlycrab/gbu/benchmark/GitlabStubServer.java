@@ -0,0 +1,230 @@
+package com.github.onlycrab.gbu.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local HTTP server which imitates Gitlab users API for benchmarks: {@code GET /api/v4/users} with offset and
+ * keyset pagination headers, {@code POST /api/v4/users/:id/block} and {@code POST /api/v4/users/:id/unblock}.
+ * Every user has all fields of Gitlab API response, most of them are not used by this utility.
+ */
+@SuppressWarnings("WeakerAccess")
+public class GitlabStubServer {
+    /**
+     * Gitlab does not count collections bigger than this.
+     */
+    private static final int COUNT_LIMIT = 10000;
+    /**
+     * Self-signed certificate for {@code localhost} and {@code 127.0.0.1}.
+     */
+    private static final String KEYSTORE = "/benchmark/stub-keystore.p12";
+    private static final char[] KEYSTORE_PASSWORD = "changeit".toCharArray();
+
+    static {
+        //Without TCP_NODELAY every response waits for delayed ACK of the client
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int users;
+    private final int maxPerPage;
+    private final int latency;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * Create server on a free local port.
+     *
+     * @param users number of users
+     * @param maxPerPage maximum number of users per page
+     * @param latency delay of each response in milliseconds
+     * @throws IOException if server cant be created
+     */
+    public GitlabStubServer(int users, int maxPerPage, int latency) throws IOException {
+        this(HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0), users, maxPerPage, latency);
+    }
+
+    /**
+     * Create HTTPS server on a free local port, with self-signed certificate.
+     *
+     * @param users number of users
+     * @param maxPerPage maximum number of users per page
+     * @param latency delay of each response in milliseconds
+     * @return server
+     * @throws IOException if server cant be created
+     */
+    public static GitlabStubServer https(int users, int maxPerPage, int latency) throws IOException {
+        HttpsServer server = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        try (InputStream is = GitlabStubServer.class.getResourceAsStream(KEYSTORE)) {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(is, KEYSTORE_PASSWORD);
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keyStore, KEYSTORE_PASSWORD);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(kmf.getKeyManagers(), null, null);
+            server.setHttpsConfigurator(new HttpsConfigurator(context));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        return new GitlabStubServer(server, users, maxPerPage, latency);
+    }
+
+    protected GitlabStubServer(HttpServer server, int users, int maxPerPage, int latency) {
+        this.server = server;
+        this.users = users;
+        this.maxPerPage = maxPerPage;
+        this.latency = latency;
+        this.executor = Executors.newFixedThreadPool(16);
+        server.setExecutor(executor);
+        server.createContext("/api/v4/users", exchange -> {
+            try {
+                handle(exchange);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Get server root address.
+     *
+     * @return address like {@code http://127.0.0.1:port}
+     */
+    public String getAddress() {
+        return (server instanceof HttpsServer ? "https" : "http") + "://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Get number of received requests and reset counter.
+     *
+     * @return number of requests
+     */
+    public int resetRequests() {
+        return requests.getAndSet(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String path = exchange.getRequestURI().getPath();
+        if (path.endsWith("/block") || path.endsWith("/unblock")) {
+            send(exchange, "true", new HashMap<>());
+            return;
+        }
+
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        int perPage = Math.min(maxPerPage, Integer.parseInt(query.getOrDefault("per_page", "20")));
+        Map<String, String> headers = new HashMap<>();
+        int from;
+        String base = getAddress() + "/api/v4/users?per_page=" + perPage;
+        if ("keyset".equals(query.get("pagination"))) {
+            from = Integer.parseInt(query.getOrDefault("cursor", "0"));
+            if (from + perPage < users) {
+                headers.put("Link", String.format("<%s&pagination=keyset&cursor=%s>; rel=\"next\"", base, from + perPage));
+            }
+        } else {
+            int page = Integer.parseInt(query.getOrDefault("page", "1"));
+            from = (page - 1) * perPage;
+            int pages = (users + perPage - 1) / perPage;
+            headers.put("X-Page", String.valueOf(page));
+            headers.put("X-Per-Page", String.valueOf(perPage));
+            headers.put("X-Next-Page", page < pages ? String.valueOf(page + 1) : "");
+            if (users <= COUNT_LIMIT) {
+                headers.put("X-Total", String.valueOf(users));
+                headers.put("X-Total-Pages", String.valueOf(pages));
+            }
+        }
+
+        StringBuilder sb = new StringBuilder("[");
+        for (int id = from + 1; id <= Math.min(users, from + perPage); id++) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            appendUser(sb, id);
+        }
+        sb.append(']');
+        send(exchange, sb.toString(), headers);
+    }
+
+    private void appendUser(StringBuilder sb, int id) {
+        String username = "user" + id;
+        sb.append("{\"id\":").append(id)
+                .append(",\"username\":\"").append(username)
+                .append("\",\"name\":\"User ").append(id)
+                .append("\",\"state\":\"").append(id % 10 == 0 ? "blocked" : "active")
+                .append("\",\"locked\":false,\"avatar_url\":\"https://secure.gravatar.com/avatar/").append(id)
+                .append("?s=80&d=identicon\",\"web_url\":\"https://gitlab.example.com/").append(username)
+                .append("\",\"created_at\":\"2021-03-01T10:00:00.000Z\",\"bio\":\"\",\"location\":\"\",\"public_email\":null")
+                .append(",\"skype\":\"\",\"linkedin\":\"\",\"twitter\":\"\",\"discord\":\"\",\"website_url\":\"\",\"organization\":\"\"")
+                .append(",\"job_title\":\"\",\"pronouns\":null,\"bot\":false,\"work_information\":null,\"followers\":0,\"following\":0")
+                .append(",\"is_followed\":false,\"local_time\":null,\"last_sign_in_at\":\"2022-10-01T10:00:00.000Z\"")
+                .append(",\"confirmed_at\":\"2021-03-01T10:00:00.000Z\",\"last_activity_on\":\"2022-10-02\",\"email\":\"")
+                .append(username).append("@example.com\",\"theme_id\":1,\"color_scheme_id\":1,\"projects_limit\":100000")
+                .append(",\"current_sign_in_at\":\"2022-10-01T10:00:00.000Z\",\"identities\":[{\"provider\":\"ldapmain\",\"extern_uid\":\"cn=")
+                .append(username).append(",ou=users,dc=example,dc=com\",\"saml_provider_id\":null}]")
+                .append(",\"can_create_group\":true,\"can_create_project\":true,\"two_factor_enabled\":false,\"external\":false")
+                .append(",\"private_profile\":false,\"commit_email\":\"").append(username).append("@example.com\"")
+                .append(",\"is_admin\":false,\"note\":null,\"namespace_id\":").append(id)
+                .append(",\"created_by\":null,\"email_reset_offered_at\":null}");
+    }
+
+    private void send(HttpExchange exchange, String body, Map<String, String> headers) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            exchange.getResponseHeaders().add(header.getKey(), header.getValue());
+        }
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> result = new HashMap<>();
+        if (query == null) {
+            return result;
+        }
+        for (String pair : query.split("&")) {
+            int i = pair.indexOf('=');
+            if (i > 0) {
+                result.put(pair.substring(0, i), pair.substring(i + 1));
+            }
+        }
+        return result;
+    }
+}
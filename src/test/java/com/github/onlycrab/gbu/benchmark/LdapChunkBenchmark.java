@@ -0,0 +1,76 @@
+package com.github.onlycrab.gbu.benchmark;
+
+import com.github.onlycrab.gbu.model.AccountState;
+import com.github.onlycrab.gbu.worker.LdapSearcher;
+import com.github.onlycrab.gbu.worker.LookupMode;
+
+import java.util.Map;
+
+/**
+ * Compares wall-clock time of {@link LdapSearcher#isUserExist(String[])} for different LDAP filter chunk sizes
+ * and numbers of concurrent searches against {@link LdapStubServer}.
+ * Chunk size {@code 0} is one filter with all users, the last row is {@link LookupMode#SNAPSHOT} of all directory users.
+ * Run: {@code java -cp <test classpath> com.github.onlycrab.gbu.benchmark.LdapChunkBenchmark [users] [latencyMillis]}.
+ */
+public class LdapChunkBenchmark {
+    private static final int[] CHUNK_SIZE = { 0, 50, 200, 500, 1000 };
+    private static final int[] THREADS = { 1, 4 };
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int latency = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String[] names = new String[users];
+        for (int i = 0; i < users; i++) {
+            names[i] = "user" + (i + 1);
+        }
+
+        LdapStubServer server = new LdapStubServer(users, latency);
+        server.start();
+        try {
+            System.out.printf("Users: %s, stub latency per search: %s ms%n", users, latency);
+            System.out.printf("%-7s %-8s %-8s %-10s%n", "chunk", "threads", "filters", "time, ms");
+            for (int chunkSize : CHUNK_SIZE) {
+                for (int threads : THREADS) {
+                    if (chunkSize == 0 && threads > 1) {
+                        continue;
+                    }
+                    LdapSearcher searcher = new LdapSearcher(server.getProvider(), LdapStubServer.BASE);
+                    searcher.setChunkSize(chunkSize);
+                    searcher.setSearchThreads(threads);
+                    //warm up
+                    searcher.isUserExist(names);
+
+                    long best = Long.MAX_VALUE;
+                    for (int round = 0; round < ROUNDS; round++) {
+                        long start = System.nanoTime();
+                        Map<String, Boolean> result = searcher.isUserExist(names);
+                        best = Math.min(best, (System.nanoTime() - start) / 1000000);
+                        if (result.size() != users || result.containsValue(false)) {
+                            throw new IllegalStateException("Not all users are found");
+                        }
+                    }
+                    int filters = chunkSize == 0 ? 1 : (users + chunkSize - 1) / chunkSize;
+                    System.out.printf("%-7s %-8s %-8s %-10s%n", chunkSize, threads, filters, best);
+                }
+            }
+
+            LdapSearcher searcher = new LdapSearcher(server.getProvider(), LdapStubServer.BASE);
+            searcher.setLookupMode(LookupMode.SNAPSHOT);
+            searcher.getAccountStates(names);
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                Map<String, AccountState> result = searcher.getAccountStates(names);
+                best = Math.min(best, (System.nanoTime() - start) / 1000000);
+                if (result.size() != users) {
+                    throw new IllegalStateException("Not all users are found");
+                }
+            }
+            int pages = (users + LdapSearcher.DEFAULT_PAGE_SIZE - 1) / LdapSearcher.DEFAULT_PAGE_SIZE;
+            System.out.printf("%-7s %-8s %-8s %-10s%n", "snapshot", 1, pages, best);
+        } finally {
+            server.stop();
+        }
+    }
+}
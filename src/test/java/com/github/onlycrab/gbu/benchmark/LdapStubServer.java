@@ -0,0 +1,165 @@
+package com.github.onlycrab.gbu.benchmark;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchEntry;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.unboundid.ldap.sdk.schema.Schema;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process LDAP server which imitates Active Directory users for tests and benchmarks.
+ * Users {@code user1..userN} are stored in {@code ou=users,dc=my,dc=com}, every tenth user is disabled, every
+ * seventh of the others is locked out.
+ * Standard schema is extended by Active Directory attributes and {@code user} object class.
+ * Each user has {@code uSNChanged}, root DSE has {@code highestCommittedUSN} and {@code dsServiceName}, like a
+ * domain controller; changes by {@link LdapStubServer#setAccountControl(String, int)} increase USN.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LdapStubServer {
+    public static final String BASE = "dc=my,dc=com";
+    public static final String USERS = "ou=users," + BASE;
+
+    private static final AtomicInteger SERVERS = new AtomicInteger();
+
+    private final InMemoryDirectoryServer server;
+    private final AtomicLong usn = new AtomicLong();
+    private final String serviceName = "CN=NTDS Settings,CN=DC" + SERVERS.incrementAndGet() + ",CN=Servers," + BASE;
+
+    /**
+     * Create server on a free local port.
+     *
+     * @param users number of users
+     * @param latency delay of each search in milliseconds
+     * @throws LDAPException if server cant be created
+     */
+    public LdapStubServer(int users, int latency) throws LDAPException {
+        this(users, latency, 0);
+    }
+
+    /**
+     * Create server on a free local port.
+     *
+     * @param users number of users
+     * @param latency delay of each search in milliseconds
+     * @param sizeLimit maximum number of entries returned by one search or page, like MaxPageSize of Active
+     *                  Directory; {@code 0} means no limit
+     * @throws LDAPException if server cant be created
+     */
+    public LdapStubServer(int users, int latency, int sizeLimit) throws LDAPException {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE);
+        if (sizeLimit > 0) {
+            config.setMaxSizeLimit(sizeLimit);
+        }
+        config.setSchema(buildSchema());
+        //Active Directory indexes sAMAccountName
+        config.setEqualityIndexAttributes("sAMAccountName");
+        try {
+            config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("ldap", InetAddress.getByName("127.0.0.1"), 0, null));
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+        config.addInMemoryOperationInterceptor(new InMemoryOperationInterceptor() {
+            @Override
+            public void processSearchRequest(InMemoryInterceptedSearchRequest request) {
+                if (latency <= 0) {
+                    return;
+                }
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void processSearchEntry(InMemoryInterceptedSearchEntry entry) {
+                if (entry.getSearchEntry().getDN().isEmpty()) {
+                    Entry root = entry.getSearchEntry().duplicate();
+                    root.setAttribute("dsServiceName", serviceName);
+                    root.setAttribute("highestCommittedUSN", String.valueOf(usn.get()));
+                    entry.setSearchEntry(root);
+                }
+            }
+        });
+        server = new InMemoryDirectoryServer(config);
+
+        List<Entry> entries = new ArrayList<>(users + 2);
+        Entry base = new Entry(BASE);
+        base.addAttribute("objectClass", "top", "domain");
+        base.addAttribute("dc", "my");
+        entries.add(base);
+        Entry ou = new Entry(USERS);
+        ou.addAttribute("objectClass", "top", "organizationalUnit");
+        ou.addAttribute("ou", "users");
+        entries.add(ou);
+        for (int id = 1; id <= users; id++) {
+            String name = "user" + id;
+            Entry user = new Entry("cn=" + name + "," + USERS);
+            user.addAttribute("objectClass", "top", "person", "organizationalPerson", "user");
+            user.addAttribute("objectCategory", "person");
+            user.addAttribute("cn", name);
+            user.addAttribute("sn", name);
+            user.addAttribute("sAMAccountName", name);
+            user.addAttribute("userAccountControl", id % 10 == 0 ? "514" : id % 7 == 0 ? "528" : "512");
+            user.addAttribute("uSNChanged", String.valueOf(usn.incrementAndGet()));
+            entries.add(user);
+        }
+        server.addEntries(entries);
+    }
+
+    private static Schema buildSchema() throws LDAPException {
+        Entry ad = new Entry("cn=schema");
+        ad.addAttribute("objectClass", "top", "ldapSubentry", "subschema");
+        ad.addAttribute(Schema.ATTR_ATTRIBUTE_TYPE,
+                "( 1.2.840.113556.1.4.221 NAME 'sAMAccountName' EQUALITY caseIgnoreMatch SYNTAX 1.3.6.1.4.1.1466.115.121.1.15 SINGLE-VALUE )",
+                "( 1.2.840.113556.1.4.782 NAME 'objectCategory' EQUALITY caseIgnoreMatch SYNTAX 1.3.6.1.4.1.1466.115.121.1.15 SINGLE-VALUE )",
+                "( 1.2.840.113556.1.4.8 NAME 'userAccountControl' EQUALITY integerMatch SYNTAX 1.3.6.1.4.1.1466.115.121.1.27 SINGLE-VALUE )",
+                "( 1.2.840.113556.1.2.120 NAME 'uSNChanged' EQUALITY integerMatch ORDERING integerOrderingMatch SYNTAX 1.3.6.1.4.1.1466.115.121.1.27 SINGLE-VALUE )");
+        ad.addAttribute(Schema.ATTR_OBJECT_CLASS,
+                "( 1.2.840.113556.1.5.9 NAME 'user' SUP organizationalPerson STRUCTURAL MAY ( sAMAccountName $ objectCategory $ userAccountControl $ uSNChanged ) )");
+        return Schema.mergeSchemas(Schema.getDefaultStandardSchema(), new Schema(ad));
+    }
+
+    /**
+     * Change {@code userAccountControl} of user, like an administrator does.
+     *
+     * @param name user ID
+     * @param userAccountControl new value
+     * @throws LDAPException if user does not exist
+     */
+    public void setAccountControl(String name, int userAccountControl) throws LDAPException {
+        server.modify("cn=" + name + "," + USERS,
+                new Modification(ModificationType.REPLACE, "userAccountControl", String.valueOf(userAccountControl)),
+                new Modification(ModificationType.REPLACE, "uSNChanged", String.valueOf(usn.incrementAndGet())));
+    }
+
+    public void start() throws LDAPException {
+        server.startListening();
+    }
+
+    public void stop() {
+        server.shutDown(true);
+    }
+
+    /**
+     * Get provider string.
+     *
+     * @return provider like {@code ldap://127.0.0.1:port}
+     */
+    public String getProvider() {
+        return "ldap://127.0.0.1:" + server.getListenPort();
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.onlycrab.gbu.benchmark;
+
+import com.github.onlycrab.gbu.model.User;
+import com.github.onlycrab.gbu.worker.GitlabApi;
+
+/**
+ * Compares the number of round trips and wall-clock time of {@link GitlabApi#getAllGitUsers()} for different
+ * page sizes against {@link GitlabStubServer}.
+ * Run: {@code java -cp <test classpath> com.github.onlycrab.gbu.benchmark.PageSizeBenchmark [latencyMillis]}.
+ */
+public class PageSizeBenchmark {
+    private static final int[] USERS = { 10000, 50000, 100000 };
+    private static final int[] PER_PAGE = { 50, GitlabApi.MAX_PER_PAGE };
+
+    public static void main(String[] args) throws Exception {
+        int latency = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        System.out.printf("Stub latency per request: %s ms%n", latency);
+        System.out.printf("%-8s %-9s %-10s %-10s%n", "users", "per_page", "requests", "time, ms");
+        for (int users : USERS) {
+            GitlabStubServer server = new GitlabStubServer(users, GitlabApi.MAX_PER_PAGE, latency);
+            server.start();
+            try {
+                for (int perPage : PER_PAGE) {
+                    GitlabApi api = new GitlabApi(server.getAddress(), "token");
+                    api.setPerPage(perPage);
+                    //warm up
+                    api.getAllGitUsers();
+                    server.resetRequests();
+
+                    long start = System.nanoTime();
+                    User[] result = api.getAllGitUsers();
+                    long time = (System.nanoTime() - start) / 1000000;
+                    if (result.length != users) {
+                        throw new IllegalStateException(String.format("Expected %s users, got %s", users, result.length));
+                    }
+                    System.out.printf("%-8s %-9s %-10s %-10s%n", users, perPage, server.resetRequests(), time);
+                }
+            } finally {
+                server.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.onlycrab.gbu.benchmark;
+
+import com.github.onlycrab.gbu.model.User;
+import com.github.onlycrab.gbu.worker.UserFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares time of filtering Gitlab users by exclusions: nested loop over all exclusions (as it was done before
+ * {@link UserFilter}) and {@link UserFilter} with usernames, prefixes and globs.
+ * Run: {@code java -cp <test classpath> com.github.onlycrab.gbu.benchmark.UserFilterBenchmark [users] [exclusions]}.
+ */
+public class UserFilterBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int excludeCount = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        User[] users = new User[count];
+        for (int i = 0; i < count; i++) {
+            users[i] = new User(i + 1, (i % 10 == 0 ? "svc" : "user") + i, "active", null);
+        }
+        //Every 20th user is excluded by name
+        String[] exclude = new String[excludeCount];
+        for (int i = 0; i < excludeCount; i++) {
+            exclude[i] = "user" + (i * 20 + 1);
+        }
+        List<String> mixed = new ArrayList<>(Arrays.asList(exclude));
+        mixed.add("svc*");
+        mixed.add("user9999?");
+        mixed.add("*-bot");
+
+        System.out.printf("Users: %s, exclusions: %s%n", count, excludeCount);
+        System.out.printf("%-22s %-8s %-10s%n", "method", "left", "time, ms");
+        int[] left = new int[1];
+        print("nested loop", left, time(() -> left[0] = nestedLoop(users, exclude).length));
+        print("filter, names", left, time(() -> left[0] = new UserFilter(Arrays.asList(exclude), null).apply(users).length));
+        print("filter, with globs", left, time(() -> left[0] = new UserFilter(mixed, null).apply(users).length));
+        print("filter, with template", left, time(() -> left[0] = new UserFilter(mixed, "[a-z]+\\d+").apply(users).length));
+    }
+
+    private static void print(String method, int[] left, long time) {
+        System.out.printf("%-22s %-8s %-10s%n", method, left[0], time);
+    }
+
+    /**
+     * Best time of several rounds after warm up.
+     */
+    private static long time(Runnable task) {
+        task.run();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1000000);
+        }
+        return best;
+    }
+
+    private static User[] nestedLoop(User[] users, String[] exclude) {
+        List<User> list = new ArrayList<>();
+        for (User user : users) {
+            boolean skip = false;
+            for (String excl : exclude) {
+                if (user.getUsername().equals(excl)) {
+                    skip = true;
+                    break;
+                }
+            }
+            if (!skip) {
+                list.add(user);
+            }
+        }
+        return list.toArray(new User[0]);
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.onlycrab.gbu.benchmark;
+
+import com.github.onlycrab.gbu.model.Identity;
+import com.github.onlycrab.gbu.model.User;
+import com.github.onlycrab.gbu.worker.UserSelector;
+
+/**
+ * Compares heap retained by selected Gitlab users: user objects with identities (default) and {@link UserSelector}
+ * in compact mode. Users are created page by page, as they come from Gitlab, only selected ones are retained.
+ * Run: {@code java -cp <test classpath> com.github.onlycrab.gbu.benchmark.UserTableBenchmark [users] [identities]}.
+ */
+public class UserTableBenchmark {
+    private static final int PAGE = 100;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int identities = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        System.out.printf("Users: %s, identities per user: %s%n", count, identities);
+        System.out.printf("%-12s %-10s %-10s%n", "mode", "heap, MB", "time, ms");
+        for (boolean compact : new boolean[]{ false, true }) {
+            long before = usedMemory();
+            long start = System.nanoTime();
+            UserSelector selector = select(count, identities, compact);
+            long time = (System.nanoTime() - start) / 1000000;
+            long heap = (usedMemory() - before) / (1024 * 1024);
+            System.out.printf("%-12s %-10s %-10s%n", compact ? "compact" : "users", heap, time);
+            if (selector.size() != count) {
+                throw new IllegalStateException("Not all users are selected.");
+            }
+        }
+    }
+
+    private static UserSelector select(int count, int identities, boolean compact) {
+        UserSelector selector = new UserSelector(null, null, compact);
+        selector.onTotal(count);
+        for (int from = 0; from < count; from += PAGE) {
+            User[] page = new User[Math.min(PAGE, count - from)];
+            for (int i = 0; i < page.length; i++) {
+                int id = from + i + 1;
+                Identity[] identity = new Identity[identities];
+                for (int j = 0; j < identities; j++) {
+                    identity[j] = new Identity("ldapmain", "CN=User " + id + ",OU=Staff,OU=Users,DC=example" + j + ",DC=com");
+                }
+                page[i] = new User(id, "user" + id, id % 10 == 0 ? "blocked" : "active", identity);
+            }
+            selector.onPage(page);
+        }
+        return selector;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -9,10 +9,13 @@ import org.mockito.Mockito;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.Reader;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Properties;
+import java.util.*;
 
 /**
  * {@link ApiConnector} test class.
@@ -34,6 +37,50 @@ public class ApiConnectorTest {
         }
     }
 
+    /**
+     * {@link ApiConnector#open(URL)} for HTTPS.
+     */
+    @Test
+    public void openHttps() {
+        try {
+            ApiConnector connector = new ApiConnector();
+            SSLSocketFactory defaultFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+            HttpURLConnection first = connector.open(new URL("https://localhost/pointNotExist"));
+            HttpURLConnection second = connector.open(new URL("https://localhost/pointNotExist"));
+            Assert.assertTrue(first instanceof HttpsURLConnection);
+            Assert.assertSame(((HttpsURLConnection) first).getSSLSocketFactory(), ((HttpsURLConnection) second).getSSLSocketFactory());
+            Assert.assertNotSame(defaultFactory, ((HttpsURLConnection) first).getSSLSocketFactory());
+            Assert.assertSame(defaultFactory, HttpsURLConnection.getDefaultSSLSocketFactory());
+        } catch (MalformedURLException | ApiConnectorException e){
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * {@link ApiConnector#request(HttpURLConnection, RequestMethod, int, Properties, ResponseReader)} reads
+     * responses to the end.
+     */
+    @Test
+    public void requestDrain() {
+        ApiConnector connector = new ApiConnector();
+        HttpURLConnection connection = Mockito.mock(HttpURLConnection.class);
+        ByteArrayInputStream body = new ByteArrayInputStream("[1]  \n\n".getBytes());
+        ByteArrayInputStream error = new ByteArrayInputStream("{\"message\": \"404 Not Found\"}".getBytes());
+        try {
+            Mockito.when(connection.getInputStream()).thenReturn(body);
+            Mockito.when(connection.getResponseCode()).thenReturn(200);
+            Assert.assertEquals('[', (int) connector.request(connection, RequestMethod.GET, 1, null, Reader::read).getBody());
+            Assert.assertEquals(0, body.available());
+
+            Mockito.when(connection.getInputStream()).thenThrow(new IOException("Server returned HTTP response code: 404"));
+            Mockito.when(connection.getErrorStream()).thenReturn(error);
+            Assert.assertThrows(ApiConnectorException.class, () -> connector.request(connection, RequestMethod.GET, 1, null));
+            Assert.assertEquals(0, error.available());
+        } catch (IOException | ApiConnectorException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
     /**
      * {@link ApiConnector#execute(HttpURLConnection, RequestMethod, int, Properties)}.
      */
@@ -92,4 +139,31 @@ public class ApiConnectorTest {
             Assert.fail(e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * {@link ApiConnector#request(HttpURLConnection, RequestMethod, int, Properties)}.
+     */
+    @Test
+    public void request() {
+        ApiConnector connector = new ApiConnector();
+        HttpURLConnection connection = Mockito.mock(HttpURLConnection.class);
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put(null, Collections.singletonList("HTTP/1.1 200 OK"));
+        headers.put("X-Total-Pages", Collections.singletonList("12"));
+        try {
+            Mockito.when(connection.getInputStream()).thenReturn(new ByteArrayInputStream("[]".getBytes()));
+            Mockito.when(connection.getResponseCode()).thenReturn(200);
+            Mockito.when(connection.getHeaderFields()).thenReturn(headers);
+
+            ApiResponse<String> response = connector.request(connection, RequestMethod.GET, 1, null);
+            Assert.assertEquals(200, response.getCode());
+            Assert.assertEquals("[]", response.getBody());
+            Assert.assertEquals("12", response.getHeader("x-total-pages"));
+            Assert.assertEquals(12, response.getHeaderAsInt("X-TOTAL-PAGES", 0));
+            Assert.assertEquals(-1, response.getHeaderAsInt("X-Total", -1));
+            Assert.assertNull(response.getHeader("X-Total"));
+        } catch (IOException | ApiConnectorException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+}
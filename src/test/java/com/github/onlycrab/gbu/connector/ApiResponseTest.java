@@ -0,0 +1,31 @@
+package com.github.onlycrab.gbu.connector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * {@link ApiResponse} test class.
+ */
+public class ApiResponseTest {
+    /**
+     * {@link ApiResponse#parseLink(String, String)}.
+     */
+    @Test
+    public void parseLink() {
+        String header = "<https://gitlab/api/v4/users?cursor=eyJpZCI6IjUwIn0&order_by=id&pagination=keyset&per_page=50&sort=asc>; rel=\"next\", " +
+                "<https://gitlab/api/v4/users?order_by=id&pagination=keyset&per_page=50&sort=asc>; rel=\"first\"";
+        Assert.assertEquals(
+                "https://gitlab/api/v4/users?cursor=eyJpZCI6IjUwIn0&order_by=id&pagination=keyset&per_page=50&sort=asc",
+                ApiResponse.parseLink(header, "next")
+        );
+        Assert.assertEquals(
+                "https://gitlab/api/v4/users?order_by=id&pagination=keyset&per_page=50&sort=asc",
+                ApiResponse.parseLink(header, "first")
+        );
+        Assert.assertNull(ApiResponse.parseLink(header, "last"));
+        Assert.assertEquals("http://a/?page=3", ApiResponse.parseLink("<http://a/?page=1>; rel=\"prev first\", <http://a/?page=3>;rel=next", "next"));
+        Assert.assertEquals("http://a/?page=1", ApiResponse.parseLink("<http://a/?page=1>; rel=\"prev first\", <http://a/?page=3>;rel=next", "first"));
+        Assert.assertNull(ApiResponse.parseLink(null, "next"));
+        Assert.assertNull(ApiResponse.parseLink("", "next"));
+    }
+}
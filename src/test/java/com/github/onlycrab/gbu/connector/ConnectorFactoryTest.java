@@ -0,0 +1,94 @@
+package com.github.onlycrab.gbu.connector;
+
+import com.github.onlycrab.gbu.benchmark.GitlabStubServer;
+import com.github.onlycrab.gbu.exception.ApiConnectorException;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link ConnectorFactory} test class.
+ */
+public class ConnectorFactoryTest {
+    /**
+     * {@link ConnectorFactory#create(boolean, byte[])}.
+     */
+    @Test
+    public void create() throws ApiConnectorException {
+        Assert.assertEquals(ApiConnector.class, ConnectorFactory.create(false, null).getClass());
+        Assert.assertThrows(ApiConnectorException.class, () -> ConnectorFactory.create(false, new byte[]{ 1, 2, 3 }));
+
+        Connector connector = ConnectorFactory.create(true, null);
+        if (isHttpClientAvailable()) {
+            Assert.assertEquals(ConnectorFactory.HTTP_CLIENT_CONNECTOR, connector.getClass().getName());
+            Assert.assertThrows(ApiConnectorException.class, () -> ConnectorFactory.create(true, new byte[]{ 1, 2, 3 }));
+        } else {
+            Assert.assertEquals(ApiConnector.class, connector.getClass());
+        }
+    }
+
+    /**
+     * Synchronous and asynchronous requests of every available connector to Gitlab API stub.
+     */
+    @Test
+    public void requests() throws Exception {
+        List<Connector> connectors = new ArrayList<>();
+        connectors.add(ConnectorFactory.create(false, null));
+        if (isHttpClientAvailable()) {
+            connectors.add(ConnectorFactory.create(true, null));
+        }
+        GitlabStubServer server = GitlabStubServer.https(30, 10, 0);
+        server.start();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (Connector connector : connectors) {
+                URL url = new URL(server.getAddress() + "/api/v4/users?page=2&per_page=10&private_token=token");
+                ApiResponse<String> response = connector.request(url, RequestMethod.GET, 30, null);
+                Assert.assertEquals(200, response.getCode());
+                Assert.assertTrue(response.getBody().startsWith("[{\"id\":11,"));
+                Assert.assertEquals("3", response.getHeader("x-next-page"));
+                Assert.assertEquals("true", connector.execute(new URL(server.getAddress() + "/api/v4/users/1/block"),
+                        RequestMethod.POST, 30, null));
+
+                List<CompletableFuture<ApiResponse<Integer>>> futures = new ArrayList<>();
+                for (int page = 1; page <= 3; page++) {
+                    futures.add(connector.requestAsync(new URL(server.getAddress() + "/api/v4/users?per_page=10&page=" + page),
+                            RequestMethod.GET, 30, null, reader -> new BufferedReader(reader).readLine().length(), executor));
+                }
+                for (CompletableFuture<ApiResponse<Integer>> future : futures) {
+                    Assert.assertTrue(future.get().getBody() > 2);
+                }
+
+                try {
+                    connector.requestAsync(new URL(server.getAddress() + "/api/v4/users?per_page=10"), RequestMethod.GET, 30, null,
+                            reader -> { throw new IOException("broken"); }, executor).get();
+                    Assert.fail(connector.getClass().getName());
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof ApiConnectorException);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            server.stop();
+        }
+    }
+
+    private static boolean isHttpClientAvailable() {
+        try {
+            Class.forName(ConnectorFactory.HTTP_CLIENT_CONNECTOR);
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
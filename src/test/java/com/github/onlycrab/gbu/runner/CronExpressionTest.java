@@ -0,0 +1,58 @@
+package com.github.onlycrab.gbu.runner;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * {@link CronExpression} test class.
+ */
+public class CronExpressionTest {
+    private static final ZoneId ZONE = ZoneOffset.UTC;
+
+    /**
+     * {@link CronExpression#next(long)}.
+     */
+    @Test
+    public void next() {
+        //2024-01-31 is Wednesday
+        long time = millis(LocalDateTime.of(2024, 1, 31, 10, 7, 30));
+        Assert.assertEquals(millis(LocalDateTime.of(2024, 1, 31, 10, 8)), new CronExpression("* * * * *", ZONE).next(time));
+        Assert.assertEquals(millis(LocalDateTime.of(2024, 1, 31, 10, 10)), new CronExpression("*/5 * * * *", ZONE).next(time));
+        Assert.assertEquals(millis(LocalDateTime.of(2024, 1, 31, 11, 0)), new CronExpression("0 * * * *", ZONE).next(time));
+        Assert.assertEquals(millis(LocalDateTime.of(2024, 1, 31, 11, 30)), new CronExpression("30 9-18/2 * * *", ZONE).next(time));
+        Assert.assertEquals(millis(LocalDateTime.of(2024, 2, 29, 0, 0)), new CronExpression("0 0 29 2 *", ZONE).next(time));
+        Assert.assertEquals(millis(LocalDateTime.of(2024, 2, 15, 0, 0)), new CronExpression("0 0 15,20 * *", ZONE).next(time));
+        //Sunday is both 0 and 7
+        Assert.assertEquals(millis(LocalDateTime.of(2024, 2, 4, 0, 0)), new CronExpression("0 0 * * 0", ZONE).next(time));
+        Assert.assertEquals(millis(LocalDateTime.of(2024, 2, 4, 0, 0)), new CronExpression("0 0 * * 7", ZONE).next(time));
+        Assert.assertEquals(millis(LocalDateTime.of(2024, 2, 2, 0, 0)), new CronExpression("0 0 * * 5-6", ZONE).next(time));
+        //Day of month or day of week
+        Assert.assertEquals(millis(LocalDateTime.of(2024, 2, 1, 0, 0)), new CronExpression("0 0 1 * 0", ZONE).next(time));
+        Assert.assertEquals(millis(LocalDateTime.of(2025, 1, 1, 0, 0)), new CronExpression("0 0 1 1 *", ZONE).next(time));
+    }
+
+    /**
+     * {@link CronExpression#CronExpression(String, ZoneId)} with wrong expressions.
+     */
+    @Test
+    public void wrong() {
+        for (String expression : new String[]{ null, "* * * *", "60 * * * *", "* 5-1 * * *", "* * 0 * *", "* * * 13 *", "a * * * *", "*/0 * * * *" }){
+            try {
+                new CronExpression(expression, ZONE);
+                Assert.fail("IllegalArgumentException expected, but nothing was thrown : " + expression);
+            } catch (IllegalArgumentException ignore){ }
+        }
+        try {
+            new CronExpression("0 0 30 2 *", ZONE).next(0);
+            Assert.fail("IllegalArgumentException expected, but nothing was thrown : February 30");
+        } catch (IllegalArgumentException ignore){ }
+    }
+
+    private static long millis(LocalDateTime time) {
+        return time.atZone(ZONE).toInstant().toEpochMilli();
+    }
+}
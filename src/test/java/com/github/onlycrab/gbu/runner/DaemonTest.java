@@ -0,0 +1,59 @@
+package com.github.onlycrab.gbu.runner;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Daemon} test class.
+ */
+public class DaemonTest {
+    /**
+     * {@link Daemon#run()} and {@link Daemon#stop()}.
+     */
+    @Test
+    public void run() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        AtomicInteger active = new AtomicInteger();
+        Daemon[] daemon = new Daemon[1];
+        daemon[0] = new Daemon(() -> {
+            Assert.assertEquals(1, active.incrementAndGet());
+            try {
+                if (runs.incrementAndGet() == 2){
+                    throw new IllegalStateException("failed run");
+                }
+                //Longer than interval
+                Thread.sleep(30);
+                if (runs.get() == 4){
+                    daemon[0].stop();
+                }
+            } finally {
+                active.decrementAndGet();
+            }
+        }, 20);
+        Thread thread = new Thread(daemon[0]::run);
+        thread.start();
+        Assert.assertTrue(daemon[0].awaitTermination(5000));
+        thread.join();
+        //Failed run does not stop daemon, stopped daemon does not start runs
+        Assert.assertEquals(4, runs.get());
+    }
+
+    /**
+     * {@link Daemon#next(long, long)}.
+     */
+    @Test
+    public void next() {
+        Daemon daemon = new Daemon(() -> { }, 10);
+        Assert.assertEquals(10, daemon.next(0, 3));
+        Assert.assertEquals(10, daemon.next(0, 10));
+        //Missed runs are skipped
+        Assert.assertEquals(30, daemon.next(0, 25));
+
+        daemon = new Daemon(() -> { }, new CronExpression("*/5 * * * *", ZoneOffset.UTC));
+        Assert.assertEquals(300000, daemon.next(0, 1000));
+        Assert.assertEquals(600000, daemon.next(0, 400000));
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.onlycrab.gbu.worker;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+/**
+ * {@link ChangeWatermark} test class.
+ */
+public class ChangeWatermarkTest {
+    /**
+     * {@link ChangeWatermark#save(File)} and {@link ChangeWatermark#load(File)}.
+     */
+    @Test
+    public void saveLoad() throws IOException {
+        File file = File.createTempFile("watermark", ".properties");
+        try {
+            Assert.assertTrue(file.delete());
+            ChangeWatermark empty = ChangeWatermark.load(file);
+            Assert.assertNull(empty.getUsn("dc1"));
+            Assert.assertEquals(0, empty.getFullSync());
+            Assert.assertEquals(-1, empty.getDirectorySize());
+
+            ChangeWatermark watermark = new ChangeWatermark();
+            watermark.setUsn("CN=NTDS Settings,CN=DC1,CN=Servers,DC=my,DC=com", 12345678901L);
+            watermark.setUsn("dc2", 7);
+            watermark.setFullSync(1000);
+            watermark.setGitlabScan(3000);
+            watermark.setGitlabFullScan(2000);
+            watermark.setDirectorySize(150000);
+            watermark.save(file);
+
+            ChangeWatermark actual = ChangeWatermark.load(file);
+            Assert.assertEquals(Long.valueOf(12345678901L), actual.getUsn("CN=NTDS Settings,CN=DC1,CN=Servers,DC=my,DC=com"));
+            Assert.assertEquals(Long.valueOf(7), actual.getUsn("dc2"));
+            Assert.assertEquals(1000, actual.getFullSync());
+            Assert.assertEquals(3000, actual.getGitlabScan());
+            Assert.assertEquals(2000, actual.getGitlabFullScan());
+            Assert.assertEquals(150000, actual.getDirectorySize());
+
+            Files.write(file.toPath(), Collections.singletonList("usn.dc1=abc"), StandardCharsets.UTF_8);
+            try {
+                ChangeWatermark.load(file);
+                Assert.fail("IOException expected, but nothing was thrown : wrong USN");
+            } catch (IOException ignore){ }
+        } finally {
+            Assert.assertTrue(!file.exists() || file.delete());
+        }
+    }
+
+    /**
+     * {@link ChangeWatermark#isFullSyncDue(long, long)}.
+     */
+    @Test
+    public void isFullSyncDue() {
+        ChangeWatermark watermark = new ChangeWatermark();
+        Assert.assertTrue(watermark.isFullSyncDue(1000, 5000));
+        watermark.setFullSync(4500);
+        Assert.assertFalse(watermark.isFullSyncDue(1000, 5000));
+        Assert.assertTrue(watermark.isFullSyncDue(1000, 5500));
+        Assert.assertTrue(watermark.isFullSyncDue(0, 4500));
+    }
+
+    /**
+     * {@link ChangeWatermark#isGitlabFullScanDue(long, long)}.
+     */
+    @Test
+    public void isGitlabFullScanDue() {
+        ChangeWatermark watermark = new ChangeWatermark();
+        Assert.assertTrue(watermark.isGitlabFullScanDue(1000, 5000));
+        watermark.setGitlabFullScan(4500);
+        watermark.setGitlabScan(4800);
+        Assert.assertFalse(watermark.isGitlabFullScanDue(1000, 5000));
+        Assert.assertTrue(watermark.isGitlabFullScanDue(1000, 5500));
+        Assert.assertTrue(watermark.isGitlabFullScanDue(0, 4800));
+    }
+}
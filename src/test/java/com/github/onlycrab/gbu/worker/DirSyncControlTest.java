@@ -0,0 +1,91 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.exception.LdapException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import java.util.Arrays;
+
+/**
+ * {@link DirSyncControl} test class.
+ */
+public class DirSyncControlTest {
+    /**
+     * {@link DirSyncControl#getEncodedValue()}.
+     */
+    @Test
+    public void encode() {
+        DirSyncControl control = new DirSyncControl(DirSyncControl.OBJECT_SECURITY, null);
+        Assert.assertEquals(DirSyncControl.OID, control.getID());
+        Assert.assertTrue(control.isCritical());
+        Assert.assertArrayEquals(bytes(0x30, 0x0b, 0x02, 0x01, 0x01, 0x02, 0x04, 0x7f, 0xff, 0xff, 0xff, 0x04, 0x00),
+                control.getEncodedValue());
+
+        //Long form of length, sign byte of integer
+        byte[] cookie = new byte[200];
+        Arrays.fill(cookie, (byte) 7);
+        byte[] value = new DirSyncControl(0x80, cookie).getEncodedValue();
+        Assert.assertArrayEquals(bytes(0x30, 0x81, 0xd5, 0x02, 0x02, 0x00, 0x80), Arrays.copyOfRange(value, 0, 7));
+        Assert.assertArrayEquals(bytes(0x04, 0x81, 0xc8), Arrays.copyOfRange(value, 13, 16));
+        Assert.assertArrayEquals(cookie, Arrays.copyOfRange(value, 16, value.length));
+    }
+
+    /**
+     * {@link DirSyncControl#getResponse(Control[])}.
+     */
+    @Test
+    public void getResponse() throws LdapException {
+        byte[] cookie = new byte[300];
+        Arrays.fill(cookie, (byte) 1);
+        DirSyncControl.Response response = DirSyncControl.getResponse(new Control[]{
+                new BasicControl("1.2.840.113556.1.4.319"),
+                new BasicControl(DirSyncControl.OID, false, encodeResponse(true, cookie))
+        });
+        Assert.assertNotNull(response);
+        Assert.assertTrue(response.isMoreResults());
+        Assert.assertArrayEquals(cookie, response.getCookie());
+
+        Assert.assertFalse(DirSyncControl.parse(encodeResponse(false, new byte[]{ 5 })).isMoreResults());
+        Assert.assertNull(DirSyncControl.getResponse(null));
+        Assert.assertNull(DirSyncControl.getResponse(new Control[0]));
+
+        try {
+            DirSyncControl.parse(bytes(0x30, 0x08, 0x02, 0x01, 0x00));
+            Assert.fail("LdapException expected, but nothing was thrown : response is truncated");
+        } catch (LdapException ignore){ }
+        try {
+            DirSyncControl.parse(bytes(0x04, 0x00));
+            Assert.fail("LdapException expected, but nothing was thrown : wrong tag");
+        } catch (LdapException ignore){ }
+    }
+
+    /**
+     * Encode DirSync response control value like Active Directory does.
+     *
+     * @param more more results flag
+     * @param cookie cookie
+     * @return BER-encoded value
+     */
+    static byte[] encodeResponse(boolean more, byte[] cookie) {
+        byte[] head = bytes(0x02, 0x01, more ? 0x01 : 0x00, 0x02, 0x01, 0x00, 0x04);
+        byte[] cookieLength = cookie.length < 0x80 ? bytes(cookie.length) : bytes(0x82, cookie.length >> 8, cookie.length);
+        int length = head.length + cookieLength.length + cookie.length;
+        byte[] sequence = length < 0x80 ? bytes(0x30, length) : bytes(0x30, 0x82, length >> 8, length);
+        byte[] value = new byte[sequence.length + length];
+        System.arraycopy(sequence, 0, value, 0, sequence.length);
+        System.arraycopy(head, 0, value, sequence.length, head.length);
+        System.arraycopy(cookieLength, 0, value, sequence.length + head.length, cookieLength.length);
+        System.arraycopy(cookie, 0, value, sequence.length + head.length + cookieLength.length, cookie.length);
+        return value;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++){
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
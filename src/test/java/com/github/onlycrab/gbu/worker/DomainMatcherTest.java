@@ -0,0 +1,56 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.exception.LdapException;
+import com.github.onlycrab.gbu.model.Identity;
+import com.github.onlycrab.gbu.model.User;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * {@link DomainMatcher} test class.
+ */
+public class DomainMatcherTest {
+    /**
+     * {@link DomainMatcher#matches(String)}.
+     */
+    @Test
+    public void matches() throws LdapException {
+        DomainMatcher matcher = new DomainMatcher(Arrays.asList("ou=Users,DC=Example,DC=com", " dc=other,dc=com ", ""), null);
+        for (String dn : new String[]{ "cn=u1,ou=users,dc=example,dc=com", "CN=U2,OU=Users,DC=EXAMPLE,DC=COM",
+                "dc=example,dc=com", "cn=u3,dc=other,dc=com" }){
+            Assert.assertTrue(dn, matcher.matches(dn));
+        }
+        for (String dn : new String[]{ "cn=u1,ou=users,dc=example2,dc=com", "cn=u1,dc=example", "cn=u1,dc=sub,dc=example,dc=com",
+                "dc=com", "", null }){
+            Assert.assertFalse(dn, matcher.matches(dn));
+        }
+        //Result is the same as comparing parsed domains
+        for (String dn : new String[]{ "cn=a\\,dc=x,dc=example,dc=com", "cn=u,ou=dc=,dc=example,dc=com" }){
+            Assert.assertEquals(dn, LdapSearcher.parseDomain(dn).equalsIgnoreCase("dc=example,dc=com"), matcher.matches(dn));
+        }
+    }
+
+    /**
+     * {@link DomainMatcher#matches(String)} with identity without domain.
+     */
+    @Test(expected = LdapException.class)
+    public void matchesWithoutDomain() throws LdapException {
+        new DomainMatcher(Collections.singletonList("dc=example,dc=com"), null).matches("cn=u1,ou=users");
+    }
+
+    /**
+     * {@link DomainMatcher#hasIdentity(User)} with accepted providers.
+     */
+    @Test
+    public void hasIdentity() throws LdapException {
+        DomainMatcher matcher = new DomainMatcher(Collections.singletonList("dc=example,dc=com"), Arrays.asList("ldapmain", " LDAPsecondary"));
+        Assert.assertTrue(matcher.hasIdentity(new User(1, "u1", "active",
+                new Identity[]{ new Identity("github", "12345"), new Identity("ldapsecondary", "cn=u1,dc=example,dc=com") })));
+        Assert.assertFalse(matcher.hasIdentity(new User(2, "u2", "active",
+                new Identity[]{ new Identity("ldapother", "cn=u2,dc=example,dc=com") })));
+        Assert.assertFalse(matcher.hasIdentity(new User(3, "u3", "active", null)));
+    }
+}
@@ -1,7 +1,9 @@
 package com.github.onlycrab.gbu.worker;
 
 import com.github.onlycrab.gbu.connector.ApiConnector;
+import com.github.onlycrab.gbu.connector.ApiResponse;
 import com.github.onlycrab.gbu.connector.RequestMethod;
+import com.github.onlycrab.gbu.connector.ResponseReader;
 import com.github.onlycrab.gbu.exception.ApiConnectorException;
 import com.github.onlycrab.gbu.exception.JsonConverterException;
 import com.github.onlycrab.gbu.model.Identity;
@@ -11,8 +13,17 @@ import com.github.onlycrab.gbu.worker.JsonConverter;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * {@link GitlabApi} test class.
@@ -82,27 +93,6 @@ public class GitlabApiTest {
         }
     }
 
-    /**
-     * {@link GitlabApi#union(User[], User[])}.
-     */
-    @Test
-    public void union() {
-        GitlabApi api = new GitlabApi(null, null);
-        User user1 = new User(1, "1", null, null);
-        User user2 = new User(2, "2", null, null);
-        User user3 = new User(3, "3", null, null);
-        User user4 = new User(4, "4", null, null);
-        User user5 = new User(5, "5", null, null);
-        User[] arr1 = new User[]{ user1, user2 };
-        User[] arr2 = new User[]{ user3, user4, user5 };
-        User[] arr3 = new User[]{ user1, user2, user3, user4, user5 };
-
-        Assert.assertArrayEquals(new User[0], api.union(null, null));
-        Assert.assertArrayEquals(arr1, api.union(arr1, null));
-        Assert.assertArrayEquals(arr1, api.union(new User[0], arr1));
-        Assert.assertArrayEquals(arr3, api.union(arr1, arr2));
-    }
-
     /**
      * {@link GitlabApi#getAllGitUsers()}.
      */
@@ -132,26 +122,36 @@ public class GitlabApiTest {
             Mockito.doCallRealMethod().when(api).setConverter(converter);
             Mockito.doCallRealMethod().when(api).setAddress(address);
             Mockito.doCallRealMethod().when(api).setToken(token);
-
-            Mockito.when(api.union(Mockito.any(User[].class), Mockito.any(User[].class))).thenCallRealMethod();
-
-            Mockito.when(api.getUrl(GitlabApi.TEMPLATE_USERS, address, 1, token)).thenReturn(urlPage1);
-            Mockito.when(api.getUrl(GitlabApi.TEMPLATE_USERS, address, 2, token)).thenReturn(urlPage2);
-            Mockito.when(api.getUrl(GitlabApi.TEMPLATE_USERS, address, 3, token)).thenReturn(urlPage3);
-        } catch (ApiConnectorException e) {
+            Mockito.doCallRealMethod().when(api).setScheduler(Mockito.any());
+
+            Mockito.doCallRealMethod().when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            Mockito.doCallRealMethod().when(api).getAllGitUsers(Mockito.any(), Mockito.any(UserPageHandler.class));
+            Mockito.when(api.getUsers(Mockito.any())).thenCallRealMethod();
+            Mockito.when(api.getUsersPage(Mockito.anyLong(), Mockito.any())).thenCallRealMethod();
+            Mockito.when(api.getUsersQuery(Mockito.any())).thenCallRealMethod();
+            Mockito.when(api.hasNextPage(Mockito.any(), Mockito.any())).thenCallRealMethod();
+
+            Mockito.when(api.getUrl(String.format(GitlabApi.TEMPLATE_USERS, address, 1, token) + api.getUsersQuery(null))).thenReturn(urlPage1);
+            Mockito.when(api.getUrl(String.format(GitlabApi.TEMPLATE_USERS, address, 2, token) + api.getUsersQuery(null))).thenReturn(urlPage2);
+            Mockito.when(api.getUrl(String.format(GitlabApi.TEMPLATE_USERS, address, 3, token) + api.getUsersQuery(null))).thenReturn(urlPage3);
+        } catch (ApiConnectorException | JsonConverterException e) {
             Assert.fail(e.getMessage());
             return;
         }
 
         try {
-            Mockito.when(connector.execute(urlPage1, RequestMethod.GET, api.getTimeout(), null)).thenReturn(response1);
-            Mockito.when(connector.execute(urlPage2, RequestMethod.GET, api.getTimeout(), null)).thenReturn(response2);
-            Mockito.when(connector.execute(urlPage3, RequestMethod.GET, api.getTimeout(), null)).thenReturn(response3);
+            Mockito.when(connector.request(Mockito.eq(urlPage1), Mockito.eq(RequestMethod.GET), Mockito.anyInt(), Mockito.isNull(), Mockito.<ResponseReader<User[]>>any()))
+                    .thenAnswer(streamed(response1));
+            Mockito.when(connector.request(Mockito.eq(urlPage2), Mockito.eq(RequestMethod.GET), Mockito.anyInt(), Mockito.isNull(), Mockito.<ResponseReader<User[]>>any()))
+                    .thenAnswer(streamed(response2));
+            Mockito.when(connector.request(Mockito.eq(urlPage3), Mockito.eq(RequestMethod.GET), Mockito.anyInt(), Mockito.isNull(), Mockito.<ResponseReader<User[]>>any()))
+                    .thenAnswer(streamed(response3));
 
             api.setConnector(connector);
             api.setConverter(converter);
             api.setAddress(address);
             api.setToken(token);
+            api.setScheduler(new RequestScheduler());
             Mockito.when(api.getAllGitUsers()).thenCallRealMethod();
         } catch (Exception e) {
             Assert.fail(e.getMessage());
@@ -174,6 +174,305 @@ public class GitlabApiTest {
         Assert.assertArrayEquals(expected, actual);
     }
 
+    /**
+     * {@link GitlabApi#setPerPage(int)} and {@link GitlabApi#hasNextPage(ApiResponse, User[])}.
+     */
+    @Test
+    public void hasNextPage() {
+        GitlabApi api = new GitlabApi(null, null);
+        Assert.assertEquals(GitlabApi.MAX_PER_PAGE, api.getPerPage());
+        api.setPerPage(0);
+        api.setPerPage(GitlabApi.MAX_PER_PAGE + 1);
+        Assert.assertEquals(GitlabApi.MAX_PER_PAGE, api.getPerPage());
+        api.setPerPage(20);
+        Assert.assertEquals(20, api.getPerPage());
+
+        User[] page = new User[]{ new User("u1"), new User("u2") };
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put(GitlabApi.HEADER_NEXT_PAGE, Collections.singletonList(""));
+        //Last page
+        Assert.assertFalse(api.hasNextPage(new ApiResponse<>(200, "", headers), page));
+        Assert.assertEquals(20, api.getPerPage());
+        //No pagination headers : until an empty page
+        Assert.assertTrue(api.hasNextPage(new ApiResponse<>(""), page));
+        Assert.assertFalse(api.hasNextPage(new ApiResponse<>(""), new User[0]));
+        //Gitlab returned less users than requested on a non-final page
+        headers.put(GitlabApi.HEADER_NEXT_PAGE, Collections.singletonList("3"));
+        Assert.assertTrue(api.hasNextPage(new ApiResponse<>(200, "", headers), page));
+        Assert.assertEquals(page.length, api.getPerPage());
+    }
+
+    /**
+     * {@link GitlabApi#getUsersQuery(UserQuery)}.
+     */
+    @Test
+    public void getUsersQuery() {
+        GitlabApi api = new GitlabApi(null, null);
+        api.setPerPage(20);
+        Assert.assertEquals("&per_page=20", api.getUsersQuery(null));
+
+        UserQuery query = new UserQuery();
+        query.setActive(true);
+        query.setProvider("ldapmain");
+        query.setExternUid("cn=user 1,dc=my,dc=com");
+        query.setWithoutProjectBots(true);
+        Assert.assertEquals(
+                "&per_page=20&active=true&provider=ldapmain&extern_uid=cn%3Duser+1%2Cdc%3Dmy%2Cdc%3Dcom&without_project_bots=true",
+                api.getUsersQuery(query)
+        );
+
+        //Provider is used only together with extern UID
+        query.setExternUid(null);
+        Assert.assertEquals("&per_page=20&active=true&without_project_bots=true", api.getUsersQuery(query));
+
+        query.setCreatedAfter("2024-01-31T10:00:00Z");
+        Assert.assertEquals("&per_page=20&active=true&without_project_bots=true&created_after=2024-01-31T10%3A00%3A00Z", api.getUsersQuery(query));
+    }
+
+    /**
+     * {@link GitlabApi#getGitUsersCreatedAfter(long)}.
+     */
+    @Test
+    public void getGitUsersCreatedAfter() throws Exception {
+        GitlabApi api = Mockito.mock(GitlabApi.class);
+        Mockito.doCallRealMethod().when(api).setQuery(Mockito.any());
+        Mockito.when(api.getQuery()).thenCallRealMethod();
+        Mockito.when(api.getGitUsersCreatedAfter(Mockito.anyLong())).thenCallRealMethod();
+        Mockito.doCallRealMethod().when(api).getGitUsersCreatedAfter(Mockito.anyLong(), Mockito.any(UserPageHandler.class));
+        UserQuery query = new UserQuery();
+        query.setHumans(true);
+        api.setQuery(query);
+
+        List<String> queries = new ArrayList<>();
+        User[] users = new User[]{ new User(5, "u5", "active", new Identity[0]) };
+        Mockito.doAnswer(invocation -> {
+            queries.add(((UserQuery) invocation.getArgument(0)).toQuery());
+            //Query of all users is not swapped during the call
+            Assert.assertSame(query, api.getQuery());
+            ((UserPageHandler) invocation.getArgument(1)).onPage(users);
+            return null;
+        }).when(api).getAllGitUsers(Mockito.any(), Mockito.any(UserPageHandler.class));
+        Assert.assertArrayEquals(users, api.getGitUsersCreatedAfter(1706695200000L));
+        Assert.assertEquals(Collections.singletonList("&humans=true&created_after=2024-01-31T10%3A00%3A00Z"), queries);
+        //Query of all users is not changed
+        Assert.assertSame(query, api.getQuery());
+        Assert.assertNull(query.getCreatedAfter());
+    }
+
+    /**
+     * {@link GitlabApi#getAllGitUsers()} with concurrent page fetching.
+     */
+    @Test
+    public void getAllGitUsersConcurrent() {
+        int pages = 7;
+        User[] expected = new User[pages * 2];
+        for (int i = 0; i < expected.length; i++){
+            expected[i] = new User(i + 1, "user" + (i + 1), "active", new Identity[]{});
+        }
+
+        //Gitlab returns total number of pages
+        GitlabApi api = mockConcurrentApi(expected, pages, true);
+        try {
+            Assert.assertArrayEquals(expected, api.getAllGitUsers());
+            Mockito.verify(api, Mockito.never()).getUsersPageAsync(Mockito.eq(pages + 1L), Mockito.any(), Mockito.any());
+        } catch (ApiConnectorException | JsonConverterException e) {
+            Assert.fail(e.getMessage());
+        }
+
+        //Gitlab does not return total number of pages
+        api = mockConcurrentApi(expected, pages, false);
+        try {
+            Assert.assertArrayEquals(expected, api.getAllGitUsers());
+        } catch (ApiConnectorException | JsonConverterException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * {@link GitlabApi#getAllGitUsers(UserPageHandler)}.
+     */
+    @Test
+    public void getAllGitUsersHandler() {
+        GitlabApi api = Mockito.mock(GitlabApi.class);
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put(GitlabApi.HEADER_TOTAL, Collections.singletonList("3"));
+        List<Integer> totals = new ArrayList<>();
+        List<User[]> pages = new ArrayList<>();
+        try {
+            Mockito.doCallRealMethod().when(api).setConverter(Mockito.any());
+            Mockito.when(api.hasNextPage(Mockito.any(), Mockito.any())).thenCallRealMethod();
+            Mockito.doCallRealMethod().when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            Mockito.doCallRealMethod().when(api).getAllGitUsers(Mockito.any(), Mockito.any(UserPageHandler.class));
+            api.setConverter(new JsonConverter());
+            Mockito.when(api.getUsersPage(Mockito.eq(1L), Mockito.any())).thenReturn(page(200,
+                    "[{\"id\": 3, \"username\": \"u3\"}, {\"id\": 2, \"username\": \"u2\"}]", headers));
+            Mockito.when(api.getUsersPage(Mockito.eq(2L), Mockito.any())).thenReturn(page("[{\"id\": 1, \"username\": \"u1\"}]"));
+            Mockito.when(api.getUsersPage(Mockito.eq(3L), Mockito.any())).thenReturn(page("[]"));
+
+            api.getAllGitUsers(new UserPageHandler() {
+                @Override
+                public void onTotal(int total) {
+                    totals.add(total);
+                }
+
+                @Override
+                public void onPage(User[] users) {
+                    pages.add(users);
+                }
+            });
+        } catch (ApiConnectorException | JsonConverterException | IOException e) {
+            Assert.fail(e.getMessage());
+            return;
+        }
+
+        Assert.assertEquals(Collections.singletonList(3), totals);
+        Assert.assertEquals(2, pages.size());
+        Assert.assertArrayEquals(new User[]{ new User(3, "u3", null, null), new User(2, "u2", null, null) }, pages.get(0));
+        Assert.assertArrayEquals(new User[]{ new User(1, "u1", null, null) }, pages.get(1));
+    }
+
+    /**
+     * {@link GitlabApi#getAllGitUsers()} with keyset pagination.
+     */
+    @Test
+    public void getAllGitUsersKeyset() {
+        String address = "http://localhost/pointNotExist";
+        String token = "token";
+        ApiConnector connector = Mockito.mock(ApiConnector.class);
+        GitlabApi api = Mockito.mock(GitlabApi.class);
+        String first = String.format(GitlabApi.TEMPLATE_USERS_KEYSET, address, token) + "&per_page=50";
+        String second = address + "/api/v4/users?cursor=abc&pagination=keyset&per_page=50";
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put("Link", Collections.singletonList(String.format("<%s>; rel=\"next\", <%s>; rel=\"first\"", second, first)));
+        User[] expected = new User[]{
+                new User(1, "user1", "active", new Identity[]{}),
+                new User(2, "user2", "blocked", new Identity[]{})
+        };
+        try {
+            Mockito.doCallRealMethod().when(api).setConnector(connector);
+            Mockito.doCallRealMethod().when(api).setConverter(Mockito.any());
+            Mockito.doCallRealMethod().when(api).setAddress(address);
+            Mockito.doCallRealMethod().when(api).setToken(token);
+            Mockito.doCallRealMethod().when(api).setPagination(Mockito.any());
+            Mockito.doCallRealMethod().when(api).setPerPage(Mockito.anyInt());
+            Mockito.doCallRealMethod().when(api).setScheduler(Mockito.any());
+            Mockito.when(api.getUrl(Mockito.anyString())).thenCallRealMethod();
+            Mockito.doCallRealMethod().when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            Mockito.doCallRealMethod().when(api).getAllGitUsers(Mockito.any(), Mockito.any(UserPageHandler.class));
+            Mockito.when(api.getUsers(Mockito.any())).thenCallRealMethod();
+            Mockito.when(api.hasNextPage(Mockito.any(), Mockito.any())).thenCallRealMethod();
+            Mockito.when(api.getUsersQuery(Mockito.any())).thenCallRealMethod();
+            Mockito.doCallRealMethod().when(api).getUsersByLinks(Mockito.any(), Mockito.any());
+            Mockito.when(api.getAllGitUsers()).thenCallRealMethod();
+            api.setConnector(connector);
+            api.setConverter(new JsonConverter());
+            api.setAddress(address);
+            api.setToken(token);
+            api.setPagination(Pagination.KEYSET);
+            api.setPerPage(50);
+            api.setScheduler(new RequestScheduler());
+
+            Mockito.when(connector.request(Mockito.eq(new URL(first)), Mockito.eq(RequestMethod.GET), Mockito.anyInt(), Mockito.isNull(), Mockito.<ResponseReader<User[]>>any()))
+                    .thenAnswer(streamed(200,
+                    "[{\"id\": 1, \"username\": \"user1\", \"state\": \"active\", \"identities\": []}]", headers));
+            Mockito.when(connector.request(Mockito.eq(new URL(second)), Mockito.eq(RequestMethod.GET), Mockito.anyInt(), Mockito.isNull(), Mockito.<ResponseReader<User[]>>any()))
+                    .thenAnswer(streamed(
+                    "[{\"id\": 2, \"username\": \"user2\", \"state\": \"blocked\", \"identities\": []}]"));
+            Assert.assertArrayEquals(expected, api.getAllGitUsers());
+            Mockito.verify(api, Mockito.never()).getUsersPage(Mockito.anyLong(), Mockito.any());
+
+            //Gitlab rejects keyset pagination : offset pagination is used
+            api.setPerPage(50);
+            Mockito.doThrow(new ApiConnectorException("Error at reading response : Server returned HTTP response code: 405.",
+                            new ApiResponse<>(405, "", Collections.emptyMap())))
+                    .when(connector).request(Mockito.eq(new URL(first)), Mockito.eq(RequestMethod.GET), Mockito.anyInt(), Mockito.isNull(), Mockito.<ResponseReader<User[]>>any());
+            Mockito.when(api.getUsersPage(Mockito.eq(1L), Mockito.any())).thenReturn(page(
+                    "[{\"id\": 1, \"username\": \"user1\", \"state\": \"active\", \"identities\": []}]"));
+            Mockito.when(api.getUsersPage(Mockito.eq(2L), Mockito.any())).thenReturn(page(
+                    "[{\"id\": 2, \"username\": \"user2\", \"state\": \"blocked\", \"identities\": []}]"));
+            Mockito.when(api.getUsersPage(Mockito.eq(3L), Mockito.any())).thenReturn(page("[]"));
+            Assert.assertArrayEquals(expected, api.getAllGitUsers());
+
+            //Other errors are not hidden by offset pagination
+            Mockito.doThrow(new ApiConnectorException("Error at reading response : Server returned HTTP response code: 401.",
+                            new ApiResponse<>(401, "", Collections.emptyMap())))
+                    .when(connector).request(Mockito.eq(new URL(first)), Mockito.eq(RequestMethod.GET), Mockito.anyInt(), Mockito.isNull(), Mockito.<ResponseReader<User[]>>any());
+            try {
+                api.getAllGitUsers();
+                Assert.fail("ApiConnectorException expected, but nothing was thrown : unauthorized");
+            } catch (ApiConnectorException e){
+                Assert.assertEquals(401, e.getCode());
+            }
+        } catch (Exception e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Build {@link GitlabApi} mock which returns {@code users} by two per page.
+     */
+    private GitlabApi mockConcurrentApi(User[] users, int pages, boolean withTotal) {
+        GitlabApi api = Mockito.mock(GitlabApi.class);
+        try {
+            Mockito.doCallRealMethod().when(api).setPageThreads(Mockito.anyInt());
+            Mockito.doCallRealMethod().when(api).setConverter(Mockito.any());
+            Mockito.doCallRealMethod().when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            Mockito.doCallRealMethod().when(api).getAllGitUsers(Mockito.any(), Mockito.any(UserPageHandler.class));
+            Mockito.when(api.hasNextPage(Mockito.any(), Mockito.any())).thenCallRealMethod();
+            Mockito.when(api.getPages(Mockito.anyInt(), Mockito.anyInt(), Mockito.any())).thenCallRealMethod();
+            Mockito.when(api.getAllGitUsers()).thenCallRealMethod();
+            api.setConverter(new JsonConverter());
+            api.setPageThreads(3);
+
+            Map<String, List<String>> headers = new HashMap<>();
+            if (withTotal){
+                headers.put(GitlabApi.HEADER_TOTAL_PAGES, Collections.singletonList(String.valueOf(pages)));
+            }
+            for (int page = 1; page <= pages + 3; page++){
+                StringBuilder json = new StringBuilder("[");
+                for (int i = (page - 1) * 2; i < page * 2 && i < users.length; i++){
+                    if (json.length() > 1){
+                        json.append(",");
+                    }
+                    json.append(String.format("{\"id\": %s, \"username\": \"%s\", \"state\": \"active\", \"identities\": []}",
+                            users[i].getId(), users[i].getUsername()));
+                }
+                json.append("]");
+                Mockito.when(api.getUsersPage(Mockito.eq((long) page), Mockito.any())).thenReturn(page(200, json.toString(), headers));
+                Mockito.when(api.getUsersPageAsync(Mockito.eq((long) page), Mockito.any(), Mockito.any()))
+                        .thenReturn(CompletableFuture.completedFuture(page(200, json.toString(), headers)));
+            }
+        } catch (ApiConnectorException | JsonConverterException | IOException e) {
+            Assert.fail(e.getMessage());
+        }
+        return api;
+    }
+
+    /**
+     * Build response with users page from {@code json}.
+     */
+    private static ApiResponse<User[]> page(int code, String json, Map<String, List<String>> headers) throws IOException {
+        return new ApiResponse<>(code, new JsonConverter().readUsers(new StringReader(json)), headers);
+    }
+
+    private static ApiResponse<User[]> page(String json) throws IOException {
+        return page(200, json, Collections.emptyMap());
+    }
+
+    /**
+     * Answer of {@link ApiConnector} mock, which passes {@code json} to response reader like a received response.
+     */
+    private static Answer<ApiResponse<User[]>> streamed(int code, String json, Map<String, List<String>> headers) {
+        return invocation -> {
+            ResponseReader<User[]> reader = invocation.getArgument(4);
+            return new ApiResponse<>(code, reader.read(new StringReader(json)), headers);
+        };
+    }
+
+    private static Answer<ApiResponse<User[]>> streamed(String json) {
+        return streamed(200, json, Collections.emptyMap());
+    }
+
     /**
      * {@link GitlabApi#changeUserState(long, boolean)}.
      */
@@ -210,6 +509,7 @@ public class GitlabApiTest {
             Mockito.doCallRealMethod().when(api).setAddress(address);
             Mockito.doCallRealMethod().when(api).setToken(token1);
             Mockito.doCallRealMethod().when(api).setToken(token2);
+            Mockito.doCallRealMethod().when(api).setScheduler(Mockito.any());
 
             Mockito.when(api.getUrl(GitlabApi.TEMPLATE_BLOCK, address, userId, token1)).thenReturn(urlPage1);
             Mockito.when(api.getUrl(GitlabApi.TEMPLATE_BLOCK, address, userId, token2)).thenReturn(urlPage2);
@@ -221,14 +521,19 @@ public class GitlabApiTest {
         }
 
         try {
-            Mockito.when(connector.execute(urlPage1, RequestMethod.POST, api.getTimeout(), null)).thenReturn(response1);
-            Mockito.when(connector.execute(urlPage2, RequestMethod.POST, api.getTimeout(), null)).thenReturn(response2);
-            Mockito.when(connector.execute(urlPage3, RequestMethod.POST, api.getTimeout(), null)).thenReturn(response3);
-            Mockito.when(connector.execute(urlPage4, RequestMethod.POST, api.getTimeout(), null)).thenReturn(response4);
+            Mockito.when(connector.request(Mockito.eq(urlPage1), Mockito.eq(RequestMethod.POST), Mockito.anyInt(), Mockito.isNull()))
+                    .thenReturn(new ApiResponse<>(response1));
+            Mockito.when(connector.request(Mockito.eq(urlPage2), Mockito.eq(RequestMethod.POST), Mockito.anyInt(), Mockito.isNull()))
+                    .thenReturn(new ApiResponse<>(response2));
+            Mockito.when(connector.request(Mockito.eq(urlPage3), Mockito.eq(RequestMethod.POST), Mockito.anyInt(), Mockito.isNull()))
+                    .thenReturn(new ApiResponse<>(response3));
+            Mockito.when(connector.request(Mockito.eq(urlPage4), Mockito.eq(RequestMethod.POST), Mockito.anyInt(), Mockito.isNull()))
+                    .thenReturn(new ApiResponse<>(response4));
 
             api.setConnector(connector);
             api.setConverter(converter);
             api.setAddress(address);
+            api.setScheduler(new RequestScheduler());
             Mockito.when(api.getAllGitUsers()).thenCallRealMethod();
         } catch (Exception e) {
             Assert.fail(e.getMessage());
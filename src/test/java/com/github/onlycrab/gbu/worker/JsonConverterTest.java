@@ -0,0 +1,76 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.model.ChangeUserStateAnswer;
+import com.github.onlycrab.gbu.model.Identity;
+import com.github.onlycrab.gbu.model.User;
+import com.github.onlycrab.gbu.model.UserChangeState;
+import com.github.onlycrab.gbu.model.UserChangeStateResult;
+import com.google.gson.JsonSyntaxException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * {@link JsonConverter} test class.
+ */
+public class JsonConverterTest {
+    /**
+     * {@link JsonConverter#readUsers(java.io.Reader)}.
+     */
+    @Test
+    public void readUsers() throws IOException {
+        JsonConverter converter = new JsonConverter();
+        String json = "[" +
+                "{\"id\": 1, \"name\": \"User 1\", \"username\": \"user1\", \"state\": \"active\", \"bio\": null," +
+                " \"links\": {\"self\": \"http://a\"}, \"tags\": [1, [2], {\"a\": 3}]," +
+                " \"identities\": [{\"provider\": \"ldapmain\", \"saml_provider_id\": null, \"extern_uid\": \"cn=user1,dc=my,dc=com\"}]}," +
+                "{\"id\": 2, \"username\": \"user2\", \"state\": null, \"identities\": null}," +
+                "{\"username\": \"user3\", \"id\": 3, \"identities\": []}" +
+                "]";
+        User[] expected = new User[]{
+                new User(1, "user1", "active", new Identity[]{ new Identity("ldapmain", "cn=user1,dc=my,dc=com") }),
+                new User(2, "user2", null, null),
+                new User(3, "user3", null, new Identity[]{})
+        };
+        Assert.assertArrayEquals(expected, converter.readUsers(new StringReader(json)));
+        Assert.assertArrayEquals(converter.fromJson(json), converter.readUsers(new StringReader(json)));
+        Assert.assertEquals(0, converter.readUsers(new StringReader("[]")).length);
+
+        for (String invalid : new String[]{ "{\"message\": \"403 Forbidden\"}", "[{\"id\": \"abc\"}]", "[{\"id\": 1,", "" }) {
+            try {
+                converter.readUsers(new StringReader(invalid));
+                Assert.fail(invalid);
+            } catch (JsonSyntaxException | IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * {@link JsonConverter#toJson(ChangeUserStateAnswer[])}.
+     */
+    @Test
+    public void toJson() {
+        User[] users = new User[]{
+                new User(1, "user1", "active", new Identity[]{ new Identity("ldapmain", "cn=user1,dc=my,dc=com") }),
+                new User(2, "user2", null, new Identity[0]),
+                //Identities are not known
+                new User(3, "user3", "blocked", null)
+        };
+        ChangeUserStateAnswer[] answers = new ChangeUserStateAnswer[users.length];
+        for (int i = 0; i < users.length; i++){
+            answers[i] = new ChangeUserStateAnswer();
+            answers[i].setToState(UserChangeState.BLOCK);
+            answers[i].setResult(UserChangeStateResult.NONE);
+            answers[i].setUser(users[i]);
+        }
+        Assert.assertEquals("[" +
+                        "{\"to_state\":\"BLOCK\",\"result\":\"NONE\",\"user\":{\"id\":1,\"username\":\"user1\",\"state\":\"active\"," +
+                        "\"identities\":[{\"provider\":\"ldapmain\",\"extern_uid\":\"cn=user1,dc=my,dc=com\"}]}}," +
+                        "{\"to_state\":\"BLOCK\",\"result\":\"NONE\",\"user\":{\"id\":2,\"username\":\"user2\",\"state\":null,\"identities\":[]}}," +
+                        "{\"to_state\":\"BLOCK\",\"result\":\"NONE\",\"user\":{\"id\":3,\"username\":\"user3\",\"state\":\"blocked\"}}" +
+                        "]",
+                new JsonConverter().toJson(answers));
+    }
+}
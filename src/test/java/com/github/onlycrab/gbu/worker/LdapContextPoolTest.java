@@ -0,0 +1,200 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.exception.LdapException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.ldap.LdapContext;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link LdapContextPool} test class.
+ */
+public class LdapContextPoolTest {
+    private final List<String> providers = Arrays.asList("ldap://dc1", "ldap://dc2", "ldap://dc3");
+    private final Map<LdapContext, String> created = new HashMap<>();
+    private final Set<String> down = new HashSet<>();
+    private LdapContextPool pool;
+
+    @Before
+    public void setup(){
+        created.clear();
+        down.clear();
+        pool = new LdapContextPool(providers, 2, provider -> {
+            if (down.contains(provider)){
+                throw new LdapException("LDAP connection failed : " + provider + ".");
+            }
+            LdapContext context = Mockito.mock(LdapContext.class);
+            created.put(context, provider);
+            return context;
+        });
+    }
+
+    /**
+     * {@link LdapContextPool#borrow()} in {@link LdapRouting#ROUND_ROBIN} mode.
+     */
+    @Test
+    public void borrowRoundRobin() throws Exception {
+        pool.setRouting(LdapRouting.ROUND_ROBIN);
+        List<String> used = new ArrayList<>();
+        for (int i = 0; i < 6; i++){
+            LdapContext context = pool.borrow();
+            used.add(created.get(context));
+            pool.release(context);
+        }
+        Assert.assertEquals(Arrays.asList("ldap://dc1", "ldap://dc2", "ldap://dc3", "ldap://dc1", "ldap://dc2", "ldap://dc3"), used);
+        //Released contexts are reused
+        Assert.assertEquals(3, created.size());
+    }
+
+    /**
+     * {@link LdapContextPool#borrow()} in {@link LdapRouting#LEAST_LOADED} mode.
+     */
+    @Test
+    public void borrowLeastLoaded() throws Exception {
+        LdapContext c1 = pool.borrow();
+        LdapContext c2 = pool.borrow();
+        LdapContext c3 = pool.borrow();
+        Assert.assertEquals(new HashSet<>(providers), new HashSet<>(created.values()));
+
+        pool.release(c2);
+        //dc2 has no searches in progress
+        LdapContext c4 = pool.borrow();
+        Assert.assertSame(c2, c4);
+        pool.release(c1);
+        pool.release(c3);
+        pool.release(c4);
+    }
+
+    /**
+     * {@link LdapContextPool#borrow()} waits if all contexts are in use.
+     */
+    @Test
+    public void borrowWait() throws Exception {
+        pool = new LdapContextPool(providers.subList(0, 1), 1, provider -> Mockito.mock(LdapContext.class));
+        LdapContext context = pool.borrow();
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored){ }
+            pool.release(context);
+        });
+        releaser.start();
+        Assert.assertSame(context, pool.borrow());
+        releaser.join();
+    }
+
+    /**
+     * {@link LdapContextPool#borrow()} fails over unavailable servers.
+     */
+    @Test
+    public void borrowFailover() throws Exception {
+        pool.setRouting(LdapRouting.ROUND_ROBIN);
+        down.add("ldap://dc1");
+        down.add("ldap://dc2");
+        LdapContext context = pool.borrow();
+        Assert.assertEquals("ldap://dc3", created.get(context));
+        pool.release(context);
+
+        //Failed servers are skipped, even if they are up again
+        down.clear();
+        for (int i = 0; i < 3; i++){
+            context = pool.borrow();
+            Assert.assertEquals("ldap://dc3", created.get(context));
+            pool.release(context);
+        }
+
+        //Failed servers are tried again after retry delay
+        pool.setRetryDelay(0);
+        down.add("ldap://dc1");
+        down.add("ldap://dc2");
+        down.add("ldap://dc3");
+        pool.fail(pool.borrow(), new CommunicationException("connection closed"));
+        try {
+            pool.borrow();
+            Assert.fail("LdapException expected, but nothing was thrown : all servers are down");
+        } catch (LdapException e){
+            Assert.assertTrue(e.getMessage().startsWith("LDAP connection failed"));
+        }
+        down.remove("ldap://dc2");
+        Assert.assertEquals("ldap://dc2", created.get(pool.borrow()));
+    }
+
+    /**
+     * {@link LdapContextPool#fail(LdapContext, Exception)}.
+     */
+    @Test
+    public void fail() throws Exception {
+        pool.setRouting(LdapRouting.ROUND_ROBIN);
+        LdapContext c1 = pool.borrow();
+        LdapContext c2 = pool.borrow();
+        LdapContext c3 = pool.borrow();
+        LdapContext c4 = pool.borrow();
+        Assert.assertEquals("ldap://dc1", created.get(c4));
+        pool.release(c4);
+
+        pool.fail(c1, new CommunicationException("connection closed"));
+        Mockito.verify(c1).close();
+        //Idle contexts of failed server are closed too
+        Mockito.verify(c4).close();
+        for (int i = 0; i < 4; i++){
+            LdapContext context = pool.borrow();
+            Assert.assertNotEquals("ldap://dc1", created.get(context));
+            pool.release(context);
+        }
+        pool.release(c2);
+        pool.release(c3);
+    }
+
+    /**
+     * Health check of idle contexts.
+     */
+    @Test
+    public void healthCheck() throws Exception {
+        pool = new LdapContextPool(providers.subList(0, 1), 1, provider -> {
+            LdapContext context = Mockito.mock(LdapContext.class);
+            created.put(context, provider);
+            return context;
+        });
+        pool.setHealthCheck(1);
+        LdapContext context = pool.borrow();
+        Mockito.when(context.getAttributes(Mockito.anyString(), Mockito.any(String[].class)))
+                .thenThrow(new CommunicationException("connection closed"));
+        pool.release(context);
+        Thread.sleep(5);
+
+        LdapContext next = pool.borrow();
+        Assert.assertNotSame(context, next);
+        Assert.assertEquals(2, created.size());
+        Mockito.verify(context).close();
+        pool.release(next);
+
+        //Healthy context is reused
+        Thread.sleep(5);
+        Assert.assertSame(next, pool.borrow());
+    }
+
+    /**
+     * {@link LdapContextPool#isConnectionFault(NamingException)}.
+     */
+    @Test
+    public void isConnectionFault() {
+        Assert.assertTrue(LdapContextPool.isConnectionFault(new CommunicationException()));
+        NamingException e = new NamingException("connection closed");
+        e.setRootCause(new IOException("Connection reset"));
+        Assert.assertTrue(LdapContextPool.isConnectionFault(e));
+        Assert.assertFalse(LdapContextPool.isConnectionFault(new SizeLimitExceededException()));
+    }
+}
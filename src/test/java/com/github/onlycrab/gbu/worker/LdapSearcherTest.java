@@ -1,15 +1,24 @@
 package com.github.onlycrab.gbu.worker;
 
+import com.github.onlycrab.gbu.benchmark.LdapStubServer;
 import com.github.onlycrab.gbu.exception.LdapException;
+import com.github.onlycrab.gbu.model.AccountState;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
+import javax.naming.Name;
 import javax.naming.NamingException;
 import javax.naming.directory.*;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -125,6 +134,360 @@ public class LdapSearcherTest {
         );
     }
 
+    /**
+     * {@link LdapSearcher#split(String[], int)}.
+     */
+    @Test
+    public void split() {
+        String[] users = new String[]{"u1", "u2", "u3", "u4", "u5"};
+        List<String[]> chunks = LdapSearcher.split(users, 2);
+        Assert.assertEquals(3, chunks.size());
+        Assert.assertArrayEquals(new String[]{"u1", "u2"}, chunks.get(0));
+        Assert.assertArrayEquals(new String[]{"u3", "u4"}, chunks.get(1));
+        Assert.assertArrayEquals(new String[]{"u5"}, chunks.get(2));
+
+        Assert.assertEquals(1, LdapSearcher.split(users, 5).size());
+        Assert.assertSame(users, LdapSearcher.split(users, 0).get(0));
+        Assert.assertEquals(1, LdapSearcher.split(new String[0], 2).size());
+    }
+
+    /**
+     * {@link LdapSearcher#searchUsers(String, String[], String)} by chunks.
+     */
+    @Test
+    public void searchUsersChunked() {
+        try {
+            Mockito.doCallRealMethod().when(searcher).setChunkSize(Mockito.anyInt());
+            searcher.setChunkSize(2);
+            Mockito.when(context.search(Mockito.anyString(), Mockito.anyString(), Mockito.any()))
+                    .thenReturn(buildAnswer(), new TestNamingEnumeration<SearchResult>());
+
+            Map<String, Boolean> actual = searcher.searchUsers("(objectClass=user)", users, point);
+            Mockito.verify(context).search(point, "(&(objectClass=user)(|(sAMAccountName=u1)(sAMAccountName=u2)))", searcher.getSearchControls());
+            Mockito.verify(context).search(point, "(&(objectClass=user)(|(sAMAccountName=u3)))", searcher.getSearchControls());
+            assertContains("u1", true, actual);
+            assertContains("u2", false, actual);
+            assertContains("u3", true, actual);
+        } catch (LdapException | NamingException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * {@link LdapSearcher#isUserExist(String[])} by concurrent chunks.
+     */
+    @Test
+    public void searchUsersConcurrent() throws Exception {
+        LdapStubServer server = new LdapStubServer(50, 0);
+        server.start();
+        try {
+            LdapSearcher searcher = new LdapSearcher(server.getProvider(), LdapStubServer.BASE);
+            searcher.setChunkSize(7);
+            searcher.setSearchThreads(3);
+            String[] users = new String[60];
+            for (int i = 0; i < users.length; i++){
+                users[i] = "user" + (i + 1);
+            }
+
+            Map<String, Boolean> actual = searcher.isUserExist(users);
+            Assert.assertEquals(users.length, actual.size());
+            for (int i = 1; i <= users.length; i++){
+                assertContains("user" + i, i <= 50, actual);
+            }
+
+            //Contexts are reused by the next search
+            Assert.assertEquals(50, searcher.isUserExist(users).values().stream().filter(Boolean::booleanValue).count());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * {@link LdapSearcher#isUserExist(String[])} over several providers, one of them fails during the run.
+     */
+    @Test
+    public void searchUsersFailover() throws Exception {
+        LdapStubServer dc1 = new LdapStubServer(50, 0);
+        LdapStubServer dc2 = new LdapStubServer(50, 0);
+        dc1.start();
+        dc2.start();
+        try {
+            LdapSearcher searcher = new LdapSearcher(dc1.getProvider() + ", " + dc2.getProvider(), LdapStubServer.BASE);
+            searcher.setChunkSize(5);
+            searcher.setSearchThreads(2);
+            String[] users = new String[50];
+            for (int i = 0; i < users.length; i++){
+                users[i] = "user" + (i + 1);
+            }
+            Assert.assertFalse(searcher.isUserExist(users).containsValue(false));
+
+            dc1.stop();
+            Map<String, Boolean> actual = searcher.isUserExist(users);
+            Assert.assertEquals(users.length, actual.size());
+            Assert.assertFalse(actual.containsValue(false));
+        } finally {
+            dc1.stop();
+            dc2.stop();
+        }
+
+        Assert.assertEquals(Arrays.asList("ldap://dc1:389", "ldap://dc2:389", "ldap://dc3"),
+                LdapSearcher.parseProviders(" ldap://dc1:389, ldap://dc2:389 ldap://dc3"));
+        try {
+            new LdapSearcher(" , ", LdapStubServer.BASE);
+            Assert.fail("LdapException expected, but nothing was thrown : provider is empty");
+        } catch (LdapException ignore){ }
+    }
+
+    /**
+     * {@link LdapSearcher#isUserExist(String[])} with paged results.
+     */
+    @Test
+    public void searchUsersPaged() throws Exception {
+        LdapStubServer server = new LdapStubServer(50, 0, 20);
+        server.start();
+        try {
+            LdapSearcher searcher = new LdapSearcher(server.getProvider(), LdapStubServer.BASE);
+            searcher.setChunkSize(0);
+            String[] users = new String[50];
+            for (int i = 0; i < users.length; i++){
+                users[i] = "user" + (i + 1);
+            }
+
+            //Server returns 20 entries at most
+            searcher.setPageSize(0);
+            try {
+                searcher.isUserExist(users);
+                Assert.fail("LdapException expected, but nothing was thrown : size limit exceeded");
+            } catch (LdapException ignore){ }
+
+            searcher.setPageSize(15);
+            Map<String, Boolean> actual = searcher.isUserExist(users);
+            Assert.assertEquals(users.length, actual.size());
+            Assert.assertFalse(actual.containsValue(false));
+
+            //Scan of all users
+            Assert.assertEquals(50, searcher.isUserExist(new String[0]).size());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * {@link LdapSearcher#searchUsers(String, String[], String)} removes paging control from the pooled context.
+     */
+    @Test
+    public void searchUsersPagedControls() throws Exception {
+        Mockito.doCallRealMethod().when(searcher).setPageSize(Mockito.anyInt());
+        searcher.setPageSize(10);
+        searcher.searchUsers("", users, point);
+
+        ArgumentCaptor<Control[]> controls = ArgumentCaptor.forClass(Control[].class);
+        Mockito.verify(context, Mockito.atLeastOnce()).setRequestControls(controls.capture());
+        List<Control[]> requests = controls.getAllValues();
+        Assert.assertTrue(requests.get(requests.size() - 2)[0] instanceof PagedResultsControl);
+        Assert.assertNull(requests.get(requests.size() - 1));
+    }
+
+    /**
+     * {@link LdapSearcher#getAccountStates(String[])}.
+     */
+    @Test
+    public void getAccountStates() throws Exception {
+        Assert.assertEquals(AccountState.ACTIVE, AccountState.of(512, true));
+        Assert.assertEquals(AccountState.DISABLED, AccountState.of(514, false));
+        Assert.assertEquals(AccountState.DISABLED, AccountState.of(514 | AccountState.LOCKOUT, true));
+        Assert.assertEquals(AccountState.ACTIVE, AccountState.of(528, false));
+        Assert.assertEquals(AccountState.LOCKED_OUT, AccountState.of(528, true));
+
+        LdapStubServer server = new LdapStubServer(30, 0);
+        server.start();
+        try {
+            LdapSearcher searcher = new LdapSearcher(server.getProvider(), LdapStubServer.BASE);
+            searcher.setChunkSize(4);
+            searcher.setLookupMode(LookupMode.TARGETED);
+            String[] users = new String[]{ "user1", "user7", "user10", "user14", "user20", "user31" };
+
+            Map<String, AccountState> actual = searcher.getAccountStates(users);
+            Map<String, AccountState> expected = new HashMap<>();
+            expected.put("user1", AccountState.ACTIVE);
+            expected.put("user7", AccountState.ACTIVE);
+            expected.put("user10", AccountState.DISABLED);
+            expected.put("user14", AccountState.ACTIVE);
+            expected.put("user20", AccountState.DISABLED);
+            Assert.assertEquals(expected, actual);
+
+            searcher.setLockout(true);
+            expected.put("user7", AccountState.LOCKED_OUT);
+            expected.put("user14", AccountState.LOCKED_OUT);
+            Assert.assertEquals(expected, searcher.getAccountStates(users));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * {@link LdapSearcher#getAccountStates(String[])} in snapshot mode.
+     */
+    @Test
+    public void getAccountStatesSnapshot() throws Exception {
+        LdapStubServer server = new LdapStubServer(30, 0, 10);
+        server.start();
+        try {
+            LdapSearcher searcher = new LdapSearcher(server.getProvider(), LdapStubServer.BASE);
+            searcher.setPageSize(8);
+            searcher.setLookupMode(LookupMode.SNAPSHOT);
+            Map<String, AccountState> actual = searcher.getAccountStates(new String[]{ "user1", "user10", "user31" });
+            Assert.assertEquals(30, actual.size());
+            Assert.assertEquals(30, searcher.getDirectorySize());
+            Assert.assertEquals(AccountState.ACTIVE, actual.get("user1"));
+            Assert.assertEquals(AccountState.DISABLED, actual.get("user10"));
+            Assert.assertNull(actual.get("user31"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * {@link LdapSearcher#getChangedAccountStates(ChangeWatermark)}.
+     */
+    @Test
+    public void getChangedAccountStates() throws Exception {
+        LdapStubServer server = new LdapStubServer(30, 0);
+        server.start();
+        try {
+            LdapSearcher searcher = new LdapSearcher(server.getProvider(), LdapStubServer.BASE);
+            ChangeWatermark watermark = new ChangeWatermark();
+            //Changes of the domain controller were not tracked yet
+            Assert.assertNull(searcher.getChangedAccountStates(watermark));
+
+            searcher.markChanges(watermark);
+            Assert.assertTrue(searcher.getChangedAccountStates(watermark).isEmpty());
+
+            server.setAccountControl("user3", 514);
+            server.setAccountControl("user10", 512);
+            Map<String, AccountState> expected = new HashMap<>();
+            expected.put("user3", AccountState.DISABLED);
+            expected.put("user10", AccountState.ACTIVE);
+            Assert.assertEquals(expected, searcher.getChangedAccountStates(watermark));
+            Assert.assertTrue(searcher.getChangedAccountStates(watermark).isEmpty());
+
+            ChangeWatermark other = new ChangeWatermark();
+            other.setUsn("CN=NTDS Settings,CN=DC0", 1);
+            Assert.assertNull(searcher.getChangedAccountStates(other));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * {@link LdapSearcher#getChangedAccountStates(ChangeWatermark)} by DirSync.
+     */
+    @Test
+    public void getChangedAccountStatesDirSync() throws Exception {
+        Mockito.doCallRealMethod().when(searcher).setChangeTracking(Mockito.any());
+        Mockito.doCallRealMethod().when(searcher).getChangedAccountStates(Mockito.any());
+        Mockito.doCallRealMethod().when(searcher).markChanges(Mockito.any());
+        searcher.setChangeTracking(ChangeTracking.DIRSYNC);
+        searcher.setSearchPoint("ou=users," + point);
+
+        ChangeWatermark watermark = new ChangeWatermark();
+        Assert.assertNull(searcher.getChangedAccountStates(watermark));
+
+        //The first DirSync search returns all entries, they are skipped
+        Mockito.when(context.search(Mockito.eq(point), Mockito.anyString(), Mockito.any()))
+                .thenReturn(answer("cn=u1,ou=users," + point, "cn=u2,ou=users," + point));
+        Mockito.when(context.getResponseControls()).thenReturn(response(false, "c0"));
+        searcher.markChanges(watermark);
+        Assert.assertArrayEquals("c0".getBytes(), watermark.getDirSyncCookie());
+        Mockito.verify(context, Mockito.never()).getAttributes(Mockito.any(Name.class), Mockito.any(String[].class));
+
+        //Changes are read in two pages, entries out of search point are skipped
+        Mockito.when(context.search(Mockito.eq(point), Mockito.anyString(), Mockito.any()))
+                .thenReturn(answer("cn=u1,ou=users," + point, "cn=admin,ou=admins," + point), answer("cn=u3,ou=users," + point));
+        Mockito.when(context.getResponseControls()).thenReturn(response(true, "c1"), response(false, "c2"));
+        Mockito.when(context.getAttributes(Mockito.any(Name.class), Mockito.any(String[].class))).thenAnswer(invocation -> {
+            String dn = invocation.getArgument(0).toString();
+            Attributes attrs = new BasicAttributes();
+            attrs.put(LdapSearcher.ATTR_NAME, dn.substring(3, dn.indexOf(',')));
+            attrs.put(LdapSearcher.ATTR_ACCOUNT_CONTROL, dn.startsWith("cn=u1,") ? "514" : "512");
+            return attrs;
+        });
+        Map<String, AccountState> expected = new HashMap<>();
+        expected.put("u1", AccountState.DISABLED);
+        expected.put("u3", AccountState.ACTIVE);
+        Assert.assertEquals(expected, searcher.getChangedAccountStates(watermark));
+        Assert.assertArrayEquals("c2".getBytes(), watermark.getDirSyncCookie());
+
+        ArgumentCaptor<Control[]> controls = ArgumentCaptor.forClass(Control[].class);
+        Mockito.verify(context, Mockito.atLeastOnce()).setRequestControls(controls.capture());
+        List<Control[]> requests = controls.getAllValues();
+        Assert.assertArrayEquals(new DirSyncControl(DirSyncControl.OBJECT_SECURITY, "c0".getBytes()).getEncodedValue(),
+                requests.get(requests.size() - 3)[0].getEncodedValue());
+        Assert.assertArrayEquals(new DirSyncControl(DirSyncControl.OBJECT_SECURITY, "c1".getBytes()).getEncodedValue(),
+                requests.get(requests.size() - 2)[0].getEncodedValue());
+        //Controls are removed after DirSync
+        Assert.assertNull(requests.get(requests.size() - 1));
+
+        //Server without DirSync
+        Mockito.when(context.getResponseControls()).thenReturn(null);
+        try {
+            searcher.getChangedAccountStates(watermark);
+            Assert.fail("LdapException expected, but nothing was thrown : no DirSync response");
+        } catch (LdapException ignore){ }
+        Assert.assertArrayEquals("c2".getBytes(), watermark.getDirSyncCookie());
+    }
+
+    private static TestNamingEnumeration<SearchResult> answer(String... dns){
+        TestNamingEnumeration<SearchResult> answer = new TestNamingEnumeration<>();
+        for (String dn : dns){
+            SearchResult result = new SearchResult(dn, null, new BasicAttributes());
+            result.setNameInNamespace(dn);
+            answer.add(result);
+        }
+        return answer;
+    }
+
+    private static Control[] response(boolean more, String cookie){
+        return new Control[]{ new BasicControl(DirSyncControl.OID, false, DirSyncControlTest.encodeResponse(more, cookie.getBytes())) };
+    }
+
+    /**
+     * {@link LdapSearcher#chooseLookupMode(int)}.
+     */
+    @Test
+    public void chooseLookupMode() throws Exception {
+        LdapStubServer server = new LdapStubServer(100, 0);
+        server.start();
+        try {
+            LdapSearcher searcher = new LdapSearcher(server.getProvider(), LdapStubServer.BASE);
+            searcher.setChunkSize(10);
+            searcher.setPageSize(20);
+            Assert.assertEquals(LookupMode.TARGETED, searcher.chooseLookupMode(10));
+            //Directory size is unknown
+            Assert.assertEquals(LookupMode.TARGETED, searcher.chooseLookupMode(11));
+            Assert.assertTrue(searcher.isDirectorySizeNeeded(11));
+            Assert.assertFalse(searcher.isDirectorySizeNeeded(10));
+
+            Assert.assertEquals(100, searcher.measureDirectorySize());
+            Assert.assertEquals(100, searcher.getDirectorySize());
+            Assert.assertFalse(searcher.isDirectorySizeNeeded(11));
+            //5 pages against 8 chunks
+            Assert.assertEquals(LookupMode.SNAPSHOT, searcher.chooseLookupMode(80));
+            //5 pages against 3 chunks
+            Assert.assertEquals(LookupMode.TARGETED, searcher.chooseLookupMode(30));
+            //5 pages against 2 rounds of 4 concurrent chunks
+            searcher.setSearchThreads(4);
+            Assert.assertEquals(LookupMode.TARGETED, searcher.chooseLookupMode(80));
+
+            searcher.setPageSize(0);
+            Assert.assertEquals(LookupMode.TARGETED, searcher.chooseLookupMode(80));
+            searcher.setLookupMode(LookupMode.SNAPSHOT);
+            Assert.assertEquals(LookupMode.SNAPSHOT, searcher.chooseLookupMode(1));
+        } finally {
+            server.stop();
+        }
+    }
+
     /**
      * {@link LdapSearcher#searchUsers(String, String[], String)}.
      */
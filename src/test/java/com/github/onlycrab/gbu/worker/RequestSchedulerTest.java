@@ -0,0 +1,238 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.connector.ApiResponse;
+import com.github.onlycrab.gbu.exception.ApiConnectorException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link RequestScheduler} test class.
+ */
+public class RequestSchedulerTest {
+    /**
+     * {@link RequestScheduler#acquire()}.
+     */
+    @Test
+    public void acquire() throws InterruptedException {
+        RequestScheduler scheduler = new RequestScheduler();
+        scheduler.setRate(20);
+        long start = System.nanoTime();
+        //Burst of one second is not paced, next requests are paced by 50 ms
+        for (int i = 0; i < 25; i++){
+            scheduler.acquire();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("Requests were not paced : " + elapsed + " ms", elapsed >= 200);
+        Assert.assertEquals(25, scheduler.getRequests());
+        Assert.assertTrue(scheduler.getThrottledMillis() > 0);
+
+        //No pacing
+        scheduler = new RequestScheduler();
+        start = System.nanoTime();
+        for (int i = 0; i < 1000; i++){
+            scheduler.acquire();
+        }
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+        Assert.assertEquals(0, scheduler.getThrottledMillis());
+    }
+
+    /**
+     * {@link RequestScheduler#reserve()}.
+     */
+    @Test
+    public void reserve() {
+        RequestScheduler scheduler = new RequestScheduler();
+        scheduler.setRate(2);
+        long start = System.nanoTime();
+        Assert.assertEquals(0, scheduler.reserve());
+        Assert.assertEquals(0, scheduler.reserve());
+        //The third token is available in half a second, the caller is not blocked
+        long wait = scheduler.reserve();
+        Assert.assertTrue("Wrong wait : " + wait, wait > TimeUnit.MILLISECONDS.toNanos(300));
+        Assert.assertTrue(scheduler.reserve() > wait);
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+        Assert.assertEquals(4, scheduler.getRequests());
+    }
+
+    /**
+     * {@link RequestScheduler#call(RequestScheduler.Request)}.
+     */
+    @Test
+    public void call() {
+        RequestScheduler scheduler = new RequestScheduler();
+        scheduler.setBackoff(10);
+        AtomicInteger attempts = new AtomicInteger();
+
+        //Rejected by rate limit, then succeeded
+        try {
+            ApiResponse<String> response = scheduler.call(() -> {
+                if (attempts.incrementAndGet() < 3){
+                    throw error(RequestScheduler.TOO_MANY_REQUESTS, RequestScheduler.HEADER_RETRY_AFTER, "0");
+                }
+                return new ApiResponse<>("true");
+            });
+            Assert.assertEquals("true", response.getBody());
+            Assert.assertEquals(3, attempts.get());
+            Assert.assertEquals(2, scheduler.getRetried());
+        } catch (ApiConnectorException e){
+            Assert.fail(e.getMessage());
+        }
+
+        //Client errors are not retried
+        attempts.set(0);
+        try {
+            scheduler.call(() -> {
+                attempts.incrementAndGet();
+                throw error(404, null, null);
+            });
+            Assert.fail("ApiConnectorException expected, but nothing was thrown");
+        } catch (ApiConnectorException e){
+            Assert.assertEquals(404, e.getCode());
+            Assert.assertEquals(1, attempts.get());
+        }
+
+        //Server errors are retried until retries are exhausted
+        attempts.set(0);
+        scheduler.setRetries(2);
+        try {
+            scheduler.call(() -> {
+                attempts.incrementAndGet();
+                throw error(503, null, null);
+            });
+            Assert.fail("ApiConnectorException expected, but nothing was thrown");
+        } catch (ApiConnectorException e){
+            Assert.assertEquals(503, e.getCode());
+            Assert.assertEquals(3, attempts.get());
+        }
+
+        //Connection errors have no response and are not retried
+        attempts.set(0);
+        try {
+            scheduler.call(() -> {
+                attempts.incrementAndGet();
+                throw new ApiConnectorException("Error at reading response : Connection refused.");
+            });
+            Assert.fail("ApiConnectorException expected, but nothing was thrown");
+        } catch (ApiConnectorException e){
+            Assert.assertEquals(1, attempts.get());
+        }
+    }
+
+    /**
+     * {@link RequestScheduler#callAsync(RequestScheduler.AsyncRequest)}.
+     */
+    @Test
+    public void callAsync() {
+        RequestScheduler scheduler = new RequestScheduler();
+        scheduler.setBackoff(10);
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<ApiResponse<String>> future = scheduler.callAsync(() -> {
+            CompletableFuture<ApiResponse<String>> result = new CompletableFuture<>();
+            if (attempts.incrementAndGet() < 2){
+                result.completeExceptionally(error(502, null, null));
+            } else {
+                result.complete(new ApiResponse<>("true"));
+            }
+            return result;
+        });
+        try {
+            Assert.assertEquals("true", future.get(5, TimeUnit.SECONDS).getBody());
+            Assert.assertEquals(2, attempts.get());
+        } catch (Exception e){
+            Assert.fail(e.getMessage());
+        }
+
+        future = scheduler.callAsync(() -> {
+            CompletableFuture<ApiResponse<String>> result = new CompletableFuture<>();
+            result.completeExceptionally(error(403, null, null));
+            return result;
+        });
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("ExecutionException expected, but nothing was thrown");
+        } catch (ExecutionException e){
+            Assert.assertTrue(e.getCause() instanceof ApiConnectorException);
+            Assert.assertEquals(403, ((ApiConnectorException) e.getCause()).getCode());
+        } catch (Exception e){
+            Assert.fail(e.getMessage());
+        }
+    }
+
+    /**
+     * {@link RequestScheduler#onResponse(ApiResponse)}.
+     */
+    @Test
+    public void onResponse() throws InterruptedException {
+        RequestScheduler scheduler = new RequestScheduler();
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put(RequestScheduler.HEADER_REMAINING, Collections.singletonList("0"));
+        headers.put(RequestScheduler.HEADER_RESET, Collections.singletonList(String.valueOf(System.currentTimeMillis() / 1000 + 2)));
+        scheduler.onResponse(new ApiResponse<>(200, "", headers));
+
+        long start = System.nanoTime();
+        scheduler.acquire();
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) > 0);
+        Assert.assertTrue(scheduler.getThrottledMillis() > 0);
+
+        //Requests remain : no pause
+        scheduler = new RequestScheduler();
+        headers.put(RequestScheduler.HEADER_REMAINING, Collections.singletonList("10"));
+        scheduler.onResponse(new ApiResponse<>(200, "", headers));
+        scheduler.acquire();
+        Assert.assertEquals(0, scheduler.getThrottledMillis());
+    }
+
+    /**
+     * {@link RequestScheduler#getRetryAfter(String)}.
+     */
+    @Test
+    public void getRetryAfter() {
+        Assert.assertEquals(-1, RequestScheduler.getRetryAfter(null));
+        Assert.assertEquals(-1, RequestScheduler.getRetryAfter(" "));
+        Assert.assertEquals(-1, RequestScheduler.getRetryAfter("soon"));
+        Assert.assertEquals(0, RequestScheduler.getRetryAfter("0"));
+        Assert.assertEquals(2000, RequestScheduler.getRetryAfter("2"));
+        Assert.assertEquals(RequestScheduler.MAX_DELAY, RequestScheduler.getRetryAfter("3600"));
+        Assert.assertEquals(0, RequestScheduler.getRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+
+    /**
+     * {@link RequestScheduler#getStats()}.
+     */
+    @Test
+    public void getStats() {
+        RequestScheduler scheduler = new RequestScheduler();
+        try {
+            scheduler.call(() -> new ApiResponse<>(""));
+        } catch (ApiConnectorException e){
+            Assert.fail(e.getMessage());
+        }
+        Assert.assertEquals("requests : 1, retries : 0, throttled : 0 ms", scheduler.getStats());
+        scheduler.resetStats();
+        Assert.assertEquals(0, scheduler.getRequests());
+    }
+
+    /**
+     * Build exception of request rejected with {@code code}.
+     */
+    private static ApiConnectorException error(int code, String header, String value) {
+        Map<String, List<String>> headers = new HashMap<>();
+        if (header != null){
+            headers.put(header, Collections.singletonList(value));
+        }
+        return new ApiConnectorException(
+                String.format("Error at reading response : Server returned HTTP response code: %s.", code),
+                new ApiResponse<>(code, "", headers)
+        );
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.model.ChangeUserStateAnswer;
+import com.github.onlycrab.gbu.model.Identity;
+import com.github.onlycrab.gbu.model.User;
+import com.github.onlycrab.gbu.model.UserChangeState;
+import com.github.onlycrab.gbu.model.UserChangeStateResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * {@link ResultWriter} test class.
+ */
+public class ResultWriterTest {
+    /**
+     * {@link ResultWriter#write(ChangeUserStateAnswer)} in {@link ResultFormat#JSON}.
+     */
+    @Test
+    public void writeJson() throws IOException {
+        ChangeUserStateAnswer[] answers = new ChangeUserStateAnswer[]{
+                answer(1, UserChangeState.BLOCK, UserChangeStateResult.SUCCESS),
+                answer(2, UserChangeState.UNBLOCK, null)
+        };
+        StringWriter out = new StringWriter();
+        try (ResultWriter writer = new ResultWriter(out, ResultFormat.JSON, true)){
+            for (ChangeUserStateAnswer answer : answers){
+                writer.write(answer);
+            }
+            //Answers are flushed before the end of the array
+            Assert.assertTrue(out.toString().contains("\"id\":2"));
+            Assert.assertEquals(2, writer.getCount());
+        }
+        Assert.assertEquals(new JsonConverter().toJson(answers) + "\n", out.toString());
+
+        out = new StringWriter();
+        new ResultWriter(out, ResultFormat.JSON, true).close();
+        Assert.assertEquals("[]\n", out.toString());
+    }
+
+    /**
+     * {@link ResultWriter#write(ChangeUserStateAnswer)} in {@link ResultFormat#NDJSON}, appended to file.
+     */
+    @Test
+    public void writeNdjson() throws IOException {
+        File file = File.createTempFile("result", ".ndjson");
+        try {
+            for (int run = 1; run <= 2; run++){
+                try (ResultWriter writer = ResultWriter.open(file.getPath(), ResultFormat.NDJSON)){
+                    writer.write(answer(run, UserChangeState.BLOCK, UserChangeStateResult.NONE));
+                }
+            }
+            Assert.assertEquals(
+                    "{\"to_state\":\"BLOCK\",\"result\":\"NONE\",\"user\":{\"id\":1,\"username\":\"u1\",\"state\":\"active\",\"identities\":[]}}\n" +
+                    "{\"to_state\":\"BLOCK\",\"result\":\"NONE\",\"user\":{\"id\":2,\"username\":\"u2\",\"state\":\"active\",\"identities\":[]}}\n",
+                    new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } finally {
+            Assert.assertTrue(file.delete());
+        }
+    }
+
+    private static ChangeUserStateAnswer answer(long id, UserChangeState toState, UserChangeStateResult result) {
+        ChangeUserStateAnswer answer = new ChangeUserStateAnswer();
+        answer.setUser(new User(id, "u" + id, "active", new Identity[0]));
+        answer.setToState(toState);
+        answer.setResult(result);
+        return answer;
+    }
+}
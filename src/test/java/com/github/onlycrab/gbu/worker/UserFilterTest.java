@@ -0,0 +1,75 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.model.User;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * {@link UserFilter} test class.
+ */
+public class UserFilterTest {
+    /**
+     * {@link UserFilter#isExcluded(String)}.
+     */
+    @Test
+    public void isExcluded() {
+        UserFilter filter = new UserFilter(Arrays.asList("root", " admin ", "", "bot-*", "bot-ci-*", "svc*", "test?", "*.bak", "a*z"), null);
+        for (String username : new String[]{ "root", "admin", "bot-", "bot-1", "bot-ci-2", "svc", "svc_git", "test1", "old.bak", "az", "abz" }){
+            Assert.assertTrue(username, filter.isExcluded(username));
+        }
+        for (String username : new String[]{ "roo", "root1", "bot", "bots", "sv", "test", "test12", "bak", "aza", "user" }){
+            Assert.assertFalse(username, filter.isExcluded(username));
+        }
+        //Special characters of regex are not special in globs
+        filter = new UserFilter(Collections.singletonList("u.+?"), null);
+        Assert.assertTrue(filter.isExcluded("u.+1"));
+        Assert.assertFalse(filter.isExcluded("user"));
+    }
+
+    /**
+     * {@link UserFilter#accept(String)} and {@link UserFilter#apply(User[])}.
+     */
+    @Test
+    public void apply() {
+        UserFilter filter = new UserFilter(Collections.singletonList("user_2"), "([A-Za-z]+)_\\d+");
+        Assert.assertTrue(filter.accept("user_1"));
+        Assert.assertFalse(filter.accept("user_2"));
+        Assert.assertFalse(filter.accept("u3"));
+        Assert.assertArrayEquals(
+                new User[]{ new User("user_1") },
+                filter.apply(new User[]{ new User("user_1"), new User("user_2"), new User("u3") })
+        );
+        Assert.assertArrayEquals(new User[0], filter.apply(null));
+
+        try {
+            new UserFilter(null, "([a-z");
+            Assert.fail("IllegalArgumentException expected, but nothing was thrown : wrong template");
+        } catch (IllegalArgumentException ignore){ }
+    }
+
+    /**
+     * {@link UserFilter#readExclude(File)}.
+     */
+    @Test
+    public void readExclude() throws IOException {
+        File file = File.createTempFile("exclude", ".txt");
+        try {
+            Files.write(file.toPath(), Arrays.asList("# service accounts", "svc-*", "", "  root  "), StandardCharsets.UTF_8);
+            Assert.assertEquals(Arrays.asList("svc-*", "root"), UserFilter.readExclude(file));
+            Assert.assertTrue(file.delete());
+            try {
+                UserFilter.readExclude(file);
+                Assert.fail("IOException expected, but nothing was thrown : file does not exist");
+            } catch (IOException ignore){ }
+        } finally {
+            Assert.assertTrue(!file.exists() || file.delete());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.exception.LdapException;
+import com.github.onlycrab.gbu.model.Identity;
+import com.github.onlycrab.gbu.model.User;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * {@link UserSelector} test class.
+ */
+public class UserSelectorTest {
+    /**
+     * {@link UserSelector#onPage(User[])}.
+     */
+    @Test
+    public void onPage() throws LdapException {
+        UserSelector selector = new UserSelector(new UserFilter(Collections.singletonList("bot-*"), "u\\d+"),
+                new DomainMatcher(Collections.singletonList("DC=example,DC=com"), null));
+        Identity ad = new Identity("ldapmain", "cn=u,ou=Users,dc=example,dc=com");
+        Identity other = new Identity("ldapmain", "cn=u,ou=Users,dc=other,dc=com");
+        selector.onTotal(6);
+        selector.onPage(new User[]{
+                new User(1, "u1", "active", new Identity[]{ ad }),
+                new User(2, "bot-2", "active", new Identity[]{ ad }),
+                new User(3, "u3", "active", new Identity[]{ new Identity("github", null), other })
+        });
+        selector.onPage(new User[]{
+                new User(4, "user4", "active", new Identity[]{ ad }),
+                new User(5, "u5", "blocked", new Identity[]{ other, ad }),
+                new User(6, "u6", "active", new Identity[0])
+        });
+        selector.add(new User(7, "u7", "active", new Identity[0]));
+        Assert.assertEquals(6, selector.getReceived());
+        Assert.assertEquals(3, selector.getUsers().size());
+        Assert.assertEquals(5, selector.getUsers().get(1).getId());
+        Assert.assertArrayEquals(new String[]{ "u1", "u5", "u7" }, selector.getUsernames());
+
+        //Without domain users without identities are selected too
+        selector = new UserSelector(null, null);
+        selector.onPage(new User[]{ new User(6, "u6", "active", new Identity[0]) });
+        Assert.assertArrayEquals(new String[]{ "u6" }, selector.getUsernames());
+    }
+
+    /**
+     * {@link UserSelector} in compact mode.
+     */
+    @Test
+    public void onPageCompact() throws LdapException {
+        UserSelector selector = new UserSelector(new UserFilter(Collections.singletonList("u2"), null), null, true);
+        selector.onPage(new User[]{
+                new User(1, "u1", "active", new Identity[]{ new Identity("ldapmain", "cn=u1,dc=example,dc=com") }),
+                new User(2, "u2", "active", new Identity[0])
+        });
+        selector.add(3, "u3", "blocked");
+        Assert.assertEquals(2, selector.size());
+        Assert.assertEquals(3, selector.getId(1));
+        Assert.assertEquals("blocked", selector.getState(1));
+        Assert.assertArrayEquals(new String[]{ "u1", "u3" }, selector.getUsernames());
+        //Identities are not kept
+        Assert.assertEquals(new User(1, "u1", "active", null), selector.getUsers().get(0));
+    }
+
+    /**
+     * {@link UserSelector#getUsers()} after wrong identity.
+     */
+    @Test(expected = LdapException.class)
+    public void onPageWrongIdentity() throws LdapException {
+        UserSelector selector = new UserSelector(null, new DomainMatcher(Collections.singletonList("dc=example,dc=com"), null));
+        selector.onPage(new User[]{ new User(1, "u1", "active", new Identity[]{ new Identity("ldapmain", "cn=u1,ou=Users") }) });
+        selector.getUsers();
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.model.AccountState;
+import com.github.onlycrab.gbu.model.UserStatus;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+/**
+ * {@link UserStateStore} test class.
+ */
+public class UserStateStoreTest {
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("state", ".bin");
+        Assert.assertTrue(file.delete());
+    }
+
+    @After
+    public void cleanup() {
+        Assert.assertTrue(!file.exists() || file.delete());
+    }
+
+    /**
+     * {@link UserStateStore#put(UserStatus)} and {@link UserStateStore#open(File)}.
+     */
+    @Test
+    public void putOpen() throws IOException {
+        try (UserStateStore store = UserStateStore.open(file)){
+            Assert.assertEquals(0, store.size());
+            Assert.assertTrue(store.put(new UserStatus(1, "u1", "active", AccountState.ACTIVE, 1000, 0, 1000)));
+            Assert.assertTrue(store.put(new UserStatus(2, "u2", "blocked", null, 1000, 0, 1000)));
+            //Only time of observation is changed
+            Assert.assertFalse(store.put(new UserStatus(1, "u1", "active", AccountState.ACTIVE, 2000, 0, 1000)));
+            //User is renamed
+            Assert.assertTrue(store.put(new UserStatus(2, "u2new", "blocked", AccountState.DISABLED, 2000, 1, 2000)));
+            Assert.assertEquals(3, store.getRecords());
+        }
+
+        try (UserStateStore store = UserStateStore.open(file)){
+            Assert.assertEquals(2, store.size());
+            Assert.assertEquals(3, store.getRecords());
+            UserStatus status = store.get(1);
+            Assert.assertEquals("u1", status.getUsername());
+            Assert.assertEquals("active", status.getGitState());
+            Assert.assertEquals(AccountState.ACTIVE, status.getAdState());
+            Assert.assertEquals(1000, status.getUpdated());
+            Assert.assertNull(store.find("u2"));
+            status = store.find("u2new");
+            Assert.assertEquals(2, status.getId());
+            Assert.assertEquals(AccountState.DISABLED, status.getAdState());
+            Assert.assertEquals(1, status.getFlips());
+            Assert.assertEquals(2000, status.getFlipsSince());
+
+            //Records are appended to the existing log
+            Assert.assertTrue(store.put(new UserStatus(3, "u3", "active", AccountState.LOCKED_OUT, 3000, 0, 3000)));
+        }
+        try (UserStateStore store = UserStateStore.open(file)){
+            Assert.assertEquals(3, store.size());
+            Assert.assertEquals(AccountState.LOCKED_OUT, store.find("u3").getAdState());
+        }
+
+        Files.write(file.toPath(), "not a store".getBytes(StandardCharsets.UTF_8));
+        try {
+            UserStateStore.open(file);
+            Assert.fail("IOException expected, but nothing was thrown : wrong header");
+        } catch (IOException ignore){ }
+    }
+
+    /**
+     * {@link UserStateStore#retain(java.util.Set)} and {@link UserStateStore#compact()}.
+     */
+    @Test
+    public void compact() throws IOException {
+        try (UserStateStore store = UserStateStore.open(file)){
+            for (int i = 0; i < 10; i++){
+                store.put(new UserStatus(1, "u1", i % 2 == 0 ? "active" : "blocked", AccountState.ACTIVE, i, 0, 0));
+            }
+            store.put(new UserStatus(2, "u2", "active", AccountState.ACTIVE, 0, 0, 0));
+            Assert.assertEquals(11, store.getRecords());
+
+            store.retain(Collections.singleton(1L));
+            store.compact();
+            Assert.assertEquals(1, store.getRecords());
+            Assert.assertNull(store.find("u2"));
+            //Store is writable after compaction
+            store.put(new UserStatus(3, "u3", "active", AccountState.ACTIVE, 0, 0, 0));
+        }
+        try (UserStateStore store = UserStateStore.open(file)){
+            Assert.assertEquals(2, store.size());
+            Assert.assertEquals(2, store.getRecords());
+            Assert.assertEquals("blocked", store.get(1).getGitState());
+            Assert.assertNull(store.get(2));
+            Assert.assertFalse(store.isCompactionDue());
+        }
+    }
+
+    /**
+     * Incomplete record at the end of the log is dropped.
+     */
+    @Test
+    public void truncated() throws IOException {
+        try (UserStateStore store = UserStateStore.open(file)){
+            store.put(new UserStatus(1, "u1", "active", AccountState.ACTIVE, 0, 0, 0));
+            store.put(new UserStatus(2, "u2", "active", AccountState.ACTIVE, 0, 0, 0));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+            raf.setLength(raf.length() - 3);
+        }
+        long length;
+        try (UserStateStore store = UserStateStore.open(file)){
+            Assert.assertEquals(1, store.size());
+            Assert.assertNotNull(store.get(1));
+            length = file.length();
+            store.put(new UserStatus(3, "u3", "active", AccountState.ACTIVE, 0, 0, 0));
+        }
+        Assert.assertTrue(file.length() > length);
+        try (UserStateStore store = UserStateStore.open(file)){
+            Assert.assertEquals(2, store.size());
+            Assert.assertNotNull(store.get(3));
+        }
+
+        //Incomplete header
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")){
+            raf.setLength(5);
+        }
+        try (UserStateStore store = UserStateStore.open(file)){
+            Assert.assertEquals(0, store.size());
+            store.put(new UserStatus(1, "u1", "active", AccountState.ACTIVE, 0, 0, 0));
+        }
+        try (UserStateStore store = UserStateStore.open(file)){
+            Assert.assertEquals(1, store.size());
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.onlycrab.gbu.worker;
+
+import com.github.onlycrab.gbu.model.Identity;
+import com.github.onlycrab.gbu.model.User;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * {@link UserTable} test class.
+ */
+public class UserTableTest {
+    /**
+     * {@link UserTable#add(long, String, String)} and getters.
+     */
+    @Test
+    public void add() {
+        UserTable table = new UserTable(2);
+        for (int i = 1; i <= 100; i++){
+            table.add(i, "u" + i, i % 3 == 0 ? "blocked" : "active");
+        }
+        table.add(new User(101, "u101", "deactivated", new Identity[]{ new Identity("ldapmain", "cn=u101,dc=example,dc=com") }));
+        Assert.assertEquals(101, table.size());
+        Assert.assertEquals(3, table.getId(2));
+        Assert.assertEquals("u3", table.getUsername(2));
+        Assert.assertEquals("blocked", table.getState(2));
+        Assert.assertEquals("active", table.getState(3));
+        Assert.assertEquals(new User(101, "u101", "deactivated", null), table.getUser(100));
+        Assert.assertEquals(101, table.getUsernames().length);
+        Assert.assertEquals("u101", table.getUsernames()[100]);
+    }
+
+    /**
+     * {@link UserTable#getId(int)} out of size.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getIdOutOfSize() {
+        UserTable table = new UserTable();
+        table.add(1, "u1", "active");
+        table.getId(1);
+    }
+}
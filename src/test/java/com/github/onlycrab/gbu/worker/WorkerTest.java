@@ -3,18 +3,37 @@ package com.github.onlycrab.gbu.worker;
 import com.github.onlycrab.gbu.exception.ApiConnectorException;
 import com.github.onlycrab.gbu.exception.JsonConverterException;
 import com.github.onlycrab.gbu.exception.LdapException;
+import com.github.onlycrab.gbu.model.AccountState;
+import com.github.onlycrab.gbu.model.ChangeUserStateAnswer;
 import com.github.onlycrab.gbu.model.Identity;
 import com.github.onlycrab.gbu.model.User;
+import com.github.onlycrab.gbu.model.UserChangeState;
+import com.github.onlycrab.gbu.model.UserChangeStateResult;
 import com.github.onlycrab.gbu.worker.GitlabApi;
 import com.github.onlycrab.gbu.worker.LdapSearcher;
+import com.github.onlycrab.gbu.worker.ResultFormat;
+import com.github.onlycrab.gbu.worker.UserPageHandler;
 import com.github.onlycrab.gbu.worker.Worker;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * {@link Worker} test class.
@@ -46,8 +65,8 @@ public class WorkerTest {
             Assert.fail(e.getMessage());
         }
         Mockito.doCallRealMethod().when(worker).getUsername(Mockito.any(User[].class));
-        Mockito.doCallRealMethod().when(worker).removeNonexistentUsers(Mockito.anyMap());
-        Mockito.doCallRealMethod().when(worker).getUsernameFromMap(Mockito.anyMap());
+        Mockito.doCallRealMethod().when(worker).changeUserStates(Mockito.anyList(), Mockito.any());
+        Mockito.doCallRealMethod().when(worker).setStateThreads(Mockito.anyInt());
 
         worker.setLdapSearcher(searcher);
         worker.setGitlabApi(api);
@@ -71,28 +90,20 @@ public class WorkerTest {
         worker.setUsernameExclude(new String[0]);
 
         try {
-            Mockito.when(api.getAllGitUsers()).thenReturn(usersAllFromGit);
+            Mockito.doAnswer(page(usersAllFromGit)).when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
         } catch (ApiConnectorException | JsonConverterException e) {
             Assert.fail(e.getMessage());
             return;
         }
-        Map<String, Boolean> userMap = new HashMap<>();
-        userMap.put("u1", true);
-        userMap.put("u2", true);
-        userMap.put("u3", true);
-        userMap.put("u4", true);
-        userMap.put("u5", true);
-        userMap.put("u6", true);
-        Map<String, Boolean> userLocked = new HashMap<>();
-        userLocked.put("u1", true);
-        userLocked.put("u2", false);
-        userLocked.put("u3", true);
-        userLocked.put("u4", false);
-        userLocked.put("u5", false);
-        userLocked.put("u6", true);
+        Map<String, AccountState> accountStates = new HashMap<>();
+        accountStates.put("u1", AccountState.DISABLED);
+        accountStates.put("u2", AccountState.ACTIVE);
+        accountStates.put("u3", AccountState.LOCKED_OUT);
+        accountStates.put("u4", AccountState.ACTIVE);
+        accountStates.put("u5", AccountState.ACTIVE);
+        accountStates.put("u6", AccountState.DISABLED);
         try {
-            Mockito.when(searcher.isUserExist(Mockito.any(String[].class))).thenReturn(userMap);
-            Mockito.when(searcher.isUserLocked(Mockito.any(String[].class))).thenReturn(userLocked);
+            Mockito.when(searcher.getAccountStates(Mockito.any(String[].class))).thenReturn(accountStates);
         } catch (LdapException e) {
             Assert.fail(e.getMessage());
             return;
@@ -118,6 +129,445 @@ public class WorkerTest {
         }
     }
 
+    /**
+     * {@link Worker#processGitUsers()} with concurrent changing of user states.
+     */
+    @Test
+    public void processGitUsersConcurrent() throws Exception {
+        User[] usersAllFromGit = new User[20];
+        Map<String, AccountState> accountStates = new HashMap<>();
+        for (int i = 0; i < usersAllFromGit.length; i++){
+            usersAllFromGit[i] = new User(i + 1, "u" + (i + 1), i % 2 == 0 ? "active" : "blocked", new Identity[0]);
+            accountStates.put("u" + (i + 1), i % 3 != 1 ? AccountState.DISABLED : AccountState.ACTIVE);
+        }
+        worker.setTemplate("");
+        worker.setWithIdentities(false);
+        worker.setUsernameExclude(new String[0]);
+        worker.setProdMode(true);
+        Mockito.doAnswer(page(usersAllFromGit)).when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
+        Mockito.when(searcher.getAccountStates(Mockito.any(String[].class))).thenReturn(accountStates);
+
+        //User 7 cant be blocked, user 8 cant be unblocked
+        ApiConnectorException error = new ApiConnectorException("Error at reading response : Server returned HTTP response code: 403.");
+        Mockito.doThrow(error).when(api).blockUser(7);
+        Mockito.doThrow(error).when(api).unblockUser(8);
+        worker.setStateThreads(1);
+        String expected = worker.processGitUsers();
+        Assert.assertTrue(expected.contains("\"result\":\"FAIL\",\"user\":{\"id\":7,"));
+        Assert.assertTrue(expected.contains("\"result\":\"FAIL\",\"user\":{\"id\":8,"));
+
+        //Earlier requests complete later
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(3);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        Mockito.when(api.changeUserStateAsync(Mockito.anyLong(), Mockito.anyBoolean(), Mockito.any())).thenAnswer(invocation -> {
+            long id = invocation.getArgument(0);
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            scheduler.schedule(() -> {
+                active.decrementAndGet();
+                if (id == 7 || id == 8){
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(null);
+                }
+            }, usersAllFromGit.length - id, TimeUnit.MILLISECONDS);
+            return future;
+        });
+        worker.setStateThreads(3);
+        Assert.assertEquals(expected, worker.processGitUsers());
+        Assert.assertTrue(maxActive.get() <= 3);
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * {@link Worker#changeUserStates(List)} interrupted while requests are in flight.
+     */
+    @Test
+    public void changeUserStatesInterrupted() throws Exception {
+        worker.setStateThreads(2);
+        CompletableFuture<Void> late = new CompletableFuture<>();
+        CountDownLatch sent = new CountDownLatch(1);
+        Mockito.when(api.changeUserStateAsync(Mockito.eq(1L), Mockito.anyBoolean(), Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        Mockito.when(api.changeUserStateAsync(Mockito.eq(2L), Mockito.anyBoolean(), Mockito.any())).thenAnswer(invocation -> {
+            sent.countDown();
+            return late;
+        });
+        List<ChangeUserStateAnswer> answers = new ArrayList<>();
+        for (long id = 1; id <= 2; id++){
+            ChangeUserStateAnswer answer = new ChangeUserStateAnswer();
+            answer.setToState(UserChangeState.BLOCK);
+            answer.setUser(new User(id, "u" + id, "active", new Identity[0]));
+            answers.add(answer);
+        }
+        Thread thread = new Thread(() -> worker.changeUserStates(answers, answer -> { }));
+        thread.start();
+        Assert.assertTrue(sent.await(5, TimeUnit.SECONDS));
+        thread.interrupt();
+        thread.join(5000);
+        Assert.assertEquals(UserChangeStateResult.SUCCESS, answers.get(0).getResult());
+        Assert.assertEquals(UserChangeStateResult.FAIL, answers.get(1).getResult());
+
+        //Request completed after the interrupt does not change the reported result
+        late.complete(null);
+        Assert.assertEquals(UserChangeStateResult.FAIL, answers.get(1).getResult());
+    }
+
+    /**
+     * {@link Worker#processGitUsers()} with compact table of users.
+     */
+    @Test
+    public void processGitUsersCompact() throws Exception {
+        Mockito.doCallRealMethod().when(worker).setCompactUsers(Mockito.anyBoolean());
+        Mockito.when(searcher.getDomain()).thenReturn("dc=example,dc=com");
+        worker.setCompactUsers(true);
+        worker.setTemplate("");
+        worker.setWithIdentities(true);
+        worker.setUsernameExclude(new String[0]);
+        worker.setProdMode(false);
+        Identity identity = new Identity("ldapmain", "cn=u1,ou=users,dc=example,dc=com");
+        Mockito.doAnswer(page(new User[]{
+                new User(1, "u1", "active", new Identity[]{ identity }),
+                new User(2, "u2", "active", new Identity[0])
+        })).when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
+        Mockito.when(searcher.getAccountStates(new String[]{ "u1" })).thenReturn(Collections.singletonMap("u1", AccountState.DISABLED));
+        Assert.assertEquals(
+                "[{\"to_state\":\"BLOCK\",\"result\":\"NONE\",\"user\":{\"id\":1,\"username\":\"u1\",\"state\":\"active\"}}]",
+                worker.processGitUsers());
+    }
+
+    /**
+     * {@link Worker#processGitUsers()} with answers written to file.
+     */
+    @Test
+    public void processGitUsersResultOutput() throws Exception {
+        File file = File.createTempFile("result", ".json");
+        try {
+            Mockito.doCallRealMethod().when(worker).setResultOutput(Mockito.anyString(), Mockito.any());
+            worker.setResultOutput(file.getPath(), ResultFormat.JSON);
+            worker.setTemplate("");
+            worker.setWithIdentities(false);
+            worker.setUsernameExclude(new String[0]);
+            worker.setProdMode(true);
+            Mockito.doAnswer(page(new User[]{
+                    new User(1, "u1", "active", new Identity[0]),
+                    new User(2, "u2", "active", new Identity[0])
+            })).when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            Mockito.when(searcher.getAccountStates(Mockito.any(String[].class))).thenReturn(Collections.singletonMap("u1", AccountState.DISABLED));
+            Assert.assertNull(worker.processGitUsers());
+            Assert.assertEquals(
+                    "[{\"to_state\":\"BLOCK\",\"result\":\"SUCCESS\",\"user\":{\"id\":1,\"username\":\"u1\",\"state\":\"active\",\"identities\":[]}}]\n",
+                    new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        } finally {
+            Assert.assertTrue(!file.exists() || file.delete());
+        }
+    }
+
+    /**
+     * {@link Worker#processGitUsers()} writes each answer as soon as its request is completed.
+     */
+    @Test
+    public void processGitUsersResultStreamed() throws Exception {
+        File file = File.createTempFile("result", ".ndjson");
+        try {
+            Mockito.doCallRealMethod().when(worker).setResultOutput(Mockito.anyString(), Mockito.any());
+            worker.setResultOutput(file.getPath(), ResultFormat.NDJSON);
+            worker.setTemplate("");
+            worker.setWithIdentities(false);
+            worker.setUsernameExclude(new String[0]);
+            worker.setProdMode(true);
+            Mockito.doAnswer(page(new User[]{
+                    new User(1, "u1", "active", new Identity[0]),
+                    new User(2, "u2", "active", new Identity[0])
+            })).when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            Map<String, AccountState> states = new HashMap<>();
+            states.put("u1", AccountState.DISABLED);
+            states.put("u2", AccountState.DISABLED);
+            Mockito.when(searcher.getAccountStates(Mockito.any(String[].class))).thenReturn(states);
+            List<String> written = new ArrayList<>();
+            Mockito.doAnswer(invocation -> {
+                written.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+                return null;
+            }).when(api).blockUser(2);
+
+            Assert.assertNull(worker.processGitUsers());
+            //Answer of the first user was written before the second request
+            Assert.assertEquals(1, written.size());
+            Assert.assertTrue(written.get(0).contains("\"id\":1"));
+            Assert.assertEquals(2, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+        } finally {
+            Assert.assertTrue(!file.exists() || file.delete());
+        }
+    }
+
+    /**
+     * {@link Worker#processGitUsers()} in incremental mode.
+     */
+    @Test
+    public void processGitUsersIncremental() throws Exception {
+        File file = File.createTempFile("watermark", ".properties");
+        Assert.assertTrue(file.delete());
+        try {
+            Mockito.doCallRealMethod().when(worker).setWatermarkFile(Mockito.anyString());
+            Mockito.doCallRealMethod().when(worker).setFullResync(Mockito.anyInt());
+            worker.setWatermarkFile(file.getPath());
+            worker.setFullResync(24);
+            worker.setTemplate("");
+            worker.setWithIdentities(false);
+            worker.setUsernameExclude(new String[0]);
+            worker.setProdMode(true);
+            Mockito.doAnswer(invocation -> {
+                ((ChangeWatermark) invocation.getArgument(0)).setUsn("dc1", 100);
+                return null;
+            }).when(searcher).markChanges(Mockito.any());
+
+            //First run checks all users
+            Mockito.doAnswer(page(new User[]{ new User(1, "u1", "active", new Identity[0]) })).when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            Mockito.when(searcher.getAccountStates(Mockito.any(String[].class)))
+                    .thenReturn(Collections.singletonMap("u1", AccountState.DISABLED));
+            Assert.assertTrue(worker.processGitUsers().contains("\"to_state\":\"BLOCK\""));
+            ChangeWatermark watermark = ChangeWatermark.load(file);
+            Assert.assertEquals(Long.valueOf(100), watermark.getUsn("dc1"));
+            Assert.assertTrue(watermark.getFullSync() > 0);
+
+            //Next run checks only changed users
+            Mockito.doAnswer(invocation -> {
+                ChangeWatermark w = invocation.getArgument(0);
+                Assert.assertEquals(Long.valueOf(100), w.getUsn("dc1"));
+                w.setUsn("dc1", 105);
+                return Collections.singletonMap("u2", AccountState.ACTIVE);
+            }).when(searcher).getChangedAccountStates(Mockito.any());
+            Mockito.doAnswer(page(new User[]{ new User(2, "u2", "blocked", new Identity[0]) }))
+                    .when(api).getGitUsers(Mockito.eq(new String[]{ "u2" }), Mockito.any(UserPageHandler.class));
+            Assert.assertEquals(
+                    "[{\"to_state\":\"UNBLOCK\",\"result\":\"SUCCESS\",\"user\":{\"id\":2,\"username\":\"u2\",\"state\":\"blocked\",\"identities\":[]}}]",
+                    worker.processGitUsers());
+            Mockito.verify(api, Mockito.times(1)).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            Assert.assertEquals(Long.valueOf(105), ChangeWatermark.load(file).getUsn("dc1"));
+
+            //Watermark is not moved if user state was not changed
+            Mockito.doThrow(new ApiConnectorException("Server returned HTTP response code: 500.")).when(api).unblockUser(2);
+            Mockito.doAnswer(invocation -> {
+                ((ChangeWatermark) invocation.getArgument(0)).setUsn("dc1", 110);
+                return Collections.singletonMap("u2", AccountState.ACTIVE);
+            }).when(searcher).getChangedAccountStates(Mockito.any());
+            Assert.assertTrue(worker.processGitUsers().contains("\"result\":\"FAIL\""));
+            Assert.assertEquals(Long.valueOf(105), ChangeWatermark.load(file).getUsn("dc1"));
+
+            //Full resync is due
+            worker.setFullResync(0);
+            worker.processGitUsers();
+            Mockito.verify(api, Mockito.times(2)).getAllGitUsers(Mockito.any(UserPageHandler.class));
+        } finally {
+            Assert.assertTrue(!file.exists() || file.delete());
+        }
+    }
+
+    /**
+     * {@link Worker#processGitUsers()} with store of user statuses.
+     */
+    @Test
+    public void processGitUsersStateStore() throws Exception {
+        File watermarkFile = File.createTempFile("watermark", ".properties");
+        File stateFile = File.createTempFile("state", ".bin");
+        Assert.assertTrue(watermarkFile.delete());
+        Assert.assertTrue(stateFile.delete());
+        try {
+            Mockito.doCallRealMethod().when(worker).setWatermarkFile(Mockito.anyString());
+            Mockito.doCallRealMethod().when(worker).setFullResync(Mockito.anyInt());
+            Mockito.doCallRealMethod().when(worker).setStateFile(Mockito.anyString());
+            Mockito.doCallRealMethod().when(worker).setFlapLimit(Mockito.anyInt());
+            worker.setWatermarkFile(watermarkFile.getPath());
+            worker.setFullResync(24);
+            worker.setStateFile(stateFile.getPath());
+            worker.setFlapLimit(1);
+            worker.setTemplate("");
+            worker.setWithIdentities(false);
+            worker.setUsernameExclude(new String[0]);
+            worker.setProdMode(true);
+
+            //First run checks all users and stores them
+            Mockito.doAnswer(page(new User[]{
+                    new User(1, "u1", "active", new Identity[0]),
+                    new User(2, "u2", "blocked", new Identity[0])
+            })).when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            Map<String, AccountState> states = new HashMap<>();
+            states.put("u1", AccountState.DISABLED);
+            states.put("u2", AccountState.DISABLED);
+            Mockito.when(searcher.getAccountStates(Mockito.any(String[].class))).thenReturn(states);
+            Assert.assertTrue(worker.processGitUsers().contains("\"to_state\":\"BLOCK\""));
+            try (UserStateStore store = UserStateStore.open(stateFile)){
+                Assert.assertEquals(2, store.size());
+                Assert.assertEquals("blocked", store.get(1).getGitState());
+                Assert.assertEquals(AccountState.DISABLED, store.get(1).getAdState());
+            }
+
+            //Changed users found in the store are not requested from Gitlab
+            Mockito.doAnswer(invocation -> Collections.singletonMap("u1", AccountState.ACTIVE))
+                    .when(searcher).getChangedAccountStates(Mockito.any());
+            Assert.assertEquals(
+                    "[{\"to_state\":\"UNBLOCK\",\"result\":\"SUCCESS\",\"user\":{\"id\":1,\"username\":\"u1\",\"state\":\"blocked\"}}]",
+                    worker.processGitUsers());
+            Mockito.verify(api, Mockito.never()).getGitUsers(Mockito.any(String[].class), Mockito.any(UserPageHandler.class));
+
+            //Flapping account : the second change during a day is over the limit
+            Mockito.doAnswer(invocation -> Collections.singletonMap("u1", AccountState.DISABLED))
+                    .when(searcher).getChangedAccountStates(Mockito.any());
+            Assert.assertEquals("[]", worker.processGitUsers());
+            Mockito.verify(api, Mockito.times(1)).blockUser(1);
+            try (UserStateStore store = UserStateStore.open(stateFile)){
+                Assert.assertEquals("active", store.get(1).getGitState());
+                Assert.assertEquals(2, store.get(1).getFlips());
+            }
+
+            //Stored user excluded since the previous run is skipped
+            worker.setUsernameExclude(new String[]{ "u2" });
+            Mockito.doAnswer(invocation -> Collections.singletonMap("u2", AccountState.ACTIVE))
+                    .when(searcher).getChangedAccountStates(Mockito.any());
+            Assert.assertEquals("[]", worker.processGitUsers());
+            Mockito.verify(api, Mockito.never()).unblockUser(2);
+            Mockito.verify(api, Mockito.never()).getGitUsers(Mockito.any(String[].class), Mockito.any(UserPageHandler.class));
+        } finally {
+            Assert.assertTrue(!watermarkFile.exists() || watermarkFile.delete());
+            Assert.assertTrue(!stateFile.exists() || stateFile.delete());
+        }
+    }
+
+    /**
+     * {@link Worker#processGitUsers()} with user taken from store of user statuses, users are not compact.
+     */
+    @Test
+    public void processGitUsersStoredUserJson() throws Exception {
+        File watermarkFile = File.createTempFile("watermark", ".properties");
+        File stateFile = File.createTempFile("state", ".bin");
+        Assert.assertTrue(watermarkFile.delete());
+        Assert.assertTrue(stateFile.delete());
+        try {
+            Mockito.doCallRealMethod().when(worker).setWatermarkFile(Mockito.anyString());
+            Mockito.doCallRealMethod().when(worker).setFullResync(Mockito.anyInt());
+            Mockito.doCallRealMethod().when(worker).setStateFile(Mockito.anyString());
+            worker.setWatermarkFile(watermarkFile.getPath());
+            worker.setFullResync(24);
+            worker.setStateFile(stateFile.getPath());
+            worker.setTemplate("");
+            worker.setWithIdentities(false);
+            worker.setUsernameExclude(new String[0]);
+            worker.setProdMode(false);
+
+            //User requested from Gitlab has its identities
+            Mockito.doAnswer(page(new User[]{
+                    new User(1, "u1", "active", new Identity[]{ new Identity("ldapmain", "cn=u1,dc=example,dc=com") })
+            })).when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            Mockito.when(searcher.getAccountStates(Mockito.any(String[].class)))
+                    .thenReturn(Collections.singletonMap("u1", AccountState.DISABLED));
+            Assert.assertEquals(
+                    "[{\"to_state\":\"BLOCK\",\"result\":\"NONE\",\"user\":{\"id\":1,\"username\":\"u1\",\"state\":\"active\"," +
+                            "\"identities\":[{\"provider\":\"ldapmain\",\"extern_uid\":\"cn=u1,dc=example,dc=com\"}]}}]",
+                    worker.processGitUsers());
+
+            //Identities are not stored, user taken from the store has no identities field instead of an empty one
+            Mockito.doAnswer(invocation -> Collections.singletonMap("u1", AccountState.DISABLED))
+                    .when(searcher).getChangedAccountStates(Mockito.any());
+            Assert.assertEquals(
+                    "[{\"to_state\":\"BLOCK\",\"result\":\"NONE\",\"user\":{\"id\":1,\"username\":\"u1\",\"state\":\"active\"}}]",
+                    worker.processGitUsers());
+            Mockito.verify(api, Mockito.never()).getGitUsers(Mockito.any(String[].class), Mockito.any(UserPageHandler.class));
+        } finally {
+            Assert.assertTrue(!watermarkFile.exists() || watermarkFile.delete());
+            Assert.assertTrue(!stateFile.exists() || stateFile.delete());
+        }
+    }
+
+    /**
+     * {@link Worker#processGitUsers()} with incremental scan of Gitlab users.
+     */
+    @Test
+    public void processGitUsersGitlabScan() throws Exception {
+        File watermarkFile = File.createTempFile("watermark", ".properties");
+        File stateFile = File.createTempFile("state", ".bin");
+        Assert.assertTrue(watermarkFile.delete());
+        Assert.assertTrue(stateFile.delete());
+        try {
+            Mockito.doCallRealMethod().when(worker).setWatermarkFile(Mockito.anyString());
+            Mockito.doCallRealMethod().when(worker).setFullResync(Mockito.anyInt());
+            Mockito.doCallRealMethod().when(worker).setStateFile(Mockito.anyString());
+            Mockito.doCallRealMethod().when(worker).setGitlabFullScan(Mockito.anyInt());
+            worker.setWatermarkFile(watermarkFile.getPath());
+            worker.setFullResync(0);
+            worker.setStateFile(stateFile.getPath());
+            worker.setGitlabFullScan(24);
+            worker.setTemplate("");
+            worker.setWithIdentities(false);
+            worker.setUsernameExclude(new String[0]);
+            worker.setProdMode(true);
+            Map<String, AccountState> states = new HashMap<>();
+            states.put("u1", AccountState.ACTIVE);
+            states.put("u3", AccountState.DISABLED);
+            Mockito.when(searcher.getAccountStates(Mockito.any(String[].class))).thenReturn(states);
+
+            //First run requests all users, user without AD account is stored too
+            Mockito.doAnswer(page(new User[]{
+                    new User(1, "u1", "active", new Identity[0]),
+                    new User(2, "u2", "active", new Identity[0])
+            })).when(api).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            Assert.assertEquals("[]", worker.processGitUsers());
+            ChangeWatermark watermark = ChangeWatermark.load(watermarkFile);
+            Assert.assertTrue(watermark.getGitlabScan() > 0);
+            Assert.assertEquals(watermark.getGitlabScan(), watermark.getGitlabFullScan());
+            try (UserStateStore store = UserStateStore.open(stateFile)){
+                Assert.assertEquals(2, store.size());
+                Assert.assertNull(store.get(2).getAdState());
+            }
+
+            //Next run requests only created users
+            Mockito.doAnswer(page(new User[]{ new User(3, "u3", "active", new Identity[0]) })).when(api)
+                    .getGitUsersCreatedAfter(Mockito.eq(watermark.getGitlabScan() - Worker.SCAN_OVERLAP), Mockito.any(UserPageHandler.class));
+            Assert.assertEquals(
+                    "[{\"to_state\":\"BLOCK\",\"result\":\"SUCCESS\",\"user\":{\"id\":3,\"username\":\"u3\",\"state\":\"active\",\"identities\":[]}}]",
+                    worker.processGitUsers());
+            Mockito.verify(api, Mockito.times(1)).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            Mockito.verify(searcher).getAccountStates(new String[]{ "u3", "u1", "u2" });
+            try (UserStateStore store = UserStateStore.open(stateFile)){
+                Assert.assertEquals(3, store.size());
+                Assert.assertEquals("blocked", store.get(3).getGitState());
+            }
+
+            //Full scan is due
+            worker.setGitlabFullScan(0);
+            worker.processGitUsers();
+            Mockito.verify(api, Mockito.times(2)).getAllGitUsers(Mockito.any(UserPageHandler.class));
+            try (UserStateStore store = UserStateStore.open(stateFile)){
+                //User 3 was not returned by Gitlab
+                Assert.assertEquals(2, store.size());
+            }
+        } finally {
+            Assert.assertTrue(!watermarkFile.exists() || watermarkFile.delete());
+            Assert.assertTrue(!stateFile.exists() || stateFile.delete());
+        }
+    }
+
+    /**
+     * {@link Worker#buildUserQuery()}.
+     */
+    @Test
+    public void buildUserQuery() {
+        Mockito.doCallRealMethod().when(worker).setServerFilter(Mockito.anyBoolean());
+        Mockito.when(worker.buildUserQuery()).thenCallRealMethod();
+
+        worker.setServerFilter(true);
+        worker.setWithIdentities(true);
+        Assert.assertEquals("&exclude_internal=true&without_project_bots=true&humans=true", worker.buildUserQuery().toQuery());
+
+        //Bots may have the same username as AD user
+        worker.setWithIdentities(false);
+        Assert.assertTrue(worker.buildUserQuery().isEmpty());
+
+        worker.setServerFilter(false);
+        worker.setWithIdentities(true);
+        Assert.assertTrue(worker.buildUserQuery().isEmpty());
+    }
+
     /**
      * {@link Worker#parseUsernameExclude(String)}.
      */
@@ -128,6 +578,7 @@ public class WorkerTest {
         Assert.assertArrayEquals(new String[]{"u1", "u2", "u3"}, worker.parseUsernameExclude("u1,u2,u3"));
         Assert.assertArrayEquals(new String[]{"u1", "u2"}, worker.parseUsernameExclude(",u1,,u2,"));
         Assert.assertArrayEquals(new String[0], worker.parseUsernameExclude(",,,"));
+        Assert.assertArrayEquals(new String[]{"a", "b"}, worker.parseUsernameExclude("a, b"));
     }
 
     /**
@@ -221,35 +672,12 @@ public class WorkerTest {
     }
 
     /**
-     * {@link Worker#removeNonexistentUsers(Map)}.
+     * Answer of Gitlab API that passes {@code users} to the page handler, the last argument, as one page.
      */
-    @Test
-    public void removeNonexistentUsers() {
-        Map<String, Boolean> users = new HashMap<>();
-        users.put("u1", true);
-        users.put("u2", true);
-        users.put("u3", false);
-        users.put("u4", true);
-        users.put("u5", false);
-        Map<String, Boolean> expected = new HashMap<>();
-        expected.put("u1", true);
-        expected.put("u2", true);
-        expected.put("u4", true);
-        Map<String, Boolean> actual = worker.removeNonexistentUsers(users);
-        Assert.assertEquals(expected, actual);
-    }
-
-    /**
-     * {@link Worker#getUsernameFromMap(Map)}.
-     */
-    @Test
-    public void getUsernameFromMap() {
-        Map<String, Boolean> map = new HashMap<>();
-        map.put("u1", true);
-        map.put("u2", true);
-        map.put("u3", false);
-        String[] expected = new String[]{ "u1", "u2", "u3" };
-        String[] actual = worker.getUsernameFromMap(map);
-        Assert.assertArrayEquals(expected, actual);
+    private static Answer<Void> page(User[] users){
+        return invocation -> {
+            ((UserPageHandler) invocation.getArgument(invocation.getArguments().length - 1)).onPage(users);
+            return null;
+        };
     }
-}
\ No newline at end of file
+}